@@ -0,0 +1,336 @@
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Streams the text files out of zip, tar, gzipped tar and gzipped text files
+ * without extracting them to disk. Each text file inside an archive is
+ * identified by a location of the form {@code archive!/entry}.
+ *
+ * Archives are read front to back in a single pass. Only regular entries with
+ * a .txt or .text extension are handed out; nested archives are not opened.
+ *
+ * Archives are only recognized once reading them is turned on with
+ * {@link #setEnabled(boolean)}, so that indexing a directory that happens to
+ * contain archives gives the same index as before unless archives are asked for.
+ *
+ * @author salimamukhit
+ */
+public class ArchiveReader {
+
+	/** The separator between the archive and the entry in a location */
+	public static final String SEPARATOR = "!/";
+
+	/** The size of a tar block */
+	private static final int BLOCK = 512;
+
+	/** Whether archives are recognized and read */
+	private static volatile boolean enabled = false;
+
+	/**
+	 * Receives the text files found in an archive.
+	 */
+	@FunctionalInterface
+	public interface EntryConsumer {
+		/**
+		 * @brief Accepts a text file from an archive. The stream must not be used once
+		 * this method returns.
+		 * @param location the location of the entry, in the form {@code archive!/entry}
+		 * @param in the contents of the entry, which do not need to be read to the end
+		 * @throws IOException if an I/O error occurs
+		 */
+		public void accept(String location, InputStream in) throws IOException;
+	}
+
+	/**
+	 * @brief Turns reading archives on or off for all following builds
+	 * @param enabled whether archives are recognized and read
+	 */
+	public static void setEnabled(boolean enabled) {
+		ArchiveReader.enabled = enabled;
+	}
+
+	/**
+	 * @brief Checks whether reading archives is turned on
+	 * @return true if archives are recognized and read
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @brief Checks whether a file is an archive this class can read
+	 * @param file the file to check
+	 * @return true if reading archives is turned on and the file name has an
+	 *         archive extension
+	 */
+	public static boolean isArchive(Path file) {
+		return enabled && TextFileFinder.hasArchiveName(file);
+	}
+
+	/**
+	 * @brief Hands every text file in an archive to the consumer, in the order they
+	 * are stored
+	 * @param archive the archive to read
+	 * @param consumer the consumer of the text files
+	 * @throws IOException if an I/O error occurs or the archive is corrupt
+	 */
+	public static void read(Path archive, EntryConsumer consumer) throws IOException {
+		String name = archive.getFileName().toString();
+		String lower = name.toLowerCase();
+		String prefix = archive.toString() + SEPARATOR;
+
+		try(InputStream in = new BufferedInputStream(Files.newInputStream(archive))) {
+			if(lower.endsWith(".zip")) {
+				readZip(new ZipInputStream(in, StandardCharsets.UTF_8), prefix, consumer);
+			} else if(lower.endsWith(".tar")) {
+				readTar(in, prefix, consumer);
+			} else if(lower.endsWith(".tar.gz") || lower.endsWith(".tgz")) {
+				readTar(new GZIPInputStream(in), prefix, consumer);
+			} else if(lower.endsWith(".gz")) {
+				consumer.accept(prefix + name.substring(0, name.length() - 3), new GZIPInputStream(in));
+			}
+		}
+	}
+
+	/**
+	 * @brief Removes leading "./" and "/" from an entry name
+	 * @param name the name of an entry
+	 * @return the name relative to the root of the archive
+	 */
+	private static String relative(String name) {
+		int start = 0;
+		while(true) {
+			if(name.startsWith("./", start)) {
+				start += 2;
+			} else if(name.startsWith("/", start)) {
+				start++;
+			} else {
+				return name.substring(start);
+			}
+		}
+	}
+
+	/**
+	 * @brief Hands the text files in a zip archive to the consumer
+	 * @param zip the zip archive
+	 * @param prefix the location prefix of the archive
+	 * @param consumer the consumer of the text files
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static void readZip(ZipInputStream zip, String prefix, EntryConsumer consumer) throws IOException {
+		ZipEntry entry;
+		while((entry = zip.getNextEntry()) != null) {
+			if(!entry.isDirectory() && TextFileFinder.hasTextName(entry.getName())) {
+				consumer.accept(prefix + relative(entry.getName()), new EntryStream(zip, Long.MAX_VALUE));
+			}
+		}
+	}
+
+	/**
+	 * @brief Hands the text files in a tar archive to the consumer. Understands ustar
+	 * names and the long names of GNU and pax archives.
+	 * @param tar the tar archive
+	 * @param prefix the location prefix of the archive
+	 * @param consumer the consumer of the text files
+	 * @throws IOException if an I/O error occurs or the archive is corrupt
+	 */
+	private static void readTar(InputStream tar, String prefix, EntryConsumer consumer) throws IOException {
+		byte[] header = new byte[BLOCK];
+		String longName = null;
+
+		while(tar.readNBytes(header, 0, BLOCK) == BLOCK && !isZero(header)) {
+			long size = octal(header, 124, 12);
+			byte type = header[156];
+			String name = longName != null ? longName : tarName(header);
+			longName = null;
+
+			EntryStream data = new EntryStream(tar, size);
+			if(type == 'L') {
+				longName = trim(new String(data.readAllBytes(), StandardCharsets.UTF_8));
+			} else if(type == 'x') {
+				longName = paxPath(new String(data.readAllBytes(), StandardCharsets.UTF_8));
+			} else if((type == '0' || type == 0) && TextFileFinder.hasTextName(name)) {
+				consumer.accept(prefix + relative(name), data);
+			}
+
+			data.skipRest();
+			tar.skipNBytes((BLOCK - size % BLOCK) % BLOCK);
+		}
+	}
+
+	/**
+	 * @brief Checks whether a tar block is all zeros, which marks the end of the archive
+	 * @param block the block to check
+	 * @return true if every byte is zero
+	 */
+	private static boolean isZero(byte[] block) {
+		for(byte b : block) {
+			if(b != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @brief Reads the name of a tar entry from its header, including the ustar prefix
+	 * @param header the header block
+	 * @return the name of the entry
+	 */
+	private static String tarName(byte[] header) {
+		String name = field(header, 0, 100);
+		if(field(header, 257, 5).equals("ustar")) {
+			String directory = field(header, 345, 155);
+			if(!directory.isEmpty()) {
+				return directory + "/" + name;
+			}
+		}
+		return name;
+	}
+
+	/**
+	 * @brief Finds the path record of pax extended header data
+	 * @param records the records, one "length key=value" per line
+	 * @return the path, or null if there is none
+	 */
+	private static String paxPath(String records) {
+		for(String record : records.split("\n")) {
+			int start = record.indexOf(" path=");
+			if(start >= 0) {
+				return record.substring(start + 6);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @brief Reads a NUL-terminated text field of a tar header
+	 * @param header the header block
+	 * @param offset the offset of the field
+	 * @param length the maximum length of the field
+	 * @return the text of the field
+	 */
+	private static String field(byte[] header, int offset, int length) {
+		int end = offset;
+		while(end < offset + length && header[end] != 0) {
+			end++;
+		}
+		return new String(header, offset, end - offset, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @brief Reads an octal number field of a tar header
+	 * @param header the header block
+	 * @param offset the offset of the field
+	 * @param length the length of the field
+	 * @return the number
+	 * @throws IOException if the field is not a number
+	 */
+	private static long octal(byte[] header, int offset, int length) throws IOException {
+		String text = field(header, offset, length).trim();
+		try {
+			return text.isEmpty() ? 0 : Long.parseLong(text, 8);
+		} catch(NumberFormatException e) {
+			throw new IOException("Corrupt tar header: " + text);
+		}
+	}
+
+	/**
+	 * @brief Removes trailing NUL characters
+	 * @param text the text to trim
+	 * @return the trimmed text
+	 */
+	private static String trim(String text) {
+		int end = text.length();
+		while(end > 0 && text.charAt(end - 1) == 0) {
+			end--;
+		}
+		return text.substring(0, end);
+	}
+
+	/**
+	 * A view of one entry of an archive stream. Reading stops at the end of the
+	 * entry, and closing the view leaves the archive open.
+	 */
+	private static class EntryStream extends FilterInputStream {
+
+		/** The number of bytes left in the entry */
+		private long remaining;
+
+		/**
+		 * Constructor
+		 * @param in the archive stream
+		 * @param size the size of the entry, or {@link Long#MAX_VALUE} if the archive
+		 * stream ends at the end of the entry
+		 */
+		public EntryStream(InputStream in, long size) {
+			super(in);
+			this.remaining = size;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if(remaining <= 0) {
+				return -1;
+			}
+			int b = in.read();
+			if(b >= 0) {
+				remaining--;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			if(remaining <= 0) {
+				return -1;
+			}
+			int read = in.read(buffer, offset, (int) Math.min(length, remaining));
+			if(read > 0) {
+				remaining -= read;
+			}
+			return read;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = in.skip(Math.min(n, remaining));
+			remaining -= skipped;
+			return skipped;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return (int) Math.min(in.available(), remaining);
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		@Override
+		public void close() {
+			// the archive stays open for the next entry
+		}
+
+		/**
+		 * @brief Skips whatever the consumer did not read of a sized entry
+		 * @throws IOException if the archive ends early
+		 */
+		public void skipRest() throws IOException {
+			if(remaining != Long.MAX_VALUE) {
+				in.skipNBytes(remaining);
+				remaining = 0;
+			}
+		}
+	}
+}
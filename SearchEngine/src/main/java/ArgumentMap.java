@@ -195,6 +195,41 @@ public class ArgumentMap {
 		return defaultValue;
 	}
 
+	/**
+	 * @brief Returns the value the specified flag is mapped as a number of bytes, or
+	 * the default value if unable to retrieve this mapping (including being unable
+	 * to convert the value or if no value exists). The value may end in k, m or g
+	 * for kibibytes, mebibytes or gibibytes, such as 512m or 2g.
+	 *
+	 * @param flag the flag whose associated value will be returned
+	 * @param defaultValue the default value to return if there is no valid
+	 *        mapping
+	 * @return the value the specified flag is mapped as a number of bytes, or the
+	 *         default value if there is no valid mapping
+	 */
+	public long getBytes(String flag, long defaultValue) {
+		String value = this.map.get(flag);
+		if(value != null && value.matches("(?i)[0-9]+[kmg]?")) {
+			int shift = 0;
+			switch(Character.toLowerCase(value.charAt(value.length() - 1))) {
+				case 'k': shift = 10; break;
+				case 'm': shift = 20; break;
+				case 'g': shift = 30; break;
+				default: break;
+			}
+			String digits = shift == 0 ? value : value.substring(0, value.length() - 1);
+			try {
+				long number = Long.parseLong(digits);
+				if(number <= Long.MAX_VALUE >> shift) {
+					return number << shift;
+				}
+			} catch(NumberFormatException e) {
+				return defaultValue;
+			}
+		}
+		return defaultValue;
+	}
+
 	@Override
 	public String toString() {
 		return this.map.toString();
@@ -0,0 +1,96 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread-safe Bloom filter of 64-bit fingerprints. It answers whether a
+ * fingerprint may have been added before using a few bits per fingerprint. A
+ * fingerprint that was added is always reported as seen, but one that was
+ * not added is reported as seen with a small false positive probability.
+ *
+ * The bit positions of a fingerprint are derived from its two halves by double
+ * hashing, so the fingerprints should already be well mixed.
+ *
+ * @author salimamukhit
+ */
+public class BloomFilter {
+
+	/** The bits of the filter */
+	private final AtomicLongArray bits;
+
+	/** The number of bits of the filter */
+	private final long size;
+
+	/** The number of bits set for every fingerprint */
+	private final int hashes;
+
+	/**
+	 * Constructor
+	 * @param expected the number of fingerprints expected to be added
+	 * @param falsePositives the false positive probability once that many have been
+	 *        added, between 0 and 1
+	 */
+	public BloomFilter(long expected, double falsePositives) {
+		if(expected < 1 || falsePositives <= 0 || falsePositives >= 1) {
+			throw new IllegalArgumentException("The filter needs a positive size and a probability between 0 and 1!");
+		}
+		double ln2 = Math.log(2);
+		long optimal = (long) Math.ceil(-expected * Math.log(falsePositives) / (ln2 * ln2));
+		long words = Math.max(1, (optimal + 63) / 64);
+		if(words > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("The filter would be too large!");
+		}
+		this.bits = new AtomicLongArray((int) words);
+		this.size = words * 64;
+		this.hashes = Math.max(1, (int) Math.round((double) size / expected * ln2));
+	}
+
+	/**
+	 * @brief Adds a fingerprint to the filter
+	 * @param fingerprint the fingerprint to add
+	 * @return true if the fingerprint was definitely not in the filter before, false
+	 *         if it may have been
+	 */
+	public boolean add(long fingerprint) {
+		boolean added = false;
+		long hash = fingerprint;
+		long step = (fingerprint >>> 32) | (fingerprint << 32) | 1;
+		for(int i = 0; i < hashes; i++, hash += step) {
+			long bit = Long.remainderUnsigned(hash, size);
+			int word = (int) (bit >>> 6);
+			long mask = 1L << bit;
+			long current;
+			while(((current = bits.get(word)) & mask) == 0) {
+				if(bits.compareAndSet(word, current, current | mask)) {
+					added = true;
+					break;
+				}
+			}
+		}
+		return added;
+	}
+
+	/**
+	 * @brief Checks whether a fingerprint may have been added
+	 * @param fingerprint the fingerprint to check
+	 * @return false if the fingerprint was definitely not added, true if it may have
+	 *         been
+	 */
+	public boolean mightContain(long fingerprint) {
+		long hash = fingerprint;
+		long step = (fingerprint >>> 32) | (fingerprint << 32) | 1;
+		for(int i = 0; i < hashes; i++, hash += step) {
+			long bit = Long.remainderUnsigned(hash, size);
+			if((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @brief Returns the size of the filter in bytes
+	 * @return the number of bytes used by the bits
+	 */
+	public long sizeInBytes() {
+		return size / 8;
+	}
+}
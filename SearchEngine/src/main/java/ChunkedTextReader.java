@@ -0,0 +1,218 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streams a UTF-8 text file into a {@link TextTokenizer} in fixed-size chunks.
+ * The file is decoded straight into a reusable character buffer, so no strings
+ * are created for lines and memory use does not depend on how long the lines
+ * are. A word that is cut off at the end of a chunk is carried over into the
+ * next one by the tokenizer.
+ *
+ * The words are the same as when every line from
+ * {@link java.io.BufferedReader#readLine()} is tokenized on its own: line
+ * breaks end a line for the tokenizer, and chunks are only split where Unicode
+ * normalization of the two halves gives the same result as normalizing them
+ * together. Malformed input is reported the same way as by a reader. This class
+ * is not thread-safe, but may be reused for any number of files.
+ *
+ * @author salimamukhit
+ */
+public class ChunkedTextReader {
+
+	/** The default number of bytes to read at a time */
+	public static final int DEFAULT_CHUNK = 1 << 16;
+
+	/** The bytes read from the file */
+	private final ByteBuffer bytes;
+
+	/** The decoded characters, including any held back from the previous chunk */
+	private final CharBuffer chars;
+
+	/** A view of the character buffer handed to the tokenizer */
+	private final CharBuffer view;
+
+	/** The UTF-8 decoder */
+	private final CharsetDecoder decoder;
+
+	/**
+	 * Constructor
+	 */
+	public ChunkedTextReader() {
+		this(DEFAULT_CHUNK);
+	}
+
+	/**
+	 * Constructor
+	 * @param chunkSize the number of bytes to read at a time
+	 */
+	public ChunkedTextReader(int chunkSize) {
+		if(chunkSize < 16) {
+			throw new IllegalArgumentException("The chunk size has to be at least 16 bytes!");
+		}
+		this.bytes = ByteBuffer.allocateDirect(chunkSize);
+		this.chars = CharBuffer.allocate(chunkSize);
+		this.view = CharBuffer.wrap(chars.array());
+		this.decoder = StandardCharsets.UTF_8.newDecoder();
+	}
+
+	/**
+	 * @brief Tokenizes a text file
+	 * @param file the file to read
+	 * @param tokenizer the tokenizer to feed, finished once the file ends
+	 * @param consumer the consumer of the words
+	 * @throws IOException if an I/O error occurs or the file is not valid UTF-8
+	 */
+	public void tokenize(Path file, TextTokenizer tokenizer, TextTokenizer.TokenConsumer consumer) throws IOException {
+		tokenize(file, 0, Long.MAX_VALUE, tokenizer, consumer);
+	}
+
+	/**
+	 * @brief Tokenizes part of a text file. The part has to start and end on a
+	 * character boundary.
+	 * @param file the file to read
+	 * @param from the offset of the first byte to read
+	 * @param to the offset after the last byte to read
+	 * @param tokenizer the tokenizer to feed, finished once the part ends
+	 * @param consumer the consumer of the words
+	 * @throws IOException if an I/O error occurs or the part is not valid UTF-8
+	 */
+	public void tokenize(Path file, long from, long to, TextTokenizer tokenizer, TextTokenizer.TokenConsumer consumer)
+			throws IOException {
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			channel.position(from);
+			tokenize(channel, to - from, tokenizer, consumer);
+		}
+	}
+
+	/**
+	 * @brief Tokenizes a text read from a stream, such as an archive entry. The stream
+	 * is read to its end but not closed.
+	 * @param in the stream to read
+	 * @param tokenizer the tokenizer to feed, finished once the stream ends
+	 * @param consumer the consumer of the words
+	 * @throws IOException if an I/O error occurs or the text is not valid UTF-8
+	 */
+	public void tokenize(InputStream in, TextTokenizer tokenizer, TextTokenizer.TokenConsumer consumer)
+			throws IOException {
+		tokenize(Channels.newChannel(in), Long.MAX_VALUE, tokenizer, consumer);
+	}
+
+	/**
+	 * @brief Tokenizes up to the given number of bytes from a channel
+	 * @param channel the channel to read
+	 * @param remaining the maximum number of bytes to read
+	 * @param tokenizer the tokenizer to feed, finished once the text ends
+	 * @param consumer the consumer of the words
+	 * @throws IOException if an I/O error occurs or the text is not valid UTF-8
+	 */
+	private void tokenize(ReadableByteChannel channel, long remaining, TextTokenizer tokenizer,
+			TextTokenizer.TokenConsumer consumer) throws IOException {
+		bytes.clear();
+		chars.clear();
+		decoder.reset();
+
+		boolean eof = false;
+		boolean done = false;
+		while(!done) {
+			if(!eof) {
+				bytes.limit(bytes.position() + (int) Math.min(bytes.capacity() - bytes.position(), remaining));
+				int read = channel.read(bytes);
+				eof = read < 0 || remaining == 0;
+				remaining -= Math.max(read, 0);
+			}
+			bytes.flip();
+			CoderResult result = decoder.decode(bytes, chars, eof);
+			done = eof && result.isUnderflow();
+			if(done) {
+				result = decoder.flush(chars);
+			}
+			if(result.isError()) {
+				result.throwException();
+			}
+			bytes.compact();
+
+			chars.flip();
+			feed(tokenizer, consumer, done);
+			chars.compact();
+		}
+		tokenizer.finish(consumer);
+	}
+
+	/**
+	 * @brief Feeds the decoded characters to the tokenizer, line by line. Characters
+	 * after the last safe split point are left in the buffer for the next chunk
+	 * unless the file has ended.
+	 * @param tokenizer the tokenizer to feed
+	 * @param consumer the consumer of the words
+	 * @param done whether the file has ended
+	 */
+	private void feed(TextTokenizer tokenizer, TextTokenizer.TokenConsumer consumer, boolean done) {
+		char[] array = chars.array();
+		int end = chars.limit();
+		int from = chars.position();
+
+		for(int i = from; i < end; i++) {
+			if(array[i] == '\n' || array[i] == '\r') {
+				tokenizer.feed(view(from, i), consumer);
+				tokenizer.finish(consumer);
+				from = i + 1;
+			}
+		}
+
+		int split = done ? end : splitPoint(array, from, end);
+		if(split == from && end == chars.capacity()) {
+			split = end;
+		}
+		if(split > from) {
+			tokenizer.feed(view(from, split), consumer);
+		}
+		chars.position(split);
+	}
+
+	/**
+	 * @brief Finds the last point where the text may be split without changing its
+	 * normalized form: after an ASCII character, or otherwise before a character that
+	 * is neither a mark nor part of a surrogate pair
+	 * @param array the characters
+	 * @param from the start of the text
+	 * @param end the end of the text
+	 * @return the split point, or the start of the text if there is none
+	 */
+	private static int splitPoint(char[] array, int from, int end) {
+		for(int i = end - 1; i >= from; i--) {
+			if(array[i] < 128) {
+				return i + 1;
+			}
+		}
+		for(int i = end - 1; i > from; i--) {
+			char c = array[i];
+			int type = Character.getType(c);
+			if(!Character.isSurrogate(c) && type != Character.NON_SPACING_MARK &&
+					type != Character.COMBINING_SPACING_MARK && type != Character.ENCLOSING_MARK) {
+				return i;
+			}
+		}
+		return from;
+	}
+
+	/**
+	 * @brief Points the reusable view at part of the character buffer
+	 * @param from the start of the part
+	 * @param to the end of the part
+	 * @return the view
+	 */
+	private CharBuffer view(int from, int to) {
+		view.limit(to).position(from);
+		return view;
+	}
+}
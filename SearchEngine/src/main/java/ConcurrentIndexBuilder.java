@@ -1,5 +1,22 @@
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 /**
  *
  * @author salimamukhit
@@ -8,11 +25,41 @@ import java.nio.file.Path;
  */
 public class ConcurrentIndexBuilder extends InvertedIndexBuilder {
 	
+	/** The default size in bytes above which a file is split into chunks */
+	public static final int DEFAULT_SPLIT = 1 << 24;
+	
+	/** The number of bytes searched for a place to split a file at */
+	private static final int SEARCH_WINDOW = 1 << 16;
+	
+	/** The largest archive entry in bytes that is handed to another worker */
+	private static final int MAX_ENTRY_TASK = 1 << 22;
+	
+	/** The most bytes of archive entries that may wait to be parsed at a time */
+	private static final long MAX_WAITING = 1 << 26;
+	
 	/** A Work Queue object */
 	private final WorkQueue queue;
 	
 	/** An Inverted Index data structure */
 	private final ConcurrentInvertedIndex index; 
+	
+	/**
+	 * Local indexes that each worker thread accumulates files into, so that
+	 * workers never contend on the shared index while building
+	 */
+	private final ConcurrentHashMap<Thread, InvertedIndex> locals;
+	
+	/** The size in bytes above which a file is split into chunks parsed in parallel */
+	private final int splitSize;
+	
+	/** The size of every file submitted so far */
+	private final ConcurrentHashMap<Path, Long> sizes;
+	
+	/** The time in nanoseconds the workers spent parsing each file */
+	private final ConcurrentHashMap<Path, LongAdder> parseTimes;
+	
+	/** The number of bytes of archive entries waiting to be parsed */
+	private final AtomicLong waitingBytes;
 
 	/**
 	 * Constructor
@@ -20,23 +67,168 @@ public class ConcurrentIndexBuilder extends InvertedIndexBuilder {
 	 * @param queue the work queue
 	 */
 	public ConcurrentIndexBuilder(ConcurrentInvertedIndex index, WorkQueue queue) {
+		this(index, queue, DEFAULT_SPLIT);
+	}
+
+	/**
+	 * Constructor
+	 * @param index InvertedIndex structure
+	 * @param queue the work queue
+	 * @param splitSize the size in bytes above which a file is split into chunks
+	 */
+	public ConcurrentIndexBuilder(ConcurrentInvertedIndex index, WorkQueue queue, int splitSize) {
 		super(index);
+		if(splitSize < SEARCH_WINDOW) {
+			throw new IllegalArgumentException("The split size has to be at least " + SEARCH_WINDOW + " bytes!");
+		}
 		this.index = index;
 		this.queue = queue;
+		this.locals = new ConcurrentHashMap<>();
+		this.splitSize = splitSize;
+		this.sizes = new ConcurrentHashMap<>();
+		this.parseTimes = new ConcurrentHashMap<>();
+		this.waitingBytes = new AtomicLong();
 	}
 	
 	@Override
 	public void createIndex(Path start) throws IOException {
-		super.createIndex(start);
+		submitAll(start);
 		
 		queue.finish();
+		mergeLocals();
+		index.publish();
+	}
+	
+	/**
+	 * @brief Submits every file in the path to the work queue. The sizes of all files
+	 * are looked up first and the largest files are submitted first, so that a large
+	 * file found late does not leave one worker parsing it while the others idle.
+	 * @param start a starting path
+	 * @throws IOException if an I/O error occurs
+	 */
+	protected void submitAll(Path start) throws IOException {
+		List<Path> files = new ArrayList<>(TextFileFinder.list(start));
+		for(Path file : files) {
+			sizes.put(file, size(file));
+		}
+		files.sort(Comparator.comparingLong((Path file) -> sizes.get(file)).reversed());
+		
+		for(Path file : files) {
+			schedule(file, sizes.get(file));
+		}
 	}
 	
+	/**
+	 * @brief Submits a file to be parsed by the work queue. The file is added to the
+	 * local index of the worker that parses it, and reaches the shared index once
+	 * {@link #createIndex(Path)} merges all local indexes. Files larger than the split
+	 * size are split into chunks that are parsed in parallel.
+	 * @param file a file to parse
+	 */
 	@Override
 	public void parseFile(Path file) {
+		schedule(file, size(file));
+	}
+	
+	/**
+	 * @brief Submits a file of a known size to be parsed by the work queue. May be
+	 * called from any thread.
+	 * @param file a file to parse
+	 * @param size the size of the file in bytes
+	 */
+	protected void schedule(Path file, long size) {
+		sizes.put(file, size);
+		if(size > splitSize && !ArchiveReader.isArchive(file)) {
+			try {
+				new SplitFile(file).start();
+				return;
+			} catch (IOException e) {
+				// the builder task reports the error once it fails to read the file
+			}
+		}
 		queue.execute(new BuilderTask(file));
 	}
 	
+	/**
+	 * @brief Looks up the size of a file
+	 * @param file the file
+	 * @return the size in bytes, or 0 if it cannot be read
+	 */
+	private static long size(Path file) {
+		try {
+			return Files.size(file);
+		} catch (IOException e) {
+			return 0;
+		}
+	}
+	
+	/**
+	 * @brief Adds time spent parsing a file to its total
+	 * @param file the file
+	 * @param nanos the time spent
+	 */
+	private void timed(Path file, long nanos) {
+		parseTimes.computeIfAbsent(file, path -> new LongAdder()).add(nanos);
+	}
+	
+	/**
+	 * @brief Returns the files that took the longest to parse, together with the time
+	 * the workers spent on them, longest first
+	 * @param limit the maximum number of files to return
+	 * @return a list of files and parse times in nanoseconds
+	 */
+	public List<Map.Entry<Path, Long>> slowestFiles(int limit) {
+		List<Map.Entry<Path, Long>> result = new ArrayList<>();
+		for(Map.Entry<Path, LongAdder> entry : parseTimes.entrySet()) {
+			result.add(Map.entry(entry.getKey(), entry.getValue().sum()));
+		}
+		result.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+		return result.size() > limit ? result.subList(0, limit) : result;
+	}
+	
+	/**
+	 * @brief Summarizes the parse times of all files and lists the slowest ones
+	 * @param limit the maximum number of files to list
+	 * @return the parse time report
+	 */
+	public String parseTimeReport(int limit) {
+		List<Map.Entry<Path, Long>> all = slowestFiles(Integer.MAX_VALUE);
+		long total = 0;
+		for(Map.Entry<Path, Long> entry : all) {
+			total += entry.getValue();
+		}
+		
+		StringBuilder builder = new StringBuilder();
+		builder.append(String.format("parse time: %d files, %.1f ms total, %.1f ms median, %.1f ms max%n",
+				all.size(), total / 1e6, all.isEmpty() ? 0.0 : all.get(all.size() / 2).getValue() / 1e6,
+				all.isEmpty() ? 0.0 : all.get(0).getValue() / 1e6));
+		for(Map.Entry<Path, Long> entry : all.subList(0, Math.min(limit, all.size()))) {
+			builder.append(String.format("  %s: %.1f ms (%d bytes)%n", entry.getKey(), entry.getValue() / 1e6,
+					sizes.getOrDefault(entry.getKey(), 0L)));
+		}
+		return builder.toString();
+	}
+	
+	/**
+	 * @brief Combines the local indexes of all workers with a parallel pairwise
+	 * reduction and adds the result to the shared index in a single write.
+	 */
+	private void mergeLocals() {
+		List<InvertedIndex> parts = new ArrayList<>(locals.values());
+		locals.clear();
+		
+		if(parts.isEmpty()) {
+			return;
+		}
+		
+		ForkJoinPool pool = new ForkJoinPool(queue.size());
+		try {
+			index.addAll(pool.invoke(new MergeTask(parts, 0, parts.size())));
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
 	/**
 	 * 
 	 * @author salimamukhit
@@ -57,13 +249,419 @@ public class ConcurrentIndexBuilder extends InvertedIndexBuilder {
 
 		@Override
 		public void run() {
+			long start = System.nanoTime();
+			try {
+				if(ArchiveReader.isArchive(file)) {
+					ArchiveReader.read(file, this::submitEntry);
+				} else {
+					InvertedIndex local = new InvertedIndex();
+					InvertedIndexBuilder.parseFile(file, local);
+					locals.computeIfAbsent(Thread.currentThread(), thread -> new InvertedIndex()).addAll(local);
+				}
+			} catch (IOException e) {
+				System.out.println("I/O error occured!");
+			} finally {
+				timed(file, System.nanoTime() - start);
+			}
+		}
+		
+		/**
+		 * @brief Hands a text file from the archive to another worker. Large entries, and
+		 * entries read while too many others are still waiting to be parsed, are parsed
+		 * by this worker instead, which keeps the memory used by waiting entries bounded.
+		 * An entry that cannot be read or parsed is reported and left out, and the rest
+		 * of the archive is still read.
+		 * @param location the location of the entry
+		 * @param in the contents of the entry
+		 */
+		private void submitEntry(String location, InputStream in) {
+			try {
+				byte[] head = in.readNBytes(MAX_ENTRY_TASK + 1);
+				if(head.length <= MAX_ENTRY_TASK && reserve(head.length)) {
+					queue.execute(new EntryTask(file, location, head));
+					return;
+				}
+				
+				InvertedIndex local = new InvertedIndex();
+				InvertedIndexBuilder.parseEntry(location, new SequenceInputStream(new ByteArrayInputStream(head), in), local);
+				locals.computeIfAbsent(Thread.currentThread(), thread -> new InvertedIndex()).addAll(local);
+			} catch (IOException e) {
+				System.out.println("I/O error occured!");
+			}
+		}
+	}
+	
+	/**
+	 * @brief Reserves room for an archive entry waiting to be parsed
+	 * @param bytes the size of the entry
+	 * @return true if there was room, false if the entry should be parsed right away
+	 */
+	private boolean reserve(long bytes) {
+		if(waitingBytes.addAndGet(bytes) > MAX_WAITING) {
+			waitingBytes.addAndGet(-bytes);
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * 
+	 * @author salimamukhit
+	 * 
+	 * Parses a text file read from an archive by another worker
+	 */
+	private class EntryTask implements Runnable {
+		
+		/** The archive the entry belongs to */
+		private final Path archive;
+		
+		/** The location of the entry */
+		private final String location;
+		
+		/** The contents of the entry */
+		private final byte[] data;
+		
+		/**
+		 * Constructor
+		 * @param archive the archive the entry belongs to
+		 * @param location the location of the entry
+		 * @param data the contents of the entry
+		 */
+		public EntryTask(Path archive, String location, byte[] data) {
+			this.archive = archive;
+			this.location = location;
+			this.data = data;
+		}
+		
+		@Override
+		public void run() {
+			long start = System.nanoTime();
 			try {
 				InvertedIndex local = new InvertedIndex();
-				InvertedIndexBuilder.parseFile(file, local);
-				index.addAll(local);
+				InvertedIndexBuilder.parseEntry(location, new ByteArrayInputStream(data), local);
+				locals.computeIfAbsent(Thread.currentThread(), thread -> new InvertedIndex()).addAll(local);
 			} catch (IOException e) {
 				System.out.println("I/O error occured!");
+			} finally {
+				waitingBytes.addAndGet(-data.length);
+				timed(archive, System.nanoTime() - start);
+			}
+		}
+	}
+	
+	/**
+	 * 
+	 * @author salimamukhit
+	 * 
+	 * A large file split into chunks at line breaks, or inside a very long line
+	 * between a letter and a space. The chunks are tokenized in parallel. Since a
+	 * word's position depends on how many words come before it, a chunk is only
+	 * indexed once all chunks before it have been tokenized and their word counts
+	 * are known, which gives the same positions as parsing the file in one go. The
+	 * chunk indexes reach the worker's local index only if the whole file was read.
+	 */
+	private class SplitFile {
+		
+		/** The file to parse */
+		private final Path file;
+		
+		/** The offsets the chunks start at, followed by the size of the file */
+		private final List<Long> offsets;
+		
+		/** Whether each chunk starts in the middle of a line */
+		private final List<Boolean> midLine;
+		
+		/** The stems of the tokenized chunks that are not indexed yet, guarded by this */
+		private final List<List<String>> stems;
+		
+		/** The indexes of the indexed chunks, guarded by this */
+		private final List<InvertedIndex> parts;
+		
+		/** The next chunk to index, guarded by this */
+		private int next;
+		
+		/** The number of words before the next chunk to index, guarded by this */
+		private int position;
+		
+		/** Whether a chunk could not be read, which leaves the file out, guarded by this */
+		private boolean failed;
+		
+		/**
+		 * Constructor. Finds the places to split the file at.
+		 * @param file the file to parse
+		 * @throws IOException if an I/O error occurs
+		 */
+		public SplitFile(Path file) throws IOException {
+			this.file = file;
+			this.offsets = new ArrayList<>();
+			this.midLine = new ArrayList<>();
+			this.parts = new ArrayList<>();
+			this.next = 0;
+			this.position = 0;
+			
+			offsets.add(0L);
+			midLine.add(false);
+			try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+				long size = channel.size();
+				ByteBuffer window = ByteBuffer.allocate(SEARCH_WINDOW);
+				long target = splitSize;
+				while(target < size) {
+					window.clear();
+					channel.read(window, target - 1);
+					window.flip();
+					
+					int split = lineBreak(window);
+					boolean inLine = split < 0;
+					split = inLine ? wordBreak(window) : split;
+					
+					if(split > 0 && target - 1 + split < size) {
+						offsets.add(target - 1 + split);
+						midLine.add(inLine);
+						target = target - 1 + split + splitSize;
+					} else {
+						target += splitSize;
+					}
+				}
+				offsets.add(size);
+			}
+			this.stems = new ArrayList<>(Collections.nCopies(midLine.size(), null));
+		}
+		
+		/**
+		 * @brief Submits a task for every chunk to the work queue
+		 */
+		public void start() {
+			for(int i = 0; i < midLine.size(); i++) {
+				queue.execute(new ChunkTask(this, i));
+			}
+		}
+		
+		/**
+		 * @brief Stores the stems of a tokenized chunk and submits every chunk whose
+		 * position is now known to be indexed
+		 * @param chunk the tokenized chunk
+		 * @param words the stems of the chunk in order
+		 */
+		public synchronized void tokenized(int chunk, List<String> words) {
+			if(failed) {
+				return;
+			}
+			stems.set(chunk, words);
+			while(next < stems.size() && stems.get(next) != null) {
+				List<String> ready = stems.set(next, null);
+				queue.execute(new ChunkIndexTask(this, ready, position));
+				position += ready.size();
+				next++;
+			}
+		}
+		
+		/**
+		 * @brief Stores the index of a chunk and adds the whole file to the local index
+		 * of the current worker once every chunk is indexed
+		 * @param part the index of a chunk
+		 */
+		public void indexed(InvertedIndex part) {
+			synchronized(this) {
+				if(failed) {
+					return;
+				}
+				parts.add(part);
+				if(parts.size() < stems.size()) {
+					return;
+				}
+			}
+			InvertedIndex local = locals.computeIfAbsent(Thread.currentThread(), thread -> new InvertedIndex());
+			for(InvertedIndex chunk : parts) {
+				local.addAll(chunk);
+			}
+		}
+		
+		/**
+		 * @brief Leaves the whole file out of the index after one of its chunks could not
+		 * be read, like a file that cannot be read as a whole, and drops the stems and
+		 * indexes the other chunks are holding. The file is only reported once.
+		 */
+		public void failed() {
+			synchronized(this) {
+				if(failed) {
+					return;
+				}
+				failed = true;
+				Collections.fill(stems, null);
+				parts.clear();
+			}
+			System.out.println("I/O error occured!");
+		}
+		
+		/**
+		 * @brief Finds the first line break in a window of the file
+		 * @param window the bytes to search, starting one byte before the target offset
+		 * @return the index after the line break, or -1 if there is none
+		 */
+		private int lineBreak(ByteBuffer window) {
+			for(int i = 1; i < window.limit(); i++) {
+				byte previous = window.get(i - 1);
+				if(previous == '\n' || previous == '\r') {
+					return i;
+				}
+			}
+			return -1;
+		}
+		
+		/**
+		 * @brief Finds the first ASCII letter followed by ASCII whitespace in a window of
+		 * the file. Splitting there ends a word in the first chunk without changing how
+		 * the rest of the line is tokenized.
+		 * @param window the bytes to search, starting one byte before the target offset
+		 * @return the index of the whitespace, or -1 if there is none
+		 */
+		private int wordBreak(ByteBuffer window) {
+			for(int i = 1; i < window.limit(); i++) {
+				int previous = window.get(i - 1) | 0x20;
+				byte current = window.get(i);
+				if(previous >= 'a' && previous <= 'z' && (current == ' ' || current == '\t' ||
+						current == 0x0b || current == '\f')) {
+					return i;
+				}
+			}
+			return -1;
+		}
+	}
+	
+	/**
+	 * 
+	 * @author salimamukhit
+	 * 
+	 * Tokenizes and stems one chunk of a split file
+	 */
+	private class ChunkTask implements Runnable {
+		
+		/** The file the chunk belongs to */
+		private final SplitFile split;
+		
+		/** The number of the chunk */
+		private final int chunk;
+		
+		/**
+		 * Constructor
+		 * @param split the file the chunk belongs to
+		 * @param chunk the number of the chunk
+		 */
+		public ChunkTask(SplitFile split, int chunk) {
+			this.split = split;
+			this.chunk = chunk;
+		}
+		
+		@Override
+		public void run() {
+			long start = System.nanoTime();
+			try {
+				List<String> words = new ArrayList<>();
+				TextTokenizer tokenizer = new TextTokenizer();
+				if(split.midLine.get(chunk)) {
+					tokenizer.continueLine();
+				}
+				StemmingService stemmer = StemmingService.getDefault();
+				reader().tokenize(split.file, split.offsets.get(chunk), split.offsets.get(chunk + 1), tokenizer,
+						(buffer, length) -> words.add(stemmer.stem(buffer, length)));
+				split.tokenized(chunk, words);
+			} catch (IOException e) {
+				split.failed();
+			} finally {
+				timed(split.file, System.nanoTime() - start);
+			}
+		}
+	}
+	
+	/**
+	 * 
+	 * @author salimamukhit
+	 * 
+	 * Adds the stems of one chunk of a split file to an index of their own
+	 */
+	private class ChunkIndexTask implements Runnable {
+		
+		/** The file the chunk belongs to */
+		private final SplitFile split;
+		
+		/** The stems of the chunk in order */
+		private final List<String> words;
+		
+		/** The number of words in the file before the chunk */
+		private final int offset;
+		
+		/**
+		 * Constructor
+		 * @param split the file the chunk belongs to
+		 * @param words the stems of the chunk in order
+		 * @param offset the number of words in the file before the chunk
+		 */
+		public ChunkIndexTask(SplitFile split, List<String> words, int offset) {
+			this.split = split;
+			this.words = words;
+			this.offset = offset;
+		}
+		
+		@Override
+		public void run() {
+			long start = System.nanoTime();
+			InvertedIndex part = new InvertedIndex();
+			String location = split.file.toString();
+			for(int i = 0; i < words.size(); i++) {
+				part.addItem(words.get(i), location, offset + i + 1);
+			}
+			split.indexed(part);
+			timed(split.file, System.nanoTime() - start);
+		}
+	}
+	
+	/**
+	 * 
+	 * @author salimamukhit
+	 * 
+	 * Merges a range of local indexes by splitting it in half, merging both halves
+	 * in parallel and then merging the right result into the left one.
+	 */
+	private static class MergeTask extends RecursiveTask<InvertedIndex> {
+		
+		/** Unique serialization identifier */
+		private static final long serialVersionUID = 1L;
+		
+		/** The local indexes to merge */
+		private final List<InvertedIndex> parts;
+		
+		/** The first index of the range to merge */
+		private final int from;
+		
+		/** The index after the last one of the range to merge */
+		private final int to;
+		
+		/**
+		 * Constructor
+		 * @param parts the local indexes to merge
+		 * @param from the first index of the range to merge
+		 * @param to the index after the last one of the range to merge
+		 */
+		public MergeTask(List<InvertedIndex> parts, int from, int to) {
+			this.parts = parts;
+			this.from = from;
+			this.to = to;
+		}
+		
+		@Override
+		protected InvertedIndex compute() {
+			if(to - from == 1) {
+				return parts.get(from);
 			}
+			
+			int middle = (from + to) >>> 1;
+			MergeTask left = new MergeTask(parts, from, middle);
+			left.fork();
+			InvertedIndex right = new MergeTask(parts, middle, to).compute();
+			InvertedIndex merged = left.join();
+			
+			merged.addAll(right);
+			return merged;
 		}
 	}
-}
\ No newline at end of file
+}
@@ -3,6 +3,7 @@ import java.nio.file.Path;
 import java.util.Collection;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Supplier;
 
 /**
  * @author salimamukhit
@@ -12,12 +13,44 @@ import java.util.Set;
 public class ConcurrentInvertedIndex extends InvertedIndex {
 	
 	/** Lock object used for thread safety of Inverted Index */
-	private final SimpleReadWriteLock lock;
+	private final ReadWriteLockInterface lock;
 	
 	/** Constructor */
 	public ConcurrentInvertedIndex() {
+		this(new SimpleReadWriteLock());
+	}
+	
+	/**
+	 * Constructor
+	 * @param lock the read/write lock to guard the index with, e.g. a
+	 * {@link StampedReadWriteLock}, whose read lock takes no monitor
+	 */
+	public ConcurrentInvertedIndex(ReadWriteLockInterface lock) {
 		super();
-		lock = new SimpleReadWriteLock();
+		this.lock = lock;
+	}
+	
+	/**
+	 * @brief Runs a read operation under the read lock
+	 * @param <T> the type of the result
+	 * @param reader the read operation
+	 * @return the result of the read operation
+	 */
+	private <T> T read(Supplier<T> reader) {
+		try {
+			lock.readLock().lock();
+			return reader.get();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * @brief Makes all previous writes visible to readers. Writes to this index are
+	 * visible as soon as they complete, so there is nothing to do here, but
+	 * subclasses that batch writes publish them here.
+	 */
+	public void publish() {
 	}
 	
 	@Override
@@ -42,102 +75,52 @@ public class ConcurrentInvertedIndex extends InvertedIndex {
 	
 	@Override
 	public int getWordCount(String path) {
-		try {
-			lock.readLock().lock();
-			return super.getWordCount(path);
-		} finally {
-			lock.readLock().unlock();
-		}
+		return read(() -> super.getWordCount(path));
 	}
 	
 	@Override
 	public Collection<String> getAllItems() {
-		try {
-			lock.readLock().lock();
-			return super.getAllItems();
-		} finally {
-			lock.readLock().unlock();
-		}
+		return read(() -> super.getAllItems());
 	}
 	
 	@Override
 	public Collection<String> getItemPaths(String item) {
-		try {
-			lock.readLock().lock();
-			return super.getItemPaths(item);
-		} finally {
-			lock.readLock().unlock();
-		}
+		return read(() -> super.getItemPaths(item));
 	}
 	
 	@Override
 	public Collection<Integer> getItemPositions(String item, String path) {
-		try {
-			lock.readLock().lock();
-			return super.getItemPositions(item, path);
-		} finally {
-			lock.readLock().unlock();
-		}
+		return read(() -> super.getItemPositions(item, path));
 	}
 	
 	@Override
 	public Integer getItemCountsByPath(String item, String path) {
-		try {
-			lock.readLock().lock();
-			return super.getItemCountsByPath(item, path);
-		} finally {
-			lock.readLock().unlock();
-		}
+		return read(() -> super.getItemCountsByPath(item, path));
 	}
 	
 	@Override
 	public boolean hasItem(String item) {
-		try {
-			lock.readLock().lock();
-			return super.hasItem(item);
-		} finally {
-			lock.readLock().unlock();
-		}
+		return read(() -> super.hasItem(item));
 	}
 	
 	@Override
 	public boolean hasPath(String item, String path) { 
-		try {
-			lock.readLock().lock();
-			return super.hasPath(item, path);
-		} finally {
-			lock.readLock().unlock();
-		}
+		return read(() -> super.hasPath(item, path));
 	}
 	
 	@Override
 	public boolean hasPosition(String item, String path, int pos) {
-		try {
-			lock.readLock().lock();
-			return super.hasPosition(item, path, pos);
-		} finally {
-			lock.readLock().unlock();
-		}
+		return read(() -> super.hasPosition(item, path, pos));
 	}
 	
 	@Override
 	public List<QueryResult> exactSearch(Set<String> queries) {
-		try {
-			lock.readLock().lock();
-			return super.exactSearch(queries);
-		} finally {
-			lock.readLock().unlock();
-		}
+		return read(() -> super.exactSearch(queries));
 	}
 	
 	@Override
 	public List<QueryResult> partialSearch(Set<String> queries) {
-		try {
-			lock.readLock().lock();
-			return super.partialSearch(queries);
-		} finally {
-			lock.readLock().unlock();
-		}
+		return read(() -> super.partialSearch(queries));
 	}
 	
 	@Override
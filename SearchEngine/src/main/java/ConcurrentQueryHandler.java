@@ -7,9 +7,6 @@ import java.util.List;
 import java.util.TreeMap;
 import java.util.TreeSet;
 
-import opennlp.tools.stemmer.Stemmer;
-import opennlp.tools.stemmer.snowball.SnowballStemmer;
-
 /**
  * 
  * @author salimamukhit
@@ -75,8 +72,7 @@ public class ConcurrentQueryHandler implements QueryHandlerInterface {
 		
 		@Override
 		public void run() {
-			Stemmer stemmer = new SnowballStemmer(TextFileStemmer.DEFAULT);
-			TreeSet<String> query = TextFileStemmer.uniqueStems(line, stemmer);
+			TreeSet<String> query = TextFileStemmer.uniqueStems(line, StemmingService.getDefault());
 			String joined = String.join(" ", query);
 			synchronized(allResults) {
 				if(query.isEmpty() || allResults.containsKey(joined)) {
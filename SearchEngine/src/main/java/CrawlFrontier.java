@@ -0,0 +1,519 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A crawl frontier kept on disk, so that a crawl can be stopped at any point
+ * and resumed later without fetching a page twice. The frontier lives in a
+ * directory with two append-only files:
+ *
+ * The frontier log has one line per event. {@code A <url>} records that a link
+ * was added to the frontier and {@code D <fingerprint>} that a page was crawled.
+ * The links still to crawl are read back from the log in the order they were
+ * added, so only a 64-bit fingerprint of every link is kept in memory, in a
+ * {@link LongHashSet} of the links waiting or of the pages crawled. A link moves
+ * from one to the other once it is crawled, which costs between 11 and 22 bytes
+ * per link in all, while the links themselves stay on disk. Once enough pages
+ * are crawled the log is compacted, which drops the lines of the links already
+ * crawled.
+ *
+ * The page log holds the words of every crawled page along with their
+ * positions, so that a resumed crawl can restore the index of the pages it does
+ * not fetch again.
+ *
+ * Every record is written with a single write, so a crash can only leave a
+ * torn record at the end of a file, which is dropped when the frontier is
+ * opened again. This class is thread-safe.
+ *
+ * @author salimamukhit
+ */
+public class CrawlFrontier implements Closeable {
+
+	/** The default directory of the frontier */
+	public static final String DEFAULT_DIRECTORY = "crawl-state";
+
+	/** The number of pages crawled between compactions of the frontier log */
+	public static final int COMPACT_EVERY = 10_000;
+
+	/** The name of the frontier log */
+	private static final String FRONTIER = "frontier.log";
+
+	/** The name of the page log */
+	private static final String PAGES = "pages.bin";
+
+	/** The directory of the frontier */
+	private final Path directory;
+
+	/** The fingerprints of the links added to the frontier and not crawled yet */
+	private final LongHashSet seen;
+
+	/** The fingerprints of the pages crawled */
+	private final LongHashSet done;
+
+	/** The appending output of the frontier log */
+	private OutputStream log;
+
+	/** The appending output of the page log */
+	private OutputStream pages;
+
+	/** The reader of the links still to crawl */
+	private BufferedReader reader;
+
+	/** The position in the frontier log the reader has reached */
+	private long cursor;
+
+	/** The next link to crawl that has been read ahead, or null */
+	private URL next;
+
+	/** The number of links added to the frontier */
+	private int size;
+
+	/** The number of pages crawled since the last compaction */
+	private int crawled;
+
+	/**
+	 * Constructor
+	 * @param directory the directory of the frontier
+	 * @param resume whether to continue from the files in the directory instead of
+	 *        starting an empty frontier
+	 * @throws IOException if the files of the frontier cannot be read or created
+	 */
+	public CrawlFrontier(Path directory, boolean resume) throws IOException {
+		this.directory = directory;
+		this.seen = new LongHashSet();
+		this.done = new LongHashSet();
+		Files.createDirectories(directory);
+
+		if(!resume) {
+			Files.deleteIfExists(directory.resolve(FRONTIER));
+			Files.deleteIfExists(directory.resolve(PAGES));
+		}
+
+		readLog();
+		readPages(null);
+		// a link is either waiting or crawled, and compaction drops the lines that
+		// added the pages crawled, so the two sets together count every link
+		size = seen.size() + done.size();
+		open();
+	}
+
+	/**
+	 * @brief Adds a link to the frontier unless it has been added or crawled before
+	 * or the frontier is full
+	 * @param url the link to add
+	 * @param max the most links the frontier may hold
+	 * @return true if the link was added
+	 */
+	public synchronized boolean add(URL url, int max) {
+		long fingerprint = VisitedUrlSet.fingerprint(url);
+		if(size >= max || seen.contains(fingerprint) || done.contains(fingerprint)) {
+			return false;
+		}
+		seen.add(fingerprint);
+		size++;
+		write(log, ("A " + url + "\n").getBytes(StandardCharsets.UTF_8));
+		return true;
+	}
+
+	/**
+	 * @brief Checks whether a link is waiting to be crawled
+	 * @return true if {@link #next()} would return a link
+	 */
+	public synchronized boolean hasNext() {
+		if(next == null) {
+			next = advance();
+		}
+		return next != null;
+	}
+
+	/**
+	 * @brief Takes the next link to crawl off the frontier
+	 * @return the link, or null if no link is waiting
+	 */
+	public synchronized URL next() {
+		URL url = hasNext() ? next : null;
+		next = null;
+		return url;
+	}
+
+	/**
+	 * @brief Records that a page has been crawled. The words of the page are written
+	 * to the page log first, so a page is never marked as crawled without them.
+	 * @param url the link of the page
+	 * @param page the index of the words of the page, or null if it had none
+	 */
+	public synchronized void done(URL url, InvertedIndex page) {
+		if(page != null && !page.getAllItems().isEmpty()) {
+			write(pages, encode(url.toString(), page));
+		}
+		long fingerprint = VisitedUrlSet.fingerprint(url);
+		crawled(fingerprint);
+		write(log, ("D " + Long.toHexString(fingerprint) + "\n").getBytes(StandardCharsets.UTF_8));
+
+		if(++crawled >= COMPACT_EVERY) {
+			try {
+				compact();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	/**
+	 * @brief Adds the words of every page crawled before to an index
+	 * @param index the index to restore the pages into
+	 * @throws IOException if the page log cannot be read
+	 */
+	public synchronized void restore(ConcurrentInvertedIndex index) throws IOException {
+		readPages(index);
+	}
+
+	/**
+	 * @brief Returns the number of links added to the frontier, including the ones
+	 * added before it was resumed
+	 * @return the size of the frontier
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * @brief Rewrites the frontier log so that it only holds a line for every page
+	 * crawled and the links not crawled yet, in the same order as before. Links that
+	 * were handed out but are not done yet stay ahead of the reader.
+	 * @throws IOException if the log cannot be rewritten
+	 */
+	public synchronized void compact() throws IOException {
+		Path file = directory.resolve(FRONTIER);
+		Path temporary = directory.resolve(FRONTIER + ".tmp");
+		long position = 0;
+		long compacted = -1;
+
+		reader.close();
+		log.close();
+		try(BufferedReader old = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+				OutputStream out = new BufferedOutputStream(Files.newOutputStream(temporary))) {
+			long[] written = {0};
+			try {
+				done.forEach(fingerprint -> {
+					byte[] bytes = ("D " + Long.toHexString(fingerprint) + "\n").getBytes(StandardCharsets.UTF_8);
+					write(out, bytes);
+					written[0] += bytes.length;
+				});
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			}
+
+			String line;
+			while((line = old.readLine()) != null) {
+				if(compacted < 0 && position >= cursor) {
+					compacted = written[0];
+				}
+				position += line.getBytes(StandardCharsets.UTF_8).length + 1;
+				URL url = parseAdded(line);
+				if(url != null && !done.contains(VisitedUrlSet.fingerprint(url))) {
+					byte[] bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+					out.write(bytes);
+					written[0] += bytes.length;
+				}
+			}
+			if(compacted < 0) {
+				compacted = written[0];
+			}
+		}
+		Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		cursor = compacted;
+		crawled = 0;
+		log = Files.newOutputStream(file, StandardOpenOption.APPEND);
+		reader = openReader(file, cursor);
+	}
+
+	/**
+	 * @brief Compacts the frontier log and closes the files
+	 * @throws IOException if the files cannot be written
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		compact();
+		reader.close();
+		log.close();
+		pages.close();
+	}
+
+	/**
+	 * @brief Reads the frontier log to find the links already added and the pages
+	 * already crawled, and cuts off a torn line at its end
+	 * @throws IOException if the log cannot be read
+	 */
+	private void readLog() throws IOException {
+		Path file = directory.resolve(FRONTIER);
+		if(!Files.exists(file)) {
+			return;
+		}
+		long valid = 0;
+		try(InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+			ByteArrayOutputStream line = new ByteArrayOutputStream();
+			long position = 0;
+			int b;
+			while((b = in.read()) != -1) {
+				position++;
+				if(b != '\n') {
+					line.write(b);
+					continue;
+				}
+				String text = line.toString(StandardCharsets.UTF_8);
+				line.reset();
+				valid = position;
+				URL url = parseAdded(text);
+				if(url != null) {
+					long fingerprint = VisitedUrlSet.fingerprint(url);
+					if(!done.contains(fingerprint)) {
+						seen.add(fingerprint);
+					}
+				} else if(text.startsWith("D ")) {
+					crawled(Long.parseUnsignedLong(text.substring(2), 16));
+				}
+			}
+		}
+		truncate(file, valid);
+	}
+
+	/**
+	 * @brief Reads the page log, marking every page in it as crawled and adding its
+	 * words to an index, and cuts off a torn record at its end
+	 * @param index the index to add the pages to, or null to only mark them
+	 * @throws IOException if the log cannot be read
+	 */
+	private void readPages(ConcurrentInvertedIndex index) throws IOException {
+		Path file = directory.resolve(PAGES);
+		if(!Files.exists(file)) {
+			return;
+		}
+		long valid = 0;
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			while(true) {
+				int length;
+				try {
+					length = in.readInt();
+				} catch (EOFException e) {
+					break;
+				}
+				byte[] record = new byte[length];
+				try {
+					in.readFully(record);
+				} catch (EOFException e) {
+					break;
+				}
+				valid += Integer.BYTES + length;
+				decode(record, index);
+			}
+		}
+		if(index == null) {
+			truncate(file, valid);
+		}
+	}
+
+	/**
+	 * @brief Encodes the words of a page as a record of the page log: the location,
+	 * followed by every word with its positions
+	 * @param location the location of the page
+	 * @param page the index of a single page
+	 * @return the record, starting with its length
+	 */
+	private static byte[] encode(String location, InvertedIndex page) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(0);
+			writeString(out, location);
+			out.writeInt(page.getAllItems().size());
+			for(String item : page.getAllItems()) {
+				writeString(out, item);
+				out.writeInt(page.getItemPositions(item, location).size());
+				for(int position : page.getItemPositions(item, location)) {
+					out.writeInt(position);
+				}
+			}
+			out.flush();
+			byte[] record = bytes.toByteArray();
+			int length = record.length - Integer.BYTES;
+			record[0] = (byte) (length >>> 24);
+			record[1] = (byte) (length >>> 16);
+			record[2] = (byte) (length >>> 8);
+			record[3] = (byte) length;
+			return record;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * @brief Decodes a record of the page log, marking the page as crawled
+	 * @param record the record without its length
+	 * @param index the index to add the words of the page to, or null
+	 * @throws IOException if the record is malformed
+	 */
+	private void decode(byte[] record, ConcurrentInvertedIndex index) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+		String location = readString(in);
+		crawled(VisitedUrlSet.fingerprint(new URL(location)));
+		if(index == null) {
+			return;
+		}
+		InvertedIndex local = new InvertedIndex();
+		int items = in.readInt();
+		for(int i = 0; i < items; i++) {
+			String item = readString(in);
+			int positions = in.readInt();
+			for(int j = 0; j < positions; j++) {
+				local.addItem(item, location, in.readInt());
+			}
+		}
+		index.addAll(local);
+	}
+
+	/**
+	 * @brief Moves the fingerprint of a link from the links waiting to the pages
+	 * crawled
+	 * @param fingerprint the fingerprint of the link
+	 */
+	private void crawled(long fingerprint) {
+		seen.remove(fingerprint);
+		done.add(fingerprint);
+	}
+
+	/**
+	 * @brief Reads ahead to the next link in the frontier log that has not been
+	 * crawled yet
+	 * @return the link, or null if the reader has reached the end of the log
+	 */
+	private URL advance() {
+		try {
+			String line;
+			while((line = reader.readLine()) != null) {
+				cursor += line.getBytes(StandardCharsets.UTF_8).length + 1;
+				URL url = parseAdded(line);
+				if(url != null && !done.contains(VisitedUrlSet.fingerprint(url))) {
+					return url;
+				}
+			}
+			return null;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * @brief Opens the appending outputs and the reader of the frontier
+	 * @throws IOException if the files cannot be opened
+	 */
+	private void open() throws IOException {
+		Path file = directory.resolve(FRONTIER);
+		log = Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+		pages = Files.newOutputStream(directory.resolve(PAGES), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+		cursor = 0;
+		reader = openReader(file, cursor);
+	}
+
+	/**
+	 * @brief Opens a reader of the frontier log. Lines appended later are seen by the
+	 * reader once it reaches them.
+	 * @param file the frontier log
+	 * @param position the position to start reading at
+	 * @return the reader
+	 * @throws IOException if the file cannot be opened
+	 */
+	private static BufferedReader openReader(Path file, long position) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+		channel.position(position);
+		return new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * @brief Parses a line of the frontier log that adds a link
+	 * @param line the line
+	 * @return the link, or null if the line does not add one
+	 */
+	private static URL parseAdded(String line) {
+		if(!line.startsWith("A ")) {
+			return null;
+		}
+		try {
+			return new URL(line.substring(2));
+		} catch (MalformedURLException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @brief Writes a whole record to a log, so that readers never see part of it
+	 * @param out the log
+	 * @param record the record
+	 */
+	private static void write(OutputStream out, byte[] record) {
+		try {
+			out.write(record);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * @brief Cuts a file off after its last complete record
+	 * @param file the file
+	 * @param length the length of the complete records
+	 * @throws IOException if the file cannot be truncated
+	 */
+	private static void truncate(Path file, long length) throws IOException {
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			if(channel.size() > length) {
+				channel.truncate(length);
+			}
+		}
+	}
+
+	/**
+	 * @brief Writes a string as its length followed by its UTF-8 bytes
+	 * @param out the output
+	 * @param text the string
+	 * @throws IOException if the string cannot be written
+	 */
+	private static void writeString(DataOutputStream out, String text) throws IOException {
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * @brief Reads a string written by {@link #writeString(DataOutputStream, String)}
+	 * @param in the input
+	 * @return the string
+	 * @throws IOException if the string cannot be read
+	 */
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
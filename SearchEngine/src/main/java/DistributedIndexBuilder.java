@@ -0,0 +1,223 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.stream.Collectors;
+
+/**
+ *
+ * @author salimamukhit
+ *
+ * An InvertedIndexBuilder that spreads the work over several worker processes,
+ * each with its own heap. The files to index are split into partitions of about
+ * the same total size, and every worker indexes one partition with an
+ * {@link ExternalIndexBuilder} and writes it out as a partial index. Once all
+ * workers are done, the partials are merged, which adds up the word counts of
+ * every location.
+ *
+ * Workers are started as local JVMs running {@link Driver} with the
+ * {@code -worker} flag, which reads the paths of a partition from a file and
+ * writes the partial to the path given by {@code -partial}. A worker only needs
+ * to see the same paths as the coordinator, so workers on other machines can be
+ * started the same way on a shared file system.
+ *
+ * Every worker gets a heap of twice its memory budget, the same share of the heap
+ * {@link ExternalIndexBuilder#defaultBudget()} gives a single process, and by
+ * default the budget of a single process is divided among the workers, so that
+ * all of them together take about as much memory as this process may.
+ */
+public class DistributedIndexBuilder extends InvertedIndexBuilder {
+
+	/** The smallest heap in megabytes a worker is started with */
+	private static final long MIN_HEAP = 64;
+
+	/** The number of worker processes */
+	private final int workers;
+
+	/** The memory budget of every worker */
+	private final long budget;
+
+	/** The builder the partials are merged into */
+	private final ExternalIndexBuilder merger;
+
+	/** The directory holding the partitions and partials */
+	private final Path directory;
+
+	/**
+	 * Constructor
+	 * @param workers the number of worker processes
+	 * @param budget the memory budget in bytes of every worker
+	 * @throws IOException if the working directory cannot be created
+	 */
+	public DistributedIndexBuilder(int workers, long budget) throws IOException {
+		super(new InvertedIndex());
+		if(workers < 1) {
+			throw new IllegalArgumentException("There has to be at least one worker!");
+		}
+		this.workers = workers;
+		this.budget = budget;
+		// the merge runs in this heap once the workers are done
+		this.merger = new ExternalIndexBuilder(Math.min(budget, ExternalIndexBuilder.defaultBudget()));
+		this.directory = Files.createTempDirectory("index-partials");
+		this.directory.toFile().deleteOnExit();
+	}
+
+	/**
+	 * @brief Returns the default memory budget of every worker, the default budget of
+	 * a single process divided among the workers
+	 * @param workers the number of worker processes
+	 * @return the default budget in bytes
+	 */
+	public static long defaultBudget(int workers) {
+		return Math.max(ExternalIndexBuilder.MIN_BUDGET, ExternalIndexBuilder.defaultBudget() / Math.max(1, workers));
+	}
+
+	/**
+	 * @brief Indexes the files in the path with the worker processes and merges their
+	 * partial indexes
+	 * @param start a starting path
+	 * @throws IOException if an I/O error occurs or a worker fails
+	 */
+	@Override
+	public void createIndex(Path start) throws IOException {
+		List<List<Path>> partitions = partition(TextFileFinder.list(start), workers);
+		List<Process> processes = new ArrayList<>();
+		List<Path> partials = new ArrayList<>();
+
+		try {
+			for(int i = 0; i < partitions.size(); i++) {
+				Path list = directory.resolve("partition-" + i + ".txt");
+				Path partial = directory.resolve("partial-" + i + ".bin");
+				list.toFile().deleteOnExit();
+				partial.toFile().deleteOnExit();
+				Files.write(list, partitions.get(i).stream().map(Path::toString).collect(Collectors.toList()),
+						StandardCharsets.UTF_8);
+
+				processes.add(startWorker(list, partial));
+				partials.add(partial);
+			}
+
+			for(int i = 0; i < processes.size(); i++) {
+				if(processes.get(i).waitFor() != 0) {
+					throw new IOException("Worker " + i + " failed!");
+				}
+				merger.addPartial(partials.get(i));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the workers!", e);
+		} finally {
+			for(Process process : processes) {
+				process.destroy();
+			}
+		}
+	}
+
+	/**
+	 * @brief Parses a single file in this process
+	 * @param file a file to parse
+	 * @throws IOException if an I/O error occurs
+	 */
+	@Override
+	public void parseFile(Path file) throws IOException {
+		merger.parseFile(file);
+	}
+
+	@Override
+	public void writeResults(Path outputFile) throws IOException {
+		merger.writeResults(outputFile);
+	}
+
+	@Override
+	public void writeWordCounts(Path outputFile) throws IOException {
+		merger.writeWordCounts(outputFile);
+	}
+
+	/**
+	 * @brief Starts a worker JVM with the same Java runtime and class path as this one,
+	 * and a heap of twice the memory budget
+	 * @param list the file listing the paths of the partition
+	 * @param partial the file to write the partial index to
+	 * @return the worker process
+	 * @throws IOException if the process cannot be started
+	 */
+	private Process startWorker(Path list, Path partial) throws IOException {
+		String java = ProcessHandle.current().info().command().orElse("java");
+		long heap = Math.max(MIN_HEAP, (2 * budget + (1 << 20) - 1) >> 20);
+		List<String> command = new ArrayList<>(List.of(java, "-Xmx" + heap + "m",
+				"-cp", System.getProperty("java.class.path"),
+				Driver.class.getName(), "-worker", list.toString(), "-partial", partial.toString(),
+				"-memory", Long.toString(budget)));
+		if(ArchiveReader.isEnabled()) {
+			command.add("-archives");
+		}
+		return new ProcessBuilder(command)
+				.redirectOutput(ProcessBuilder.Redirect.INHERIT)
+				.redirectError(ProcessBuilder.Redirect.INHERIT)
+				.start();
+	}
+
+	/**
+	 * @brief Indexes the files of one partition and writes them out as a partial
+	 * index. Files that cannot be read are reported and left out. This is what a
+	 * worker process runs.
+	 * @param list the file listing the paths of the partition, one per line
+	 * @param partial the file to write the partial index to
+	 * @param budget the memory budget in bytes
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static void runWorker(Path list, Path partial, long budget) throws IOException {
+		ExternalIndexBuilder builder = new ExternalIndexBuilder(budget);
+		for(String line : Files.readAllLines(list, StandardCharsets.UTF_8)) {
+			if(!line.isEmpty()) {
+				builder.parseOrSkip(Path.of(line));
+			}
+		}
+		builder.writePartial(partial);
+	}
+
+	/**
+	 * @brief Splits files into partitions of about the same total size by giving each
+	 * file, largest first, to the partition that is smallest so far
+	 * @param files the files to split
+	 * @param count the most partitions to create
+	 * @return the non-empty partitions
+	 */
+	private static List<List<Path>> partition(List<Path> files, int count) {
+		Map<Path, Long> sizes = new HashMap<>();
+		for(Path file : files) {
+			try {
+				sizes.put(file, Files.size(file));
+			} catch (IOException e) {
+				// the worker reports the file once it fails to read it
+				sizes.put(file, 0L);
+			}
+		}
+		List<Path> sorted = new ArrayList<>(files);
+		sorted.sort(Comparator.comparing(sizes::get, Comparator.reverseOrder()));
+
+		int partitions = Math.min(count, Math.max(1, files.size()));
+		List<List<Path>> result = new ArrayList<>();
+		long[] totals = new long[partitions];
+		PriorityQueue<Integer> smallest = new PriorityQueue<>(
+				Comparator.comparingLong((Integer i) -> totals[i]).thenComparingInt(i -> i));
+		for(int i = 0; i < partitions; i++) {
+			result.add(new ArrayList<>());
+			smallest.add(i);
+		}
+
+		for(Path file : sorted) {
+			int target = smallest.poll();
+			result.get(target).add(file);
+			totals[target] += sizes.get(file);
+			smallest.add(target);
+		}
+		return result;
+	}
+}
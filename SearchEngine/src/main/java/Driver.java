@@ -35,25 +35,113 @@ public class Driver {
 		// Object creation
 		ArgumentMap argMap = new ArgumentMap(args);
 		
+		// Text files inside archives are only indexed when asked for
+		ArchiveReader.setEnabled(argMap.hasFlag("-archives"));
+		
+		// Worker process of a distributed build
+		if(argMap.hasFlag("-worker")) {
+			try {
+				DistributedIndexBuilder.runWorker(argMap.getPath("-worker"), argMap.getPath("-partial"),
+						argMap.getBytes("-memory", ExternalIndexBuilder.defaultBudget()));
+			} catch(Exception e) {
+				System.err.println("Unable to build the partial index: " + e.getMessage());
+				System.exit(1);
+			}
+			return;
+		}
+		
+		// Snapshots are read without the lock, so the lock options would do nothing
+		if(argMap.hasFlag("-snapshots") && (argMap.hasFlag("-stamped") || argMap.hasFlag("-fair") || argMap.hasFlag("-lockstats"))) {
+			System.err.println("-snapshots reads without locking and cannot be combined with -stamped, -fair or -lockstats!");
+			return;
+		}
+		
+		// The stamped lock replaces the lock that -fair and -lockstats configure
+		if(argMap.hasFlag("-stamped") && (argMap.hasFlag("-fair") || argMap.hasFlag("-lockstats"))) {
+			System.err.println("-stamped uses its own lock and cannot be combined with -fair or -lockstats!");
+			return;
+		}
+		
+		// The external and distributed builders only write the index they build from -path
+		if(argMap.hasFlag("-memory") || argMap.hasFlag("-processes")) {
+			if(argMap.hasFlag("-queries") || argMap.hasFlag("-url") || argMap.hasFlag("-server")) {
+				System.err.println("-memory and -processes only build the index from -path and cannot search it or crawl into it!");
+				return;
+			}
+			if(argMap.hasFlag("-threads")) {
+				System.err.println("Warning: -threads is ignored, -memory and -processes build the index in single-threaded processes");
+			}
+		}
+		
 		// Dependent on threads
 		InvertedIndex index;
 		InvertedIndexBuilder builder;
 		QueryHandlerInterface handler;
 		WebCrawler crawler = null;
+		CrawlFrontier frontier = null;
+		PolitenessScheduler scheduler = null;
 		WorkQueue queue = null;
+		LockStatistics lockStatistics = null;
 				
 		if(argMap.hasFlag("-threads") || argMap.hasFlag("-url") || argMap.hasFlag("-server")) {
 			try {
 				int threads = Integer.parseInt(argMap.getString("-threads", "5"));
 				queue = new WorkQueue(threads);
-				ConcurrentInvertedIndex concurrentIndex = new ConcurrentInvertedIndex();
+				ReadWriteLockInterface lock;
+				if(argMap.hasFlag("-stamped")) {
+					lock = new StampedReadWriteLock();
+				} else {
+					SimpleReadWriteLock.Policy policy = SimpleReadWriteLock.Policy.READER_PREFERRING;
+					if(argMap.hasFlag("-fair")) {
+						policy = "phase".equalsIgnoreCase(argMap.getString("-fair")) ?
+								SimpleReadWriteLock.Policy.PHASE_FAIR : SimpleReadWriteLock.Policy.WRITER_PREFERRING;
+					}
+					SimpleReadWriteLock simpleLock = new SimpleReadWriteLock(policy, argMap.hasFlag("-lockstats"));
+					lockStatistics = simpleLock.statistics();
+					lock = simpleLock;
+				}
+				ConcurrentInvertedIndex concurrentIndex = argMap.hasFlag("-snapshots") ?
+						new SnapshotInvertedIndex(argMap.getInteger("-snapshots", SnapshotInvertedIndex.DEFAULT_BATCH)) :
+						new ConcurrentInvertedIndex(lock);
 				index = concurrentIndex;
-				builder = new ConcurrentIndexBuilder(concurrentIndex, queue);
+				int splitSize = argMap.getInteger("-split", ConcurrentIndexBuilder.DEFAULT_SPLIT);
+				builder = argMap.hasFlag("-stream") ?
+						new StreamingIndexBuilder(concurrentIndex, queue, splitSize, argMap.getInteger("-stream", 1)) :
+						new ConcurrentIndexBuilder(concurrentIndex, queue, splitSize);
 				handler = new ConcurrentQueryHandler(concurrentIndex, queue);
 				
 				if(argMap.hasFlag("-url")) {
+					HttpsFetcher.configure(
+							argMap.getInteger("-connecttimeout", HttpsFetcher.DEFAULT_CONNECT_TIMEOUT),
+							argMap.getInteger("-readtimeout", HttpsFetcher.DEFAULT_READ_TIMEOUT),
+							(int) Math.min(Integer.MAX_VALUE - 8,
+									argMap.getBytes("-maxbody", HttpsFetcher.DEFAULT_MAX_BODY)),
+							argMap.getInteger("-fetchtimeout", HttpsFetcher.DEFAULT_TOTAL_TIMEOUT));
 					int max = Integer.parseInt(argMap.getString("-max", "30"));
-					crawler = new WebCrawler(concurrentIndex, queue, max);
+					boolean adaptive = argMap.hasFlag("-adaptive");
+					scheduler = new PolitenessScheduler(queue,
+							argMap.getInteger("-hostthreads", threads),
+							argMap.getInteger("-delay", (int) PolitenessScheduler.DEFAULT_DELAY), adaptive);
+					if(argMap.hasFlag("-frontier") || argMap.hasFlag("-resume")) {
+						try {
+							frontier = new CrawlFrontier(
+									argMap.getPath("-frontier", Path.of(CrawlFrontier.DEFAULT_DIRECTORY)), argMap.hasFlag("-resume"));
+							crawler = new WebCrawler(concurrentIndex, queue, max, frontier, scheduler);
+						} catch(IOException e) {
+							System.out.println("Unable to open the crawl frontier");
+							return;
+						}
+					} else {
+						VisitedUrlSet visited = argMap.hasFlag("-bloom") ?
+								new VisitedUrlSet(argMap.getInteger("-bloom", 10_000_000), VisitedUrlSet.DEFAULT_FALSE_POSITIVES) :
+								new VisitedUrlSet();
+						crawler = new WebCrawler(concurrentIndex, queue, max, visited, scheduler);
+					}
+					if(argMap.hasFlag("-pipeline")) {
+						crawler.usePipeline(argMap.getInteger("-pipeline", Runtime.getRuntime().availableProcessors()),
+								argMap.getInteger("-writers", 1),
+								argMap.getInteger("-stagequeue", PipelineStage.DEFAULT_CAPACITY));
+					}
 				}
 				
 				// Start the web server
@@ -67,6 +155,8 @@ public class Driver {
 						}
 					} catch (MalformedURLException e) {
 						System.out.println("Malformed URL!");
+					} catch (IOException e) {
+						System.out.println("Unable to use the crawl frontier");
 					}
 					
 		
@@ -85,6 +175,24 @@ public class Driver {
 			handler = new QueryHandler(index);
 		} 
 		
+		if(argMap.hasFlag("-memory") || argMap.hasFlag("-processes")) {
+			try {
+				if(argMap.hasFlag("-processes")) {
+					int processes = argMap.getInteger("-processes", 2);
+					builder = new DistributedIndexBuilder(processes,
+							argMap.getBytes("-memory", DistributedIndexBuilder.defaultBudget(processes)));
+				} else {
+					builder = new ExternalIndexBuilder(argMap.getBytes("-memory", ExternalIndexBuilder.defaultBudget()));
+				}
+			} catch(IllegalArgumentException e) {
+				System.err.print("Illegal memory budget or number of processes!");
+				return;
+			} catch(IOException e) {
+				System.out.println("Unable to create the run directory");
+				return;
+			}
+		}
+		
 		// Calling work
 		if(argMap.hasFlag("-path")) {
 			try {
@@ -100,6 +208,16 @@ public class Driver {
 				crawler.crawl(argMap.getString("-url"));
 			} catch (MalformedURLException e) {
 				System.out.println("Malformed URL!");
+			} catch (IOException e) {
+				System.out.println("Unable to use the crawl frontier");
+			}
+		}
+		
+		if(frontier != null) {
+			try {
+				frontier.close();
+			} catch (IOException e) {
+				System.out.println("Unable to close the crawl frontier");
 			}
 		}
 		
@@ -140,6 +258,30 @@ public class Driver {
 		
 		if(queue != null) queue.shutdown();
 		
+		if(lockStatistics != null) {
+			System.out.print(lockStatistics);
+		}
+		
+		if(argMap.hasFlag("-buildstats") && builder instanceof ConcurrentIndexBuilder) {
+			System.out.print(((ConcurrentIndexBuilder) builder).parseTimeReport(argMap.getInteger("-buildstats", 10)));
+		}
+		
+		if(argMap.hasFlag("-fetchstats")) {
+			System.out.print(HttpConnectionPool.getDefault());
+			System.out.print(HttpsFetcher.transferStatistics());
+			if(scheduler != null && argMap.hasFlag("-adaptive")) {
+				System.out.print(scheduler);
+			}
+		}
+		
+		if(argMap.hasFlag("-pipelinestats") && crawler != null) {
+			System.out.print(crawler.pipelineStatistics());
+		}
+		
+		if(argMap.hasFlag("-stemstats")) {
+			System.out.println(StemmingService.getDefault());
+		}
+		
 		// -------------------------------------------------------------
 
 		// calculate time elapsed and output
@@ -0,0 +1,537 @@
+import java.util.Arrays;
+
+import opennlp.tools.stemmer.Stemmer;
+
+/**
+ * An implementation of the English (Porter2) Snowball stemmer that works in
+ * place on a character buffer. It follows the same rules, exceptions and
+ * steps as {@code SnowballStemmer} with {@code ALGORITHM.ENGLISH}, so both
+ * produce the same stem for every word, but it never creates a new object
+ * while stemming.
+ *
+ * Only the lowercase ASCII letters a, e, i, o, u and y count as vowels, like in
+ * the original algorithm. Stems are never longer than the words they come from,
+ * which is what makes stemming in place possible. This class is not
+ * thread-safe.
+ *
+ * @author salimamukhit
+ */
+public class EnglishStemmer implements Stemmer {
+
+	/** Words with irregular stems, checked before anything else */
+	private static final String[] EXCEPTIONS = {
+			"skis", "skies", "dying", "lying", "tying", "idly", "gently", "ugly", "early", "only", "singly",
+			"sky", "news", "howe", "atlas", "cosmos", "bias", "andes"
+	};
+
+	/** The stems of the words in {@link #EXCEPTIONS} */
+	private static final String[] EXCEPTION_STEMS = {
+			"ski", "sky", "die", "lie", "tie", "idl", "gentl", "ugli", "earli", "onli", "singl",
+			"sky", "news", "howe", "atlas", "cosmos", "bias", "andes"
+	};
+
+	/** Words that are left alone after the plural endings are removed */
+	private static final String[] INVARIANTS = {
+			"inning", "outing", "canning", "herring", "earring", "proceed", "exceed", "succeed"
+	};
+
+	/** Prefixes that always end the first region */
+	private static final String[] PREFIXES = {"gener", "commun", "arsen"};
+
+	/** Suffixes handled by step 2, longest first */
+	private static final String[] STEP_2 = {
+			"ization", "ational", "fulness", "ousness", "iveness", "tional", "biliti", "lessli",
+			"entli", "ation", "alism", "aliti", "ousli", "iviti", "fulli", "enci", "anci", "abli",
+			"izer", "ator", "alli", "bli", "ogi", "li"
+	};
+
+	/** The replacements of the suffixes in {@link #STEP_2} */
+	private static final String[] STEP_2_REPLACEMENTS = {
+			"ize", "ate", "ful", "ous", "ive", "tion", "ble", "less",
+			"ent", "ate", "al", "al", "ous", "ive", "ful", "ence", "ance", "able",
+			"ize", "ate", "al", "ble", "og", ""
+	};
+
+	/** Suffixes handled by step 3, longest first */
+	private static final String[] STEP_3 = {
+			"ational", "tional", "alize", "icate", "iciti", "ative", "ical", "ness", "ful"
+	};
+
+	/** The replacements of the suffixes in {@link #STEP_3} */
+	private static final String[] STEP_3_REPLACEMENTS = {
+			"ate", "tion", "al", "ic", "ic", "", "ic", "", ""
+	};
+
+	/** Suffixes removed by step 4, longest first */
+	private static final String[] STEP_4 = {
+			"ement", "ance", "ence", "able", "ible", "ment", "ant", "ent", "ism", "ate", "iti",
+			"ous", "ive", "ize", "ion", "al", "er", "ic"
+	};
+
+	/** The default number of characters the scratch buffer can hold */
+	private static final int DEFAULT_CAPACITY = 32;
+
+	/** The word being stemmed */
+	private char[] word;
+
+	/** The current length of the word */
+	private int limit;
+
+	/** The start of the first region */
+	private int p1;
+
+	/** The start of the second region */
+	private int p2;
+
+	/** Whether any y was marked as a consonant */
+	private boolean foundY;
+
+	/** The buffer used to stem character sequences */
+	private char[] scratch;
+
+	/**
+	 * Constructor
+	 */
+	public EnglishStemmer() {
+		this.scratch = new char[DEFAULT_CAPACITY];
+	}
+
+	@Override
+	public CharSequence stem(CharSequence text) {
+		int length = text.length();
+		if(length > scratch.length) {
+			scratch = Arrays.copyOf(scratch, Math.max(length, scratch.length * 2));
+		}
+		for(int i = 0; i < length; i++) {
+			scratch[i] = text.charAt(i);
+		}
+		return new String(scratch, 0, stem(scratch, length));
+	}
+
+	/**
+	 * @brief Stems a word in place. Only the characters of the word are changed.
+	 * @param buffer the buffer holding the word, starting at index 0
+	 * @param length the length of the word
+	 * @return the length of the stem, which is at most the length of the word
+	 */
+	public int stem(char[] buffer, int length) {
+		word = buffer;
+		limit = length;
+
+		if(!exception() && limit >= 3) {
+			prelude();
+			markRegions();
+			step1a();
+			if(!invariant()) {
+				step1b();
+				step1c();
+				step2();
+				step3();
+				step4();
+				step5();
+			}
+			postlude();
+		}
+
+		word = null;
+		return limit;
+	}
+
+	/**
+	 * @brief Replaces the word with its stem if it is one of the exceptions
+	 * @return true if the word was an exception
+	 */
+	private boolean exception() {
+		for(int i = 0; i < EXCEPTIONS.length; i++) {
+			if(EXCEPTIONS[i].length() == limit && endsWith(EXCEPTIONS[i])) {
+				limit = 0;
+				append(EXCEPTION_STEMS[i]);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @brief Checks whether the word is one of the invariant words
+	 * @return true if the word should not be stemmed any further
+	 */
+	private boolean invariant() {
+		for(String invariant : INVARIANTS) {
+			if(invariant.length() == limit && endsWith(invariant)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @brief Removes a leading apostrophe and marks every y that acts as a consonant
+	 * by changing it to Y
+	 */
+	private void prelude() {
+		foundY = false;
+		if(word[0] == '\'') {
+			System.arraycopy(word, 1, word, 0, --limit);
+		}
+		if(limit > 0 && word[0] == 'y') {
+			word[0] = 'Y';
+			foundY = true;
+		}
+		for(int i = 1; i < limit; i++) {
+			if(word[i] == 'y' && isVowel(word[i - 1])) {
+				word[i] = 'Y';
+				foundY = true;
+			}
+		}
+	}
+
+	/**
+	 * @brief Finds the starts of the first and second regions, the parts after the
+	 * first and second non-vowel that follows a vowel
+	 */
+	private void markRegions() {
+		p1 = limit;
+		p2 = limit;
+
+		int start = -1;
+		for(String prefix : PREFIXES) {
+			if(startsWith(prefix)) {
+				start = prefix.length();
+				break;
+			}
+		}
+		if(start < 0) {
+			start = regionAfter(0);
+			if(start < 0) {
+				return;
+			}
+		}
+		p1 = start;
+
+		start = regionAfter(start);
+		if(start >= 0) {
+			p2 = start;
+		}
+	}
+
+	/**
+	 * @brief Finds the first non-vowel that follows a vowel
+	 * @param from the index to start looking at
+	 * @return the index after that non-vowel, or -1 if there is none
+	 */
+	private int regionAfter(int from) {
+		int i = from;
+		while(i < limit && !isVowel(word[i])) {
+			i++;
+		}
+		i++;
+		while(i < limit && isVowel(word[i])) {
+			i++;
+		}
+		return i < limit ? i + 1 : -1;
+	}
+
+	/**
+	 * @brief Removes apostrophes and plural endings
+	 */
+	private void step1a() {
+		if(endsWith("'s'")) {
+			limit -= 3;
+		} else if(endsWith("'s")) {
+			limit -= 2;
+		} else if(endsWith("'")) {
+			limit -= 1;
+		}
+
+		if(endsWith("sses")) {
+			replace(4, "ss");
+		} else if(endsWith("ied") || endsWith("ies")) {
+			replace(3, limit > 4 ? "i" : "ie");
+		} else if(endsWith("ss") || endsWith("us")) {
+			return;
+		} else if(endsWith("s") && hasVowelBefore(limit - 2)) {
+			limit--;
+		}
+	}
+
+	/**
+	 * @brief Removes the endings -ed and -ing and their -ly forms, and fixes up what
+	 * is left so that, for example, hoping becomes hope and hopping becomes hop
+	 */
+	private void step1b() {
+		int length;
+		boolean eed = false;
+
+		if(endsWith("eedly")) {
+			length = 5;
+			eed = true;
+		} else if(endsWith("ingly")) {
+			length = 5;
+		} else if(endsWith("edly")) {
+			length = 4;
+		} else if(endsWith("eed")) {
+			length = 3;
+			eed = true;
+		} else if(endsWith("ing")) {
+			length = 3;
+		} else if(endsWith("ed")) {
+			length = 2;
+		} else {
+			return;
+		}
+
+		int start = limit - length;
+		if(eed) {
+			if(start >= p1) {
+				replace(length, "ee");
+			}
+			return;
+		}
+		if(!hasVowelBefore(start)) {
+			return;
+		}
+		limit = start;
+
+		if(endsWith("at") || endsWith("bl") || endsWith("iz")) {
+			append("e");
+		} else if(limit >= 2 && word[limit - 1] == word[limit - 2] && isDouble(word[limit - 1])) {
+			limit--;
+		} else if(limit == p1 && isShort(limit)) {
+			append("e");
+		}
+	}
+
+	/**
+	 * @brief Turns a final y into i when it follows a non-vowel that does not start
+	 * the word
+	 */
+	private void step1c() {
+		if(limit >= 3 && (word[limit - 1] == 'y' || word[limit - 1] == 'Y') && !isVowel(word[limit - 2])) {
+			word[limit - 1] = 'i';
+		}
+	}
+
+	/**
+	 * @brief Replaces double suffixes in the first region with single ones
+	 */
+	private void step2() {
+		int i = longestSuffix(STEP_2);
+		if(i < 0) {
+			return;
+		}
+
+		int start = limit - STEP_2[i].length();
+		if(start < p1) {
+			return;
+		}
+		switch(STEP_2[i]) {
+			case "ogi":
+				if(start == 0 || word[start - 1] != 'l') {
+					return;
+				}
+				break;
+			case "li":
+				if(start == 0 || !isValidLi(word[start - 1])) {
+					return;
+				}
+				break;
+			default:
+				break;
+		}
+		replace(STEP_2[i].length(), STEP_2_REPLACEMENTS[i]);
+	}
+
+	/**
+	 * @brief Replaces or removes more suffixes in the first region
+	 */
+	private void step3() {
+		int i = longestSuffix(STEP_3);
+		if(i < 0) {
+			return;
+		}
+
+		int start = limit - STEP_3[i].length();
+		if(start < p1 || (STEP_3[i].equals("ative") && start < p2)) {
+			return;
+		}
+		replace(STEP_3[i].length(), STEP_3_REPLACEMENTS[i]);
+	}
+
+	/**
+	 * @brief Removes suffixes in the second region
+	 */
+	private void step4() {
+		int i = longestSuffix(STEP_4);
+		if(i < 0) {
+			return;
+		}
+
+		int start = limit - STEP_4[i].length();
+		if(start < p2) {
+			return;
+		}
+		if(STEP_4[i].equals("ion") && (start == 0 || (word[start - 1] != 's' && word[start - 1] != 't'))) {
+			return;
+		}
+		limit = start;
+	}
+
+	/**
+	 * @brief Removes a final e, and a final l after another l, where the regions allow it
+	 */
+	private void step5() {
+		int start = limit - 1;
+		if(endsWith("e")) {
+			if(start >= p2 || (start >= p1 && !isShort(start))) {
+				limit = start;
+			}
+		} else if(endsWith("l")) {
+			if(start >= p2 && start > 0 && word[start - 1] == 'l') {
+				limit = start;
+			}
+		}
+	}
+
+	/**
+	 * @brief Turns the y marked as consonants back into lowercase letters
+	 */
+	private void postlude() {
+		if(foundY) {
+			for(int i = 0; i < limit; i++) {
+				if(word[i] == 'Y') {
+					word[i] = 'y';
+				}
+			}
+		}
+	}
+
+	/**
+	 * @brief Checks whether the part of the word before the given index ends in a
+	 * short syllable: a non-vowel other than w, x or Y after a vowel after a
+	 * non-vowel, or a non-vowel after a vowel at the start of the word
+	 * @param end the index the syllable ends at
+	 * @return true if the syllable is short
+	 */
+	private boolean isShort(int end) {
+		if(end >= 3 && !isVowel(word[end - 1]) && word[end - 1] != 'w' && word[end - 1] != 'x' &&
+				word[end - 1] != 'Y' && isVowel(word[end - 2]) && !isVowel(word[end - 3])) {
+			return true;
+		}
+		return end == 2 && !isVowel(word[1]) && isVowel(word[0]);
+	}
+
+	/**
+	 * @brief Checks whether the part of the word before the given index contains a vowel
+	 * @param end the index to stop looking at
+	 * @return true if there is a vowel
+	 */
+	private boolean hasVowelBefore(int end) {
+		for(int i = 0; i < end; i++) {
+			if(isVowel(word[i])) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @brief Finds the longest of the given suffixes that the word ends with
+	 * @param suffixes the suffixes to look for, longest first
+	 * @return the index of the suffix, or -1 if the word ends with none of them
+	 */
+	private int longestSuffix(String[] suffixes) {
+		for(int i = 0; i < suffixes.length; i++) {
+			if(endsWith(suffixes[i])) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @brief Checks whether the word starts with the given text
+	 * @param prefix the text to check for
+	 * @return true if the word starts with the text
+	 */
+	private boolean startsWith(String prefix) {
+		int length = prefix.length();
+		if(length > limit) {
+			return false;
+		}
+		for(int i = 0; i < length; i++) {
+			if(word[i] != prefix.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @brief Checks whether the word ends with the given text
+	 * @param suffix the text to check for
+	 * @return true if the word ends with the text
+	 */
+	private boolean endsWith(String suffix) {
+		int length = suffix.length();
+		if(length > limit) {
+			return false;
+		}
+		int start = limit - length;
+		for(int i = 0; i < length; i++) {
+			if(word[start + i] != suffix.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @brief Replaces the end of the word with a text that is not longer than it
+	 * @param length the number of characters to replace
+	 * @param replacement the text to put in their place
+	 */
+	private void replace(int length, String replacement) {
+		limit -= length;
+		append(replacement);
+	}
+
+	/**
+	 * @brief Adds a text to the end of the word. Only called after at least as many
+	 * characters were removed, so the text always fits in the buffer.
+	 * @param text the text to add
+	 */
+	private void append(String text) {
+		text.getChars(0, text.length(), word, limit);
+		limit += text.length();
+	}
+
+	/**
+	 * @brief Checks whether a character is a vowel
+	 * @param c the character to check
+	 * @return true if it is a, e, i, o, u or y
+	 */
+	private static boolean isVowel(char c) {
+		return c == 'a' || c == 'e' || c == 'i' || c == 'o' || c == 'u' || c == 'y';
+	}
+
+	/**
+	 * @brief Checks whether a doubled character is removed after -ed or -ing
+	 * @param c the character to check
+	 * @return true if it is b, d, f, g, m, n, p, r or t
+	 */
+	private static boolean isDouble(char c) {
+		return c == 'b' || c == 'd' || c == 'f' || c == 'g' || c == 'm' || c == 'n' || c == 'p' || c == 'r' ||
+				c == 't';
+	}
+
+	/**
+	 * @brief Checks whether a character may come before a removed -li
+	 * @param c the character to check
+	 * @return true if it is c, d, e, g, h, k, m, n, r or t
+	 */
+	private static boolean isValidLi(char c) {
+		return c == 'c' || c == 'd' || c == 'e' || c == 'g' || c == 'h' || c == 'k' || c == 'm' || c == 'n' ||
+				c == 'r' || c == 't';
+	}
+}
@@ -0,0 +1,747 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ *
+ * @author salimamukhit
+ *
+ * An InvertedIndexBuilder for corpora whose index does not fit in memory. Files
+ * are parsed into an in-memory buffer that is flushed to disk as a sorted run
+ * whenever its estimated size reaches the memory budget. Once every file has
+ * been parsed, the runs are merged into a single sorted run, which the index
+ * output is streamed from term by term.
+ *
+ * Every run starts with the word counts of its locations, so a run is a
+ * self-contained partial index. The merged run can be written out with
+ * {@link #writePartial(Path)} and merged into another builder with
+ * {@link #addPartial(Path)}, which is how {@link DistributedIndexBuilder}
+ * combines the work of several processes. Only word counts are kept in memory
+ * while merging, so the index written by {@link #writeResults(Path)} is the same
+ * as the one an {@link InvertedIndexBuilder} writes, no matter how small the
+ * budget is. Searching needs the whole index in memory and is not supported.
+ */
+public class ExternalIndexBuilder extends InvertedIndexBuilder {
+
+	/** The smallest memory budget in bytes */
+	public static final long MIN_BUDGET = 1 << 20;
+
+	/** The first bytes of every run file, "IRUN" */
+	private static final int MAGIC = 0x4952554e;
+
+	/** The version of the run format, which every run file states after the magic number */
+	private static final int VERSION = 1;
+
+	/** The most runs merged at a time, which bounds the number of open files */
+	private static final int MAX_FAN_IN = 64;
+
+	/** The estimated size in bytes of a new position */
+	private static final int POSITION_BYTES = 64;
+
+	/** The estimated size in bytes of a new location of a term */
+	private static final int LOCATION_BYTES = 160;
+
+	/** The estimated size in bytes of a new term, not counting its characters */
+	private static final int TERM_BYTES = 128;
+
+	/** The estimated size in bytes of the buffer at which it is flushed */
+	private final long budget;
+
+	/** The directory holding the run files */
+	private final Path directory;
+
+	/** The buffer files are parsed into */
+	private final SpillingIndex buffer;
+
+	/** The run files that have not been merged yet, oldest first */
+	private final List<Path> runs;
+
+	/** The locations of the files that could not be read, which are left out of the index */
+	private final Set<String> skipped;
+
+	/** The number of run files created so far */
+	private int created;
+
+	/**
+	 * Constructor
+	 * @param budget the estimated size in bytes the in-memory buffer may grow to
+	 * @throws IOException if the directory for the run files cannot be created
+	 */
+	public ExternalIndexBuilder(long budget) throws IOException {
+		super(new InvertedIndex());
+		if(budget < MIN_BUDGET) {
+			throw new IllegalArgumentException("The memory budget has to be at least " + MIN_BUDGET + " bytes!");
+		}
+		this.budget = budget;
+		this.directory = Files.createTempDirectory("index-runs");
+		this.directory.toFile().deleteOnExit();
+		this.buffer = new SpillingIndex();
+		this.runs = new ArrayList<>();
+		this.skipped = new HashSet<>();
+		this.created = 0;
+	}
+
+	/**
+	 * @brief Returns the default memory budget, half of the maximum heap size
+	 * @return the default budget in bytes
+	 */
+	public static long defaultBudget() {
+		return Math.max(MIN_BUDGET, Runtime.getRuntime().maxMemory() / 2);
+	}
+
+	/**
+	 * @brief Parses a file into the buffer, which is flushed to disk whenever it is full
+	 * @param file a file to parse
+	 * @throws IOException if an I/O error occurs
+	 */
+	@Override
+	public void parseFile(Path file) throws IOException {
+		try {
+			parseFile(file, buffer);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * @brief Parses a file, or reports it and leaves it out of the index if it
+	 * cannot be read. Whatever was read of the file before the error is dropped
+	 * when the runs are merged.
+	 * @param file a file to parse
+	 * @return true if the file was parsed
+	 * @throws IOException if the buffer cannot be spilled
+	 */
+	public boolean parseOrSkip(Path file) throws IOException {
+		try {
+			parseFile(file, buffer);
+			return true;
+		} catch (UncheckedIOException e) {
+			// only spilling the buffer throws unchecked
+			throw e.getCause();
+		} catch (IOException e) {
+			skipped.add(file.toString());
+			System.out.println("Unable to index " + file + ": " + e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * @brief Parses every file in the path and merges the runs into a single run.
+	 * Files that cannot be read are reported and skipped.
+	 * @param start a starting path
+	 * @throws IOException if an I/O error occurs
+	 */
+	@Override
+	public void createIndex(Path start) throws IOException {
+		for(Path file : TextFileFinder.list(start)) {
+			parseOrSkip(file);
+		}
+		buffer.spill();
+		mergeRuns();
+	}
+
+	/**
+	 * @brief Writes the merged index in JSON format to the index file
+	 * @param outputFile a file to write the output
+	 * @throws IOException if an I/O error occurs
+	 */
+	@Override
+	public void writeResults(Path outputFile) throws IOException {
+		finish();
+		try(JsonSink json = new JsonSink(Files.newBufferedWriter(outputFile, StandardCharsets.UTF_8))) {
+			merge(runs, json);
+		}
+	}
+
+	/**
+	 * @brief Writes total word counts in JSON format to the counts file
+	 * @param outputFile a file to write the output
+	 * @throws IOException if an I/O error occurs
+	 */
+	@Override
+	public void writeWordCounts(Path outputFile) throws IOException {
+		finish();
+		TreeMap<String, Integer> counts = new TreeMap<>();
+		for(Path run : runs) {
+			try(RunReader reader = new RunReader(run, 0)) {
+				reader.addCounts(counts);
+			}
+		}
+		counts.keySet().removeIf(this::isSkipped);
+		try(BufferedWriter bw = Files.newBufferedWriter(outputFile, StandardCharsets.UTF_8)) {
+			SimpleJsonWriter.asObject(counts, bw, 0);
+		}
+	}
+
+	/**
+	 * @brief Writes everything parsed so far as a single partial index that another
+	 * builder can merge with {@link #addPartial(Path)}
+	 * @param outputFile the file to write the partial index to
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void writePartial(Path outputFile) throws IOException {
+		finish();
+		if(runs.isEmpty()) {
+			try(RunSink sink = new RunSink(outputFile)) {
+				sink.startRun(new TreeMap<>());
+			}
+		} else if(!skipped.isEmpty()) {
+			try(RunSink sink = new RunSink(outputFile)) {
+				merge(runs, sink);
+			}
+		} else {
+			Files.copy(runs.get(0), outputFile, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * @brief Adds a partial index written by {@link #writePartial(Path)} to this
+	 * builder. The partial is merged in place and is left as it is. Partials have to
+	 * cover different locations than this builder and each other.
+	 * @param partial the partial index
+	 */
+	public void addPartial(Path partial) {
+		runs.add(partial);
+	}
+
+	/**
+	 * @brief Flushes the buffer and merges the runs into one
+	 * @throws IOException if an I/O error occurs
+	 */
+	private void finish() throws IOException {
+		buffer.spill();
+		mergeRuns();
+	}
+
+	/**
+	 * @brief Merges the runs, at most {@link #MAX_FAN_IN} at a time, until only one
+	 * is left. Neighbouring runs are merged together, so the runs stay in the order
+	 * their positions were found in.
+	 * @throws IOException if an I/O error occurs
+	 */
+	private void mergeRuns() throws IOException {
+		while(runs.size() > 1) {
+			List<Path> merged = new ArrayList<>();
+			for(int i = 0; i < runs.size(); i += MAX_FAN_IN) {
+				List<Path> group = runs.subList(i, Math.min(i + MAX_FAN_IN, runs.size()));
+				Path run = newRun();
+				try(RunSink sink = new RunSink(run)) {
+					merge(group, sink);
+				}
+				for(Path file : group) {
+					if(file.startsWith(directory)) {
+						Files.delete(file);
+					}
+				}
+				merged.add(run);
+			}
+			runs.clear();
+			runs.addAll(merged);
+		}
+	}
+
+	/**
+	 * @brief Checks whether a location belongs to a file that could not be read,
+	 * including the entries of an archive that could not be read
+	 * @param location the location
+	 * @return true if the location is left out of the index
+	 */
+	private boolean isSkipped(String location) {
+		if(skipped.contains(location)) {
+			return true;
+		}
+		for(int i = location.indexOf("!/"); i >= 0; i = location.indexOf("!/", i + 1)) {
+			if(skipped.contains(location.substring(0, i))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @brief Creates the path of a new run file
+	 * @return the path of the run file
+	 */
+	private Path newRun() {
+		Path run = directory.resolve("run-" + created++ + ".bin");
+		run.toFile().deleteOnExit();
+		return run;
+	}
+
+	/**
+	 * @brief Merges sorted runs term by term and location by location. The positions
+	 * of a location that appears in several runs are concatenated in the order of
+	 * the runs, and so are its word counts. The locations of files that could not be
+	 * read are left out.
+	 * @param files the runs to merge, oldest first
+	 * @param sink the sink that receives the merged postings
+	 * @throws IOException if an I/O error occurs
+	 */
+	private void merge(List<Path> files, PostingSink sink) throws IOException {
+		List<RunReader> readers = new ArrayList<>();
+		try {
+			PriorityQueue<RunReader> terms = new PriorityQueue<>(
+					Comparator.comparing((RunReader reader) -> reader.term).thenComparingInt(reader -> reader.order));
+			PriorityQueue<RunReader> locations = new PriorityQueue<>(
+					Comparator.comparing((RunReader reader) -> reader.location).thenComparingInt(reader -> reader.order));
+
+			TreeMap<String, Integer> counts = new TreeMap<>();
+			for(Path file : files) {
+				RunReader reader = new RunReader(file, readers.size());
+				readers.add(reader);
+				reader.addCounts(counts);
+			}
+			counts.keySet().removeIf(this::isSkipped);
+			sink.startRun(counts);
+
+			for(RunReader reader : readers) {
+				if(reader.nextTerm()) {
+					terms.add(reader);
+				}
+			}
+
+			List<RunReader> matching = new ArrayList<>();
+			while(!terms.isEmpty()) {
+				String term = terms.peek().term;
+				while(!terms.isEmpty() && terms.peek().term.equals(term)) {
+					RunReader reader = terms.poll();
+					matching.add(reader);
+					if(reader.nextLocation()) {
+						locations.add(reader);
+					}
+				}
+
+				boolean started = false;
+				while(!locations.isEmpty()) {
+					String location = locations.peek().location;
+					int[] positions = new int[0];
+					while(!locations.isEmpty() && locations.peek().location.equals(location)) {
+						RunReader reader = locations.poll();
+						positions = reader.appendPositions(positions);
+						if(reader.nextLocation()) {
+							locations.add(reader);
+						}
+					}
+					if(isSkipped(location)) {
+						continue;
+					}
+					if(!started) {
+						sink.startTerm(term);
+						started = true;
+					}
+					sink.postings(location, positions);
+				}
+				if(started) {
+					sink.endTerm();
+				}
+
+				for(RunReader reader : matching) {
+					if(reader.nextTerm()) {
+						terms.add(reader);
+					}
+				}
+				matching.clear();
+			}
+		} finally {
+			for(RunReader reader : readers) {
+				reader.close();
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @author salimamukhit
+	 *
+	 * The in-memory buffer. Items are added to an index that is replaced by an empty
+	 * one after every spill, and the size of that index is estimated as items are
+	 * added.
+	 */
+	private class SpillingIndex extends InvertedIndex {
+
+		/** The index holding the items added since the last spill */
+		private InvertedIndex contents;
+
+		/** The estimated size of the contents in bytes */
+		private long bytes;
+
+		/** Whether anything has been added since the last spill */
+		private boolean dirty;
+
+		/**
+		 * Constructor
+		 */
+		public SpillingIndex() {
+			this.contents = new InvertedIndex();
+		}
+
+		/**
+		 * @brief Adds an item to the buffer, spilling it once it is full. Spilling in
+		 * the middle of a file keeps the buffer within budget however large the file is.
+		 * @param item to add to the data structure
+		 * @param location path to the word
+		 * @param position of the word in a file
+		 * @throws UncheckedIOException if the buffer cannot be spilled
+		 */
+		@Override
+		public void addItem(String item, String location, int position) {
+			if(!contents.hasPath(item, location)) {
+				bytes += LOCATION_BYTES;
+				if(!contents.hasItem(item)) {
+					bytes += TERM_BYTES + 2L * item.length();
+				}
+			}
+			bytes += POSITION_BYTES;
+			dirty = true;
+			contents.addItem(item, location, position);
+
+			if(bytes >= budget) {
+				try {
+					spill();
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+		}
+
+		/**
+		 * @brief Writes the buffer to a new sorted run and empties it
+		 * @throws IOException if an I/O error occurs
+		 */
+		public void spill() throws IOException {
+			if(!dirty) {
+				return;
+			}
+			TreeMap<String, Integer> counts = new TreeMap<>();
+			for(String item : contents.getAllItems()) {
+				for(String location : contents.getItemPaths(item)) {
+					counts.computeIfAbsent(location, contents::getWordCount);
+				}
+			}
+
+			Path run = newRun();
+			try(RunSink sink = new RunSink(run)) {
+				sink.startRun(counts);
+				for(String item : contents.getAllItems()) {
+					sink.startTerm(item);
+					for(String location : contents.getItemPaths(item)) {
+						Collection<Integer> positions = contents.getItemPositions(item, location);
+						sink.postings(location, positions.stream().mapToInt(Integer::intValue).toArray());
+					}
+					sink.endTerm();
+				}
+			}
+			runs.add(run);
+
+			contents = new InvertedIndex();
+			bytes = 0;
+			dirty = false;
+		}
+	}
+
+	/**
+	 * Receives the postings of a sorted index, term by term
+	 */
+	private interface PostingSink extends Closeable {
+		/**
+		 * @brief Starts the index, before any postings
+		 * @param counts the total word counts of all locations in the index
+		 * @throws IOException if an I/O error occurs
+		 */
+		public void startRun(Map<String, Integer> counts) throws IOException;
+
+		/**
+		 * @brief Starts the postings of the next term
+		 * @param term the term
+		 * @throws IOException if an I/O error occurs
+		 */
+		public void startTerm(String term) throws IOException;
+
+		/**
+		 * @brief Accepts the positions of the current term in the next location
+		 * @param location the location
+		 * @param positions the positions, in ascending order
+		 * @throws IOException if an I/O error occurs
+		 */
+		public void postings(String location, int[] positions) throws IOException;
+
+		/**
+		 * @brief Ends the postings of the current term
+		 * @throws IOException if an I/O error occurs
+		 */
+		public void endTerm() throws IOException;
+	}
+
+	/**
+	 * Writes postings to a run file, which is also the format of a partial index.
+	 * The file starts with {@link #MAGIC} and {@link #VERSION}, followed by the
+	 * number of locations and each location with its word count. After that, every
+	 * term is preceded by a true flag and every location of a term by another one,
+	 * and false flags end the list of locations of a term and the run itself.
+	 * Positions are written as a count followed by the positions, and strings as
+	 * their length in bytes followed by their UTF-8 bytes.
+	 */
+	private static class RunSink implements PostingSink {
+
+		/** The run file */
+		private final DataOutputStream out;
+
+		/**
+		 * Constructor
+		 * @param file the run file to create
+		 * @throws IOException if an I/O error occurs
+		 */
+		public RunSink(Path file) throws IOException {
+			this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+		}
+
+		@Override
+		public void startRun(Map<String, Integer> counts) throws IOException {
+			out.writeInt(counts.size());
+			for(Map.Entry<String, Integer> entry : counts.entrySet()) {
+				writeString(entry.getKey());
+				out.writeInt(entry.getValue());
+			}
+		}
+
+		@Override
+		public void startTerm(String term) throws IOException {
+			out.writeBoolean(true);
+			writeString(term);
+		}
+
+		@Override
+		public void postings(String location, int[] positions) throws IOException {
+			out.writeBoolean(true);
+			writeString(location);
+			out.writeInt(positions.length);
+			for(int position : positions) {
+				out.writeInt(position);
+			}
+		}
+
+		@Override
+		public void endTerm() throws IOException {
+			out.writeBoolean(false);
+		}
+
+		/**
+		 * @brief Writes a string as its length in bytes followed by its UTF-8 bytes,
+		 * which unlike {@link DataOutputStream#writeUTF(String)} works for any length
+		 * @param text the string to write
+		 * @throws IOException if an I/O error occurs
+		 */
+		private void writeString(String text) throws IOException {
+			byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.writeBoolean(false);
+			out.close();
+		}
+	}
+
+	/**
+	 * Reads a run file one term and one location at a time
+	 */
+	private static class RunReader implements Closeable {
+
+		/** The run file */
+		private final DataInputStream in;
+
+		/** The age of the run, lower for runs written earlier */
+		private final int order;
+
+		/** The current term, or null once the run has ended */
+		private String term;
+
+		/** The current location of the current term, or null once the term has ended */
+		private String location;
+
+		/**
+		 * Constructor
+		 * @param file the run file to read
+		 * @param order the age of the run
+		 * @throws IOException if an I/O error occurs or the file is not a run of this
+		 *         version
+		 */
+		public RunReader(Path file, int order) throws IOException {
+			this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+			this.order = order;
+			boolean valid;
+			try {
+				valid = in.readInt() == MAGIC && in.readInt() == VERSION;
+			} catch (EOFException e) {
+				valid = false;
+			}
+			if(!valid) {
+				in.close();
+				throw new IOException(file + " is not a run file of version " + VERSION + "!");
+			}
+		}
+
+		/**
+		 * @brief Reads the word counts at the start of the run and adds them to others.
+		 * Has to be called before anything else is read.
+		 * @param counts the word counts to add to
+		 * @throws IOException if an I/O error occurs
+		 */
+		public void addCounts(Map<String, Integer> counts) throws IOException {
+			int size = in.readInt();
+			for(int i = 0; i < size; i++) {
+				String location = readString();
+				counts.merge(location, in.readInt(), Integer::sum);
+			}
+		}
+
+		/**
+		 * @brief Moves on to the next term. Every location of the current term has to
+		 * have been read.
+		 * @return true if there is another term
+		 * @throws IOException if an I/O error occurs
+		 */
+		public boolean nextTerm() throws IOException {
+			term = in.readBoolean() ? readString() : null;
+			return term != null;
+		}
+
+		/**
+		 * @brief Moves on to the next location of the current term. The positions of the
+		 * current location have to have been read.
+		 * @return true if the term has another location
+		 * @throws IOException if an I/O error occurs
+		 */
+		public boolean nextLocation() throws IOException {
+			location = in.readBoolean() ? readString() : null;
+			return location != null;
+		}
+
+		/**
+		 * @brief Reads a string written by {@link RunSink#writeString(String)}
+		 * @return the string
+		 * @throws IOException if an I/O error occurs
+		 */
+		private String readString() throws IOException {
+			return new String(in.readNBytes(in.readInt()), StandardCharsets.UTF_8);
+		}
+
+		/**
+		 * @brief Reads the positions of the current location and appends them to others
+		 * @param positions the positions to append to
+		 * @return the combined positions
+		 * @throws IOException if an I/O error occurs
+		 */
+		public int[] appendPositions(int[] positions) throws IOException {
+			int count = in.readInt();
+			int[] combined = Arrays.copyOf(positions, positions.length + count);
+			for(int i = positions.length; i < combined.length; i++) {
+				combined[i] = in.readInt();
+			}
+			return combined;
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+
+	/**
+	 * Writes postings in the same pretty JSON format as
+	 * {@link SimpleJsonWriter#asInvertedIndex(Map, Writer, int)}
+	 */
+	private static class JsonSink implements PostingSink {
+
+		/** The writer to use */
+		private final Writer writer;
+
+		/** Whether no term has been written yet */
+		private boolean firstTerm;
+
+		/** Whether no location of the current term has been written yet */
+		private boolean firstLocation;
+
+		/**
+		 * Constructor
+		 * @param writer the writer to use
+		 * @throws IOException if an I/O error occurs
+		 */
+		public JsonSink(Writer writer) throws IOException {
+			this.writer = writer;
+			this.firstTerm = true;
+			writer.append("{\n");
+		}
+
+		@Override
+		public void startRun(Map<String, Integer> counts) {
+			// the word counts are written separately
+		}
+
+		@Override
+		public void startTerm(String term) throws IOException {
+			if(!firstTerm) {
+				writer.append(",\n");
+			}
+			firstTerm = false;
+			firstLocation = true;
+			SimpleJsonWriter.indent(term, writer, 1);
+			writer.append(": {\n");
+		}
+
+		@Override
+		public void postings(String location, int[] positions) throws IOException {
+			if(!firstLocation) {
+				writer.append(",\n");
+			}
+			firstLocation = false;
+			SimpleJsonWriter.indent(location, writer, 2);
+			writer.append(": ");
+			SimpleJsonWriter.asArray(Arrays.stream(positions).boxed().collect(Collectors.toList()), writer, 2);
+		}
+
+		@Override
+		public void endTerm() throws IOException {
+			SimpleJsonWriter.indent(writer, 1);
+			if(!firstLocation) {
+				writer.append("\n");
+			}
+			writer.append("}");
+		}
+
+		@Override
+		public void close() throws IOException {
+			if(!firstTerm) {
+				writer.append("\n");
+			}
+			writer.append("}");
+			writer.close();
+		}
+	}
+}
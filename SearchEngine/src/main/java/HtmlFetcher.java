@@ -1,7 +1,11 @@
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map;
 
@@ -12,6 +16,25 @@ import java.util.Map;
  */
 public class HtmlFetcher {
 
+	/**
+	 * Receives how the last request of a fetch went, after any redirects were
+	 * followed.
+	 */
+	@FunctionalInterface
+	public interface ResponseListener {
+
+		/**
+		 * @brief Receives the outcome of the last request of a fetch
+		 * @param url the url of the last request, which is on another host than the
+		 *        url fetched if a redirect led there
+		 * @param status the status code of the response, or -1 if the resource could
+		 *        not be fetched at all
+		 * @param latency the time in milliseconds from sending the last request until
+		 *        its headers arrived, or until it failed
+		 */
+		void received(URL url, int status, long latency);
+	}
+
 	/**
 	 * Returns {@code true} if and only if there is a "Content-Type" header and
 	 * the first value of that header starts with the value "text/html"
@@ -83,7 +106,8 @@ public class HtmlFetcher {
 	 * code is 200 and the content type is HTML, returns the HTML as a single
 	 * string. If the status code is a valid redirect, will follow that redirect
 	 * if the number of redirects is greater than 0. Otherwise, returns
-	 * {@code null}.
+	 * {@code null}. The headers are checked before the body is downloaded, so the
+	 * body of any other response is never read.
 	 *
 	 * @param url the url to fetch
 	 * @param redirects the number of times to follow redirects
@@ -91,26 +115,95 @@ public class HtmlFetcher {
 	 *         resource is not html
 	 */
 	public static String fetch(URL url, int redirects) {
+		return fetch(url, redirects, (last, status, latency) -> {});
+	}
+
+	/**
+	 * Works like {@link #fetch(URL, int)}, and also reports the url and status code
+	 * of the last request, after any redirects were followed, and how long its
+	 * headers took to arrive. The time leaves out downloading the body, so a large
+	 * page does not make its host look slow. This lets a crawler see when a server
+	 * is struggling.
+	 *
+	 * @param url the url to fetch
+	 * @param redirects the number of times to follow redirects
+	 * @param listener the listener of the last response
+	 * @return the html or {@code null} if unable to fetch the resource or the
+	 *         resource is not html
+	 */
+	public static String fetch(URL url, int redirects, ResponseListener listener) {
+		long start = System.nanoTime();
+		long[] arrived = {0};
 		try {
-			Map<String, List<String>> headers = HttpsFetcher.fetchURL(url);
+			StringBuilder html = new StringBuilder();
+			Map<String, List<String>> headers = HttpsFetcher.fetchURL(url, response -> {
+				arrived[0] = System.nanoTime();
+				return getStatusCode(response) == 200 && isHtml(response);
+			}, body -> readHtml(body, html));
 			
 			if(isRedirect(headers) && redirects > 0) {
 				String newUrl = headers.get("Location").get(0);
-				return fetch(newUrl, redirects - 1);
+				try {
+					return fetch(new URL(newUrl), redirects - 1, listener);
+				} catch (MalformedURLException e) {
+					listener.received(url, getStatusCode(headers), millis(start, arrived[0]));
+					return null;
+				}
 			}
 			
+			listener.received(url, getStatusCode(headers), millis(start, arrived[0]));
 			if(getStatusCode(headers) == 200 && isHtml(headers)) {
-				List<String> content = headers.get("Content");
-				return String.join("\n", content);
+				return html.toString();
 			}
 		} catch (UnknownHostException e1) {
+			listener.received(url, -1, millis(start, 0));
 			System.out.println("Unknown host!");
 		} catch (IOException e2) {
+			listener.received(url, -1, millis(start, 0));
 			System.out.println("IO error!");
 		}
 		return null;
 	}
 
+	/**
+	 * @brief Returns the time between two readings of {@link System#nanoTime()}
+	 * @param start the earlier reading
+	 * @param end the later reading, or 0 to take it now
+	 * @return the time in milliseconds
+	 */
+	private static long millis(long start, long end) {
+		return ((end == 0 ? System.nanoTime() : end) - start) / 1_000_000;
+	}
+
+	/**
+	 * Reads the html of a response as it is decoded. Every line break becomes a
+	 * single newline and the last one is dropped, as if the lines were joined.
+	 *
+	 * @param body the decoded body
+	 * @param html the builder to append the html to
+	 * @throws IOException if unable to read the body
+	 */
+	private static void readHtml(InputStream body, StringBuilder html) throws IOException {
+		Reader reader = new InputStreamReader(body, StandardCharsets.UTF_8);
+		char[] buffer = new char[8192];
+		boolean carriage = false;
+		int read;
+		while((read = reader.read(buffer)) >= 0) {
+			for(int i = 0; i < read; i++) {
+				char c = buffer[i];
+				if(c == '\n' && carriage) {
+					carriage = false;
+					continue;
+				}
+				carriage = c == '\r';
+				html.append(carriage ? '\n' : c);
+			}
+		}
+		if(html.length() > 0 && html.charAt(html.length() - 1) == '\n') {
+			html.setLength(html.length() - 1);
+		}
+	}
+
 	/**
 	 * Converts the {@link String} url into a {@link URL} object and then calls
 	 * {@link #fetch(URL, int)}.
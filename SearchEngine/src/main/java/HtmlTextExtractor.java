@@ -0,0 +1,693 @@
+import java.util.function.Consumer;
+
+/**
+ * A linear-time replacement for {@link HtmlCleaner} that extracts the visible
+ * text of a page in a single pass. Every cleanup step of the cleaner is a small
+ * state machine, and the steps are chained so that each one consumes the output
+ * of the one before it a character at a time: comments are removed first, then
+ * the head, style, script, noscript, iframe and svg elements one after the
+ * other, then the remaining tags, and finally the entities. Each machine finds
+ * exactly the matches its regular expression in the cleaner finds, so the text
+ * is the same, but no step ever scans the page more than once or rebuilds it
+ * after every match.
+ *
+ * Like the cleaner, entities are removed rather than decoded, so the words of a
+ * page do not change. A step only holds on to the characters of a match that is
+ * still open, and hands them on unchanged if the page ends before the match
+ * does.
+ *
+ * The cleaner replaces each match with {@link String#replaceFirst(String, String)}
+ * on the page as changed so far, so when removing a match joins the text around
+ * it into a new match, it removes that one instead of a later one. This only
+ * happens on contrived markup, and the extractor always removes the matches of
+ * the page as it is.
+ *
+ * @author salimamukhit
+ */
+public class HtmlTextExtractor {
+
+	/** The block elements removed, in the order the cleaner removes them */
+	private static final String[] BLOCK_ELEMENTS = {"head", "style", "script", "noscript", "iframe", "svg"};
+
+	/** The number of characters of text collected before they are tokenized */
+	private static final int CHUNK = 1 << 13;
+
+	/**
+	 * Receives characters from a step of the extraction
+	 */
+	private interface Sink {
+		/**
+		 * @brief Accepts the next character
+		 * @param c the character
+		 */
+		void append(char c);
+
+		/**
+		 * @brief Ends the input, handing on anything held back
+		 */
+		void end();
+	}
+
+	/**
+	 * @brief Removes all HTML tags, comments, entities and certain block elements
+	 * from the provided html, exactly like {@link HtmlCleaner#stripHtml(String)}
+	 * @param html the HTML to strip tags and elements from
+	 * @return text clean of any HTML tags and certain block elements
+	 */
+	public static String stripHtml(CharSequence html) {
+		StringSink text = new StringSink(html.length());
+		run(html, blockElements(new TagStage(new EntityStage(text))));
+		return text.builder.toString();
+	}
+
+	/**
+	 * @brief Removes comments and certain block elements from the provided html,
+	 * exactly like {@link HtmlCleaner#stripBlockElements(String)}
+	 * @param html the HTML to strip comments and block elements from
+	 * @return text clean of any comments and certain HTML block elements
+	 */
+	public static String stripBlockElements(CharSequence html) {
+		StringSink text = new StringSink(html.length());
+		run(html, blockElements(text));
+		return text.builder.toString();
+	}
+
+	/**
+	 * @brief Extracts the visible text of the html and hands its words to a consumer
+	 * as they are found, without building the text. The words are the same as when
+	 * the text from {@link #stripHtml(CharSequence)} is tokenized.
+	 * @param html the HTML of a page
+	 * @param tokenizer the tokenizer that splits the text into words
+	 * @param consumer the consumer of the words
+	 */
+	public static void tokenize(CharSequence html, TextTokenizer tokenizer, TextTokenizer.TokenConsumer consumer) {
+		run(html, blockElements(new TagStage(new EntityStage(new TokenSink(tokenizer, consumer)))));
+	}
+
+	/**
+	 * @brief Extracts the words and the links of a page in the same pass. The words
+	 * are the same as from {@link #tokenize(CharSequence, TextTokenizer,
+	 * TextTokenizer.TokenConsumer)}, and the links are the href values that
+	 * {@link LinkParser#getValidLinks(java.net.URL, String)} finds in the html from
+	 * {@link #stripBlockElements(CharSequence)}, in the same order.
+	 * @param html the HTML of a page
+	 * @param tokenizer the tokenizer that splits the text into words
+	 * @param words the consumer of the words
+	 * @param links the consumer of the href values, before they are made absolute
+	 */
+	public static void extract(CharSequence html, TextTokenizer tokenizer, TextTokenizer.TokenConsumer words,
+			Consumer<String> links) {
+		run(html, blockElements(new LinkStage(new TagStage(new EntityStage(new TokenSink(tokenizer, words))), links)));
+	}
+
+	/**
+	 * @brief Chains the steps that remove comments and block elements in front of a
+	 * sink
+	 * @param next the sink of the html without them
+	 * @return the first step
+	 */
+	private static Sink blockElements(Sink next) {
+		Sink sink = next;
+		for(int i = BLOCK_ELEMENTS.length - 1; i >= 0; i--) {
+			sink = new ElementStage(BLOCK_ELEMENTS[i], sink);
+		}
+		return new CommentStage(sink);
+	}
+
+	/**
+	 * @brief Feeds the html through the steps
+	 * @param html the html
+	 * @param first the first step
+	 */
+	private static void run(CharSequence html, Sink first) {
+		int length = html.length();
+		for(int i = 0; i < length; i++) {
+			first.append(html.charAt(i));
+		}
+		first.end();
+	}
+
+	/**
+	 * @brief Checks whether a character is whitespace in the sense of {@code \s}
+	 * @param c the character
+	 * @return true if the character is a space, tab, line break, vertical tab or form feed
+	 */
+	private static boolean isSpace(char c) {
+		return c == ' ' || (c >= '\t' && c <= '\r');
+	}
+
+	/**
+	 * @brief Lowercases ASCII letters only, like a case-insensitive regular expression
+	 * @param c the character
+	 * @return the lowercase character
+	 */
+	private static char lower(char c) {
+		return c >= 'A' && c <= 'Z' ? (char) (c + 32) : c;
+	}
+
+	/**
+	 * Removes comments. Matches {@code <!--(.*?)-->} and replaces each match with a
+	 * space if the comment holds a newline.
+	 */
+	private static class CommentStage implements Sink {
+
+		/** The opening of a comment */
+		private static final String OPEN = "<!--";
+
+		/** The next step */
+		private final Sink next;
+
+		/** The characters of the opening or comment held back */
+		private final StringBuilder held = new StringBuilder();
+
+		/** Whether a whole opening has been seen */
+		private boolean inComment;
+
+		/** The number of dashes just seen inside a comment */
+		private int dashes;
+
+		/** Whether the comment holds a newline */
+		private boolean newline;
+
+		/**
+		 * Constructor
+		 * @param next the next step
+		 */
+		private CommentStage(Sink next) {
+			this.next = next;
+		}
+
+		@Override
+		public void append(char c) {
+			if(inComment) {
+				held.append(c);
+				if(c == '>' && dashes >= 2) {
+					if(newline) {
+						next.append(' ');
+					}
+					held.setLength(0);
+					inComment = false;
+					return;
+				}
+				dashes = c == '-' ? dashes + 1 : 0;
+				newline |= c == '\n';
+				return;
+			}
+
+			if(held.length() > 0 && c == OPEN.charAt(held.length())) {
+				held.append(c);
+				if(held.length() == OPEN.length()) {
+					inComment = true;
+					dashes = 0;
+					newline = false;
+				}
+				return;
+			}
+			flush();
+			if(c == '<') {
+				held.append(c);
+			} else {
+				next.append(c);
+			}
+		}
+
+		@Override
+		public void end() {
+			flush();
+			inComment = false;
+			next.end();
+		}
+
+		/**
+		 * @brief Hands on the characters held back, which turned out not to be removed
+		 */
+		private void flush() {
+			for(int i = 0; i < held.length(); i++) {
+				next.append(held.charAt(i));
+			}
+			held.setLength(0);
+		}
+	}
+
+	/**
+	 * Removes one kind of element. Matches {@code <name\b(.+?)name\s*>} without
+	 * regard to case and replaces each match with a space if the part between the
+	 * names holds a newline.
+	 */
+	private static class ElementStage implements Sink {
+
+		/** The opening of the element, lowercase */
+		private final String open;
+
+		/** The name of the element, lowercase */
+		private final String name;
+
+		/** The next step */
+		private final Sink next;
+
+		/** The characters of the opening or element held back */
+		private final StringBuilder held = new StringBuilder();
+
+		/** Whether a whole opening followed by a word boundary has been seen */
+		private boolean inElement;
+
+		/**
+		 * Constructor
+		 * @param name the name of the element, lowercase
+		 * @param next the next step
+		 */
+		private ElementStage(String name, Sink next) {
+			this.open = "<" + name;
+			this.name = name;
+			this.next = next;
+		}
+
+		@Override
+		public void append(char c) {
+			if(inElement) {
+				held.append(c);
+				if(c == '>') {
+					closeAt(held.length() - 1);
+				}
+				return;
+			}
+
+			int length = held.length();
+			if(length >= open.length()) {
+				// the opening is complete, so the next code point decides the word boundary
+				if(length == open.length() && Character.isHighSurrogate(c)) {
+					held.append(c);
+					return;
+				}
+				if(length > open.length() && !Character.isLowSurrogate(c)) {
+					boundary(held.charAt(open.length()));
+					append(c);
+					return;
+				}
+				held.append(c);
+				boundary(held.codePointAt(open.length()));
+				return;
+			}
+
+			if(length > 0 && lower(c) == open.charAt(length)) {
+				held.append(c);
+				return;
+			}
+			flush();
+			if(c == '<') {
+				held.append(c);
+			} else {
+				next.append(c);
+			}
+		}
+
+		/**
+		 * @brief Starts the element if the code point after the opening is not a word
+		 * character, and hands on the held characters otherwise
+		 * @param cp the code point after the opening
+		 */
+		private void boundary(int cp) {
+			if(isWord(cp)) {
+				flush();
+			} else {
+				inElement = true;
+			}
+		}
+
+		/**
+		 * @brief Checks whether a {@code >} ends the element, which it does if it
+		 * follows the name and some whitespace, and the name leaves at least one
+		 * character after the opening
+		 * @param close the index of the {@code >} in the held characters
+		 */
+		private void closeAt(int close) {
+			int end = close;
+			while(end > 0 && isSpace(held.charAt(end - 1))) {
+				end--;
+			}
+			int start = end - name.length();
+			if(start < open.length() + 1) {
+				return;
+			}
+			for(int i = 0; i < name.length(); i++) {
+				if(lower(held.charAt(start + i)) != name.charAt(i)) {
+					return;
+				}
+			}
+			boolean newline = false;
+			for(int i = open.length(); i < start && !newline; i++) {
+				newline = held.charAt(i) == '\n';
+			}
+			if(newline) {
+				next.append(' ');
+			}
+			held.setLength(0);
+			inElement = false;
+		}
+
+		@Override
+		public void end() {
+			flush();
+			inElement = false;
+			next.end();
+		}
+
+		/**
+		 * @brief Hands on the characters held back, which turned out not to be removed
+		 */
+		private void flush() {
+			for(int i = 0; i < held.length(); i++) {
+				next.append(held.charAt(i));
+			}
+			held.setLength(0);
+		}
+
+		/**
+		 * @brief Checks whether a code point is a word character in the sense of
+		 * {@code \b}
+		 * @param cp the code point
+		 * @return true if there is no word boundary between a letter and the code point
+		 */
+		private static boolean isWord(int cp) {
+			return cp == '_' || Character.isLetterOrDigit(cp) || Character.getType(cp) == Character.NON_SPACING_MARK;
+		}
+	}
+
+	/**
+	 * Finds the links of anchor tags without changing the html. Matches
+	 * {@code <a[^>]*?href\s*=\s*"(.*?)"} without regard to case, like
+	 * {@link LinkParser}, and hands on every character as soon as it arrives.
+	 */
+	private static class LinkStage implements Sink {
+
+		/** The name of the attribute */
+		private static final String HREF = "href";
+
+		/** Looking for a tag */
+		private static final int OUTSIDE = 0;
+
+		/** After a {@code <} */
+		private static final int LESS = 1;
+
+		/** Inside an anchor tag, matching the attribute name */
+		private static final int TAG = 2;
+
+		/** After the attribute name, waiting for {@code =} */
+		private static final int EQUALS = 3;
+
+		/** After {@code =}, waiting for the opening quote */
+		private static final int QUOTE = 4;
+
+		/** Inside the quoted value */
+		private static final int VALUE = 5;
+
+		/** The next step */
+		private final Sink next;
+
+		/** The consumer of the links */
+		private final Consumer<String> links;
+
+		/** The value of the attribute so far */
+		private final StringBuilder value = new StringBuilder();
+
+		/** The state of the match */
+		private int state;
+
+		/** The number of characters of the attribute name matched */
+		private int matched;
+
+		/**
+		 * Constructor
+		 * @param next the next step
+		 * @param links the consumer of the links
+		 */
+		private LinkStage(Sink next, Consumer<String> links) {
+			this.next = next;
+			this.links = links;
+			this.state = OUTSIDE;
+		}
+
+		@Override
+		public void append(char c) {
+			switch(state) {
+				case OUTSIDE:
+					state = c == '<' ? LESS : OUTSIDE;
+					break;
+				case LESS:
+					state = lower(c) == 'a' ? TAG : (c == '<' ? LESS : OUTSIDE);
+					matched = 0;
+					break;
+				case EQUALS:
+				case QUOTE:
+					if(isSpace(c)) {
+						break;
+					}
+					if(state == EQUALS && c == '=') {
+						state = QUOTE;
+						break;
+					}
+					if(state == QUOTE && c == '"') {
+						state = VALUE;
+						value.setLength(0);
+						break;
+					}
+					// the attribute did not work out, so keep looking in the tag
+					state = TAG;
+					matched = 0;
+					tag(c);
+					break;
+				case TAG:
+					tag(c);
+					break;
+				default:
+					if(c == '"') {
+						links.accept(value.toString());
+						state = OUTSIDE;
+					} else {
+						value.append(c);
+					}
+					break;
+			}
+			next.append(c);
+		}
+
+		/**
+		 * @brief Matches the attribute name inside an anchor tag, which ends the tag at a
+		 * {@code >}
+		 * @param c the next character of the tag
+		 */
+		private void tag(char c) {
+			if(c == '>') {
+				state = OUTSIDE;
+			} else if(lower(c) == HREF.charAt(matched)) {
+				if(++matched == HREF.length()) {
+					state = EQUALS;
+				}
+			} else {
+				matched = lower(c) == 'h' ? 1 : 0;
+			}
+		}
+
+		@Override
+		public void end() {
+			state = OUTSIDE;
+			next.end();
+		}
+	}
+
+	/**
+	 * Removes tags. Matches {@code <.*?\n?.*?>} across lines, which is everything
+	 * from a {@code <} to the next {@code >}.
+	 */
+	private static class TagStage implements Sink {
+
+		/** The next step */
+		private final Sink next;
+
+		/** The characters of the tag held back */
+		private final StringBuilder held = new StringBuilder();
+
+		/**
+		 * Constructor
+		 * @param next the next step
+		 */
+		private TagStage(Sink next) {
+			this.next = next;
+		}
+
+		@Override
+		public void append(char c) {
+			if(held.length() > 0) {
+				if(c == '>') {
+					held.setLength(0);
+				} else {
+					held.append(c);
+				}
+			} else if(c == '<') {
+				held.append(c);
+			} else {
+				next.append(c);
+			}
+		}
+
+		@Override
+		public void end() {
+			for(int i = 0; i < held.length(); i++) {
+				next.append(held.charAt(i));
+			}
+			held.setLength(0);
+			next.end();
+		}
+	}
+
+	/**
+	 * Removes entities. Matches {@code &[^\s].*?;}, which is an ampersand, any
+	 * character but whitespace, and everything up to the next semicolon on the same
+	 * line.
+	 */
+	private static class EntityStage implements Sink {
+
+		/** The next step */
+		private final Sink next;
+
+		/** The characters of the entity held back */
+		private final StringBuilder held = new StringBuilder();
+
+		/**
+		 * Constructor
+		 * @param next the next step
+		 */
+		private EntityStage(Sink next) {
+			this.next = next;
+		}
+
+		@Override
+		public void append(char c) {
+			int length = held.length();
+			if(length == 0) {
+				if(c == '&') {
+					held.append(c);
+				} else {
+					next.append(c);
+				}
+			} else if(length == 1) {
+				if(isSpace(c)) {
+					flush();
+					next.append(c);
+				} else {
+					held.append(c);
+				}
+			} else if(c == ';') {
+				held.setLength(0);
+			} else if(isLineTerminator(c)) {
+				// none of the held ampersands can find a semicolon on this line, except
+				// one right before a line terminator that is not whitespace
+				if(held.charAt(length - 1) == '&' && !isSpace(c)) {
+					held.setLength(length - 1);
+					flush();
+					held.append('&').append(c);
+				} else {
+					flush();
+					next.append(c);
+				}
+			} else {
+				held.append(c);
+			}
+		}
+
+		@Override
+		public void end() {
+			flush();
+			next.end();
+		}
+
+		/**
+		 * @brief Hands on the characters held back, which turned out not to be removed
+		 */
+		private void flush() {
+			for(int i = 0; i < held.length(); i++) {
+				next.append(held.charAt(i));
+			}
+			held.setLength(0);
+		}
+
+		/**
+		 * @brief Checks whether a character ends a line for {@code .}
+		 * @param c the character
+		 * @return true if the character is a line terminator
+		 */
+		private static boolean isLineTerminator(char c) {
+			return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+		}
+	}
+
+	/**
+	 * Collects the text in a string
+	 */
+	private static class StringSink implements Sink {
+
+		/** The text */
+		private final StringBuilder builder;
+
+		/**
+		 * Constructor
+		 * @param capacity the expected length of the text
+		 */
+		private StringSink(int capacity) {
+			this.builder = new StringBuilder(capacity);
+		}
+
+		@Override
+		public void append(char c) {
+			builder.append(c);
+		}
+
+		@Override
+		public void end() {
+			// the text is complete
+		}
+	}
+
+	/**
+	 * Hands the text to a tokenizer in pieces. A piece only ends before an ASCII
+	 * character, which never combines with the characters before it, so Unicode
+	 * normalization of the pieces gives the same result as for the whole text.
+	 */
+	private static class TokenSink implements Sink {
+
+		/** The tokenizer */
+		private final TextTokenizer tokenizer;
+
+		/** The consumer of the words */
+		private final TextTokenizer.TokenConsumer consumer;
+
+		/** The text not tokenized yet */
+		private final StringBuilder piece = new StringBuilder(CHUNK);
+
+		/**
+		 * Constructor
+		 * @param tokenizer the tokenizer
+		 * @param consumer the consumer of the words
+		 */
+		private TokenSink(TextTokenizer tokenizer, TextTokenizer.TokenConsumer consumer) {
+			this.tokenizer = tokenizer;
+			this.consumer = consumer;
+		}
+
+		@Override
+		public void append(char c) {
+			if(c < 128 && piece.length() >= CHUNK) {
+				tokenizer.feed(piece, consumer);
+				piece.setLength(0);
+			}
+			piece.append(c);
+		}
+
+		@Override
+		public void end() {
+			tokenizer.feed(piece, consumer);
+			piece.setLength(0);
+			tokenizer.finish(consumer);
+		}
+	}
+}
@@ -0,0 +1,319 @@
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.URL;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps idle HTTP/1.1 connections open so that requests to the same host can
+ * reuse them instead of opening a new socket, and doing a new TLS handshake,
+ * for every page. Connections are pooled per protocol, host and port, and the
+ * most recently used one is handed out first. Connections that have been idle
+ * for longer than the idle timeout, or that the server has closed, are evicted
+ * instead of being handed out. A timer also sweeps every host once per idle
+ * timeout, so a host that is never visited again does not keep its sockets open,
+ * and hosts without idle connections are forgotten.
+ *
+ * This class is thread-safe. A connection belongs to a single caller from
+ * {@link #acquire(URL)} until it is given back with {@link #release(Connection)}
+ * or closed.
+ *
+ * @author salimamukhit
+ */
+public class HttpConnectionPool {
+
+	/** The default time in milliseconds a connection may stay idle */
+	public static final long DEFAULT_IDLE_TIMEOUT = 15_000;
+
+	/** The default number of idle connections kept for each host */
+	public static final int DEFAULT_MAX_IDLE = 8;
+
+	/** The pool used by {@link HttpsFetcher} */
+	private static final HttpConnectionPool DEFAULT = new HttpConnectionPool(DEFAULT_IDLE_TIMEOUT, DEFAULT_MAX_IDLE);
+
+	/** The idle connections of each host, most recently used first */
+	private final ConcurrentHashMap<String, ConcurrentLinkedDeque<Connection>> idle;
+
+	/** The time in milliseconds a connection may stay idle */
+	private final long idleTimeout;
+
+	/** The number of idle connections kept for each host */
+	private final int maxIdle;
+
+	/** The number of connections opened */
+	private final LongAdder opened;
+
+	/** The number of times an idle connection was reused */
+	private final LongAdder reused;
+
+	/** The timer that evicts idle connections */
+	private final ScheduledExecutorService timer;
+
+	/**
+	 * Constructor
+	 * @param idleTimeout the time in milliseconds a connection may stay idle
+	 * @param maxIdle the number of idle connections kept for each host
+	 */
+	public HttpConnectionPool(long idleTimeout, int maxIdle) {
+		this.idle = new ConcurrentHashMap<>();
+		this.idleTimeout = idleTimeout;
+		this.maxIdle = maxIdle;
+		this.opened = new LongAdder();
+		this.reused = new LongAdder();
+		this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "connection-evictor");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.timer.scheduleWithFixedDelay(this::evictIdle, idleTimeout, idleTimeout, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @brief Returns the pool shared by all fetchers
+	 * @return the default pool
+	 */
+	public static HttpConnectionPool getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * @brief Hands out an idle connection to the host of the URL, or opens a new one
+	 * if there is none
+	 * @param url the url to connect to
+	 * @return a connection to the host of the url
+	 * @throws IOException if a new connection cannot be opened
+	 */
+	public Connection acquire(URL url) throws IOException {
+		return acquire(url, System.nanoTime() + Long.MAX_VALUE / 2);
+	}
+
+	/**
+	 * @brief Hands out an idle connection to the host of the URL, or opens a new one
+	 * if there is none before a deadline
+	 * @param url the url to connect to
+	 * @param deadline the time in nanoseconds, see {@link System#nanoTime()}, by
+	 *        which a new connection has to be open
+	 * @return a connection to the host of the url
+	 * @throws IOException if a new connection cannot be opened in time
+	 */
+	public Connection acquire(URL url, long deadline) throws IOException {
+		String key = key(url);
+		ConcurrentLinkedDeque<Connection> connections = idle.get(key);
+		if(connections != null) {
+			long now = System.currentTimeMillis();
+			Connection connection;
+			while((connection = connections.pollFirst()) != null) {
+				if(connection.isUsable(now, idleTimeout)) {
+					connection.reused = true;
+					reused.increment();
+					return connection;
+				}
+				connection.close();
+			}
+		}
+		opened.increment();
+		return new Connection(key, HttpsFetcher.openConnection(url, deadline));
+	}
+
+	/**
+	 * @brief Gives a connection back to the pool once its response has been read
+	 * completely. If more connections to the host are idle than the pool keeps, the
+	 * least recently used one is closed.
+	 * @param connection the connection to give back
+	 */
+	public void release(Connection connection) {
+		long now = System.currentTimeMillis();
+		connection.lastUsed = now;
+		// added inside compute, so that a sweep cannot drop the deque in between
+		ConcurrentLinkedDeque<Connection> connections = idle.compute(connection.key, (key, deque) -> {
+			deque = deque == null ? new ConcurrentLinkedDeque<>() : deque;
+			deque.offerFirst(connection);
+			return deque;
+		});
+
+		Iterator<Connection> oldest = connections.descendingIterator();
+		int count = connections.size();
+		while(oldest.hasNext()) {
+			Connection other = oldest.next();
+			if((count > maxIdle || !other.isUsable(now, idleTimeout)) && connections.remove(other)) {
+				other.close();
+				count--;
+			}
+		}
+	}
+
+	/**
+	 * @brief Closes every connection that has been idle for longer than the idle
+	 * timeout, or that the server has closed, and forgets the hosts left without idle
+	 * connections
+	 */
+	public void evictIdle() {
+		long now = System.currentTimeMillis();
+		for(String key : idle.keySet()) {
+			ConcurrentLinkedDeque<Connection> connections = idle.get(key);
+			if(connections == null) {
+				continue;
+			}
+			for(Connection connection : connections) {
+				if(!connection.isUsable(now, idleTimeout) && connections.remove(connection)) {
+					connection.close();
+				}
+			}
+			idle.computeIfPresent(key, (k, deque) -> deque.isEmpty() ? null : deque);
+		}
+	}
+
+	/**
+	 * @brief Closes every idle connection and forgets every host
+	 */
+	public void closeAll() {
+		for(String key : idle.keySet()) {
+			ConcurrentLinkedDeque<Connection> connections = idle.remove(key);
+			Connection connection;
+			while(connections != null && (connection = connections.pollFirst()) != null) {
+				connection.close();
+			}
+		}
+	}
+
+	/**
+	 * @brief Returns the number of connections opened so far
+	 * @return the number of connections opened
+	 */
+	public long opened() {
+		return opened.sum();
+	}
+
+	/**
+	 * @brief Returns the number of times an idle connection was reused
+	 * @return the number of reuses
+	 */
+	public long reused() {
+		return reused.sum();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Connections: %d opened, %d reused%n", opened(), reused());
+	}
+
+	/**
+	 * @brief Builds the pool key of a URL from its protocol, host and port
+	 * @param url the url
+	 * @return the key of the url
+	 */
+	static String key(URL url) {
+		int port = url.getPort() < 0 ? url.getDefaultPort() : url.getPort();
+		return url.getProtocol().toLowerCase(Locale.ROOT) + "://" + url.getHost().toLowerCase(Locale.ROOT) + ":" + port;
+	}
+
+	/**
+	 * A socket connection to a web server along with its buffered input, which
+	 * has to stay with the connection because it may already hold the start of
+	 * the next response.
+	 */
+	public static class Connection implements Closeable {
+
+		/** The protocol, host and port of the connection */
+		private final String key;
+
+		/** The socket */
+		private final Socket socket;
+
+		/** The buffered input of the socket */
+		private final InputStream input;
+
+		/** The output of the socket */
+		private final OutputStream output;
+
+		/** The time in milliseconds the connection was last given back to the pool */
+		private long lastUsed;
+
+		/** Whether the connection has been used for an earlier request */
+		private boolean reused;
+
+		/**
+		 * Constructor
+		 * @param key the protocol, host and port of the connection
+		 * @param socket the socket
+		 * @throws IOException if the streams of the socket cannot be opened
+		 */
+		private Connection(String key, Socket socket) throws IOException {
+			this.key = key;
+			this.socket = socket;
+			this.input = new BufferedInputStream(socket.getInputStream());
+			this.output = socket.getOutputStream();
+			this.reused = false;
+		}
+
+		/**
+		 * @brief Returns the buffered input of the connection
+		 * @return the input stream
+		 */
+		public InputStream getInputStream() {
+			return input;
+		}
+
+		/**
+		 * @brief Returns the output of the connection
+		 * @return the output stream
+		 */
+		public OutputStream getOutputStream() {
+			return output;
+		}
+
+		/**
+		 * @brief Returns the socket of the connection
+		 * @return the socket
+		 */
+		public Socket getSocket() {
+			return socket;
+		}
+
+		/**
+		 * @brief Checks whether the connection was used for an earlier request, in
+		 * which case the server may have closed it in the meantime
+		 * @return true if the connection came from the pool
+		 */
+		public boolean isReused() {
+			return reused;
+		}
+
+		/**
+		 * @brief Checks whether an idle connection can still be used. A connection the
+		 * server has closed, or that sent data nobody asked for, is not usable.
+		 * @param now the current time in milliseconds
+		 * @param idleTimeout the time in milliseconds a connection may stay idle
+		 * @return true if the connection can be handed out
+		 */
+		private boolean isUsable(long now, long idleTimeout) {
+			if(socket.isClosed() || now - lastUsed > idleTimeout) {
+				return false;
+			}
+			try {
+				return input.available() == 0 && !socket.isInputShutdown();
+			} catch (IOException e) {
+				return false;
+			}
+		}
+
+		@Override
+		public void close() {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// nothing more to do with a connection that is being thrown away
+			}
+		}
+	}
+}
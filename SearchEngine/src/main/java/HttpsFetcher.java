@@ -1,9 +1,19 @@
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.PushbackInputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.net.UnknownHostException;
@@ -11,18 +21,134 @@ import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 import java.util.stream.Collectors;
 
 import javax.net.SocketFactory;
+import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
 
 /**
  * An alternative to using {@link Socket} connections instead of a
  * {@link URLConnection} to fetch the headers and content from a URL on the web.
+ *
+ * Connections are kept alive and reused through the default
+ * {@link HttpConnectionPool}, so fetching several pages from the same host only
+ * opens one connection. Bodies are read by their Content-Length or chunked
+ * transfer encoding, so the connection is ready for the next request as soon
+ * as the body has been read.
+ *
+ * The headers are read before the body, so a caller that only wants some
+ * responses can skip the body of the others. Connecting and every read are
+ * bounded by timeouts, and the whole request, from looking up the host and the
+ * TLS handshake to the end of the body, by a total timeout. Bodies larger
+ * than the maximum body size are not downloaded. Header lines and their number
+ * are limited as well, so a single huge or slow response cannot hold up a
+ * thread for long. See {@link #configure(int, int, int, int)}.
+ *
+ * Responses are requested with gzip or deflate content encoding. The body is
+ * decoded as it is read off the connection and handed to the caller as a
+ * stream, so neither the compressed nor the decoded body has to be held in
+ * memory by the fetcher. The number of body bytes received and the number of
+ * bytes they decode to are counted for all fetches.
  */
 public class HttpsFetcher {
 
+	/** The User-Agent sent with every request, starting with the robots.txt product token */
+	public static final String USER_AGENT = RobotsRules.AGENT + "/1.0";
+
+	/** The default time in milliseconds to wait for a connection */
+	public static final int DEFAULT_CONNECT_TIMEOUT = 10_000;
+
+	/** The default time in milliseconds to wait for data from the server */
+	public static final int DEFAULT_READ_TIMEOUT = 15_000;
+
+	/** The default largest body in bytes that is downloaded */
+	public static final int DEFAULT_MAX_BODY = 8 << 20;
+
+	/** The default time in milliseconds a whole request may take */
+	public static final int DEFAULT_TOTAL_TIMEOUT = 60_000;
+
+	/** The longest line in bytes of the headers or the chunk sizes of a response */
+	private static final int MAX_LINE = 8 << 10;
+
+	/** The most header or trailer lines of a response */
+	private static final int MAX_HEADERS = 100;
+
+	/** The largest body in bytes that is skipped to keep the connection alive */
+	private static final int MAX_DRAIN = 1 << 14;
+
+	/** The time in milliseconds to wait for a connection */
+	private static volatile int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+
+	/** The time in milliseconds to wait for data from the server */
+	private static volatile int readTimeout = DEFAULT_READ_TIMEOUT;
+
+	/** The largest body in bytes that is downloaded */
+	private static volatile int maxBody = DEFAULT_MAX_BODY;
+
+	/** The time in milliseconds a whole request may take */
+	private static volatile int totalTimeout = DEFAULT_TOTAL_TIMEOUT;
+
+	/** The threads that look up hosts, so that a lookup can be given up on */
+	private static final ExecutorService lookups = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "host-lookup");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/** The number of body bytes received, before decoding */
+	private static final LongAdder receivedBytes = new LongAdder();
+
+	/** The number of body bytes after decoding */
+	private static final LongAdder decodedBytes = new LongAdder();
+
+	/**
+	 * Reads the decoded body of a response as it arrives
+	 */
+	@FunctionalInterface
+	public interface BodyConsumer {
+
+		/**
+		 * @brief Reads the body of a response. The stream ends with the body, and
+		 * does not need to be read to its end or closed.
+		 * @param body the decoded body
+		 * @throws IOException if unable to read the body
+		 */
+		public void accept(InputStream body) throws IOException;
+	}
+
+	/**
+	 * Sets the limits of all following fetches.
+	 *
+	 * @param connectTimeout the time in milliseconds to wait for a connection
+	 * @param readTimeout the time in milliseconds to wait for data from the server
+	 * @param maxBody the largest body in bytes that is downloaded
+	 * @param totalTimeout the time in milliseconds a whole request may take, from
+	 *        connecting to reading the end of the body
+	 */
+	public static void configure(int connectTimeout, int readTimeout, int maxBody, int totalTimeout) {
+		if(connectTimeout <= 0 || readTimeout <= 0 || totalTimeout <= 0 || maxBody < 0) {
+			throw new IllegalArgumentException("Timeouts have to be positive and the body size non-negative!");
+		}
+		HttpsFetcher.connectTimeout = connectTimeout;
+		HttpsFetcher.readTimeout = readTimeout;
+		HttpsFetcher.maxBody = maxBody;
+		HttpsFetcher.totalTimeout = totalTimeout;
+	}
+
 	/**
 	 * Fetches the headers and content for the specified URL. The content is
 	 * placed as a list of all the lines fetched under the "Content" key.
@@ -32,19 +158,108 @@ public class HttpsFetcher {
 	 * @throws IOException if unable to fetch headers and content
 	 */
 	public static Map<String, List<String>> fetchURL(URL url) throws IOException {
-		try (
-				Socket socket = openConnection(url);
-				PrintWriter request = new PrintWriter(socket.getOutputStream());
-				InputStreamReader input = new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8);
-				BufferedReader response = new BufferedReader(input);
-		) {
-			printGetRequest(request, url);
+		return fetchURL(url, headers -> true);
+	}
+
+	/**
+	 * Fetches the headers for the specified URL, and the content only if the
+	 * headers are wanted. The body of an unwanted response is not downloaded; the
+	 * connection is closed instead unless the body is small enough to skip. The
+	 * content is placed as a list of all the lines fetched under the "Content" key,
+	 * which is missing for unwanted responses.
+	 *
+	 * @param url the url to fetch
+	 * @param wanted tests whether the content of a response with the given headers
+	 *        is needed
+	 * @return a map with the headers and, if wanted, the content
+	 * @throws IOException if unable to fetch headers and content, or the content is
+	 *         larger than the maximum body size
+	 */
+	public static Map<String, List<String>> fetchURL(URL url, Predicate<Map<String, List<String>>> wanted)
+			throws IOException {
+		List<List<String>> content = new ArrayList<>(1);
+		Map<String, List<String>> headers = fetchURL(url, wanted, body -> {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+			try {
+				content.add(getContent(reader));
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			}
+		});
+		if(!content.isEmpty()) {
+			headers.put("Content", content.get(0));
+		}
+		return headers;
+	}
+
+	/**
+	 * Fetches the headers for the specified URL, and hands the decoded body to a
+	 * consumer only if the headers are wanted. The body is read off the connection
+	 * and decoded while the consumer reads it. The body of an unwanted response is
+	 * not downloaded; the connection is closed instead unless the body is small
+	 * enough to skip.
+	 *
+	 * @param url the url to fetch
+	 * @param wanted tests whether the content of a response with the given headers
+	 *        is needed
+	 * @param consumer the consumer of the body of a wanted response
+	 * @return a map with the headers
+	 * @throws IOException if unable to fetch headers and content, the content is
+	 *         larger than the maximum body size or the request takes longer than the
+	 *         total timeout
+	 */
+	public static Map<String, List<String>> fetchURL(URL url, Predicate<Map<String, List<String>>> wanted,
+			BodyConsumer consumer) throws IOException {
+		HttpConnectionPool pool = HttpConnectionPool.getDefault();
+		long deadline = System.nanoTime() + totalTimeout * 1_000_000L;
 
-			Map<String, List<String>> headers = getHeaderFields(response);
-			List<String> content = getContent(response);
-			headers.put("Content", content);
+		while(true) {
+			HttpConnectionPool.Connection connection = pool.acquire(url, deadline);
+			boolean reusable = false;
+			boolean responded = false;
 
-			return headers;
+			try {
+				connection.getSocket().setSoTimeout(readTimeout);
+				PrintWriter request = new PrintWriter(
+						new OutputStreamWriter(connection.getOutputStream(), StandardCharsets.UTF_8));
+				printGetRequest(request, url, true, true);
+
+				InputStream response = new DeadlineInputStream(connection, deadline);
+				String status = readLine(response);
+				if(status == null) {
+					throw new EOFException("The server closed the connection");
+				}
+				responded = true;
+
+				Map<String, List<String>> headers = readHeaderFields(status, response);
+				if(!wanted.test(headers)) {
+					reusable = isKeepAlive(headers) && skipBody(response, headers);
+					return headers;
+				}
+
+				BodyInputStream body = new BodyInputStream(response, headers);
+				CountingInputStream decoded = new CountingInputStream(decode(body, headers), maxBody);
+				try {
+					consumer.accept(decoded);
+					reusable = isKeepAlive(headers) && body.finish();
+				} finally {
+					receivedBytes.add(body.received);
+					decodedBytes.add(decoded.count);
+				}
+				return headers;
+			} catch (IOException e) {
+				// a pooled connection the server closed while idle is retried on a new one
+				if(connection.isReused() && !responded) {
+					continue;
+				}
+				throw e;
+			} finally {
+				if(reusable) {
+					pool.release(connection);
+				} else {
+					connection.close();
+				}
+			}
 		}
 	}
 
@@ -64,7 +279,8 @@ public class HttpsFetcher {
 
 	/**
 	 * Uses a {@link Socket} to open a connection to the web server associated
-	 * with the provided URL. Supports HTTP and HTTPS connections.
+	 * with the provided URL. Supports HTTP and HTTPS connections. Gives up once the
+	 * connect timeout has passed, and reads time out after the read timeout.
 	 *
 	 * @param url the url to connect
 	 * @return a socket connection for that url
@@ -74,6 +290,23 @@ public class HttpsFetcher {
 	 * @see URL#openConnection()
 	 */
 	public static Socket openConnection(URL url) throws UnknownHostException, IOException {
+		return openConnection(url, System.nanoTime() + Long.MAX_VALUE / 2);
+	}
+
+	/**
+	 * Works like {@link #openConnection(URL)}, but also gives up once a deadline has
+	 * passed, whether it is still looking up the host, connecting or doing the TLS
+	 * handshake.
+	 *
+	 * @param url the url to connect
+	 * @param deadline the time in nanoseconds, see {@link System#nanoTime()}, by
+	 *        which the connection has to be open
+	 * @return a socket connection for that url
+	 * @throws UnknownHostException if the host is not known
+	 * @throws SocketTimeoutException if the deadline passes first
+	 * @throws IOException if an I/O error occurs when creating the socket
+	 */
+	public static Socket openConnection(URL url, long deadline) throws UnknownHostException, IOException {
 		String protocol = url.getProtocol();
 		String host = url.getHost();
 
@@ -81,8 +314,65 @@ public class HttpsFetcher {
 		int defaultPort = https ? 443 : 80;
 		int port = url.getPort() < 0 ? defaultPort : url.getPort();
 		
-		SocketFactory factory = https ? SSLSocketFactory.getDefault() : SocketFactory.getDefault();
-		return factory.createSocket(host, port);
+		InetAddress address = lookup(host, timeLeft(deadline, connectTimeout));
+		Socket socket = SocketFactory.getDefault().createSocket();
+		try {
+			socket.connect(new InetSocketAddress(address, port), timeLeft(deadline, connectTimeout));
+			if(https) {
+				socket.setSoTimeout(timeLeft(deadline, readTimeout));
+				SSLSocket secure = (SSLSocket) ((SSLSocketFactory) SSLSocketFactory.getDefault())
+						.createSocket(socket, host, port, true);
+				socket = secure;
+				secure.startHandshake();
+			}
+			socket.setSoTimeout(readTimeout);
+			return socket;
+		} catch (IOException e) {
+			socket.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @brief Looks up the address of a host, giving up after a timeout
+	 * @param host the host
+	 * @param timeout the time in milliseconds to wait for the lookup
+	 * @return the address of the host
+	 * @throws UnknownHostException if the host is not known
+	 * @throws SocketTimeoutException if the lookup takes longer than the timeout
+	 * @throws IOException if the lookup is interrupted
+	 */
+	private static InetAddress lookup(String host, int timeout) throws IOException {
+		Future<InetAddress> address = lookups.submit(() -> InetAddress.getByName(host));
+		try {
+			return address.get(timeout, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			address.cancel(true);
+			throw new SocketTimeoutException("Looking up " + host + " took longer than " + timeout + " ms");
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while looking up " + host, e);
+		}
+	}
+
+	/**
+	 * @brief Returns the time left until a deadline, but no more than a timeout
+	 * @param deadline the time in nanoseconds, see {@link System#nanoTime()}
+	 * @param timeout the most time in milliseconds to return
+	 * @return the time in milliseconds, at least one
+	 * @throws SocketTimeoutException if the deadline has passed
+	 */
+	private static int timeLeft(long deadline, int timeout) throws SocketTimeoutException {
+		long left = (deadline - System.nanoTime()) / 1_000_000;
+		if(left <= 0) {
+			throw new SocketTimeoutException("The request took longer than " + totalTimeout + " ms");
+		}
+		return (int) Math.min(left, timeout);
 	}
 
 	/**
@@ -93,14 +383,37 @@ public class HttpsFetcher {
 	 * @throws IOException if unable to write request to socket
 	 */
 	public static void printGetRequest(PrintWriter writer, URL url) throws IOException {
+		printGetRequest(writer, url, false, false);
+	}
+
+	/**
+	 * Writes a simple HTTP GET request to the provided socket writer, asking the
+	 * server to either keep the connection open or close it after the response,
+	 * and whether to compress the response.
+	 *
+	 * @param writer a writer created from a socket connection
+	 * @param url the url to fetch via the socket connection
+	 * @param keepAlive whether the connection should stay open
+	 * @param compressed whether gzip and deflate content encodings are accepted
+	 * @throws IOException if unable to write request to socket
+	 */
+	public static void printGetRequest(PrintWriter writer, URL url, boolean keepAlive, boolean compressed)
+			throws IOException {
 		String host = url.getHost();
 		String resource = url.getFile().isEmpty() ? "/" : url.getFile();
 
 		writer.printf("GET %s HTTP/1.1\r\n", resource);
 		writer.printf("Host: %s\r\n", host);
-		writer.printf("Connection: close\r\n");
+		writer.printf("User-Agent: %s\r\n", USER_AGENT);
+		writer.printf("Connection: %s\r\n", keepAlive ? "keep-alive" : "close");
+		if(compressed) {
+			writer.printf("Accept-Encoding: gzip, deflate\r\n");
+		}
 		writer.printf("\r\n");
 		writer.flush();
+		if(writer.checkError()) {
+			throw new IOException("Unable to send the request");
+		}
 	}
 
 	/**
@@ -142,4 +455,493 @@ public class HttpsFetcher {
 	public static List<String> getContent(BufferedReader response) throws IOException {
 		return response.lines().collect(Collectors.toList());
 	}
+
+	/**
+	 * Reads the header fields that follow the status line of a response, in the
+	 * same form as {@link #getHeaderFields(BufferedReader)}.
+	 *
+	 * @param status the status line
+	 * @param response the input of a socket connection, positioned after the status line
+	 * @return a map of header fields to a list of header values
+	 * @throws IOException if unable to read from socket
+	 */
+	private static Map<String, List<String>> readHeaderFields(String status, InputStream response) throws IOException {
+		Map<String, List<String>> results = new HashMap<>();
+		results.put(null, List.of(status));
+
+		String line;
+		int lines = 0;
+		while ((line = readLine(response)) != null && !line.isBlank()) {
+			if(++lines > MAX_HEADERS) {
+				throw new IOException("The response has more than " + MAX_HEADERS + " header lines");
+			}
+			String[] split = line.split(":\\s*", 2);
+			if(split.length == 2) {
+				results.putIfAbsent(split[0], new ArrayList<>());
+				results.get(split[0]).add(split[1].strip());
+			}
+		}
+
+		return results;
+	}
+
+	/**
+	 * Skips the body of an unwanted response if it is small and its end is known,
+	 * so that the connection can be reused
+	 *
+	 * @param response the input of a socket connection, positioned after the headers
+	 * @param headers the header fields of the response
+	 * @return true if the body was skipped, false if the connection has to be closed
+	 * @throws IOException if unable to read from socket
+	 */
+	private static boolean skipBody(InputStream response, Map<String, List<String>> headers) throws IOException {
+		int status = HtmlFetcher.getStatusCode(headers);
+		if((status >= 100 && status < 200) || status == 204 || status == 304) {
+			return true;
+		}
+		if(getHeader(headers, "Transfer-Encoding") != null) {
+			return false;
+		}
+		long length = getContentLength(headers);
+		if(length < 0 || length > MAX_DRAIN) {
+			return false;
+		}
+		readFully(response, (int) length);
+		return true;
+	}
+
+	/**
+	 * Parses the Content-Length header of a response
+	 *
+	 * @param headers the header fields of the response
+	 * @return the length of the body, or -1 if there is no Content-Length
+	 * @throws IOException if the Content-Length is not a number
+	 */
+	private static long getContentLength(Map<String, List<String>> headers) throws IOException {
+		String length = getHeader(headers, "Content-Length");
+		if(length == null) {
+			return -1;
+		}
+		try {
+			long value = Long.parseLong(length.strip());
+			if(value < 0) {
+				throw new NumberFormatException();
+			}
+			return value;
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid Content-Length: " + length);
+		}
+	}
+
+	/**
+	 * Creates the exception thrown for a body larger than the maximum body size
+	 *
+	 * @return the exception
+	 */
+	private static IOException tooLarge() {
+		return new IOException("The body is larger than " + maxBody + " bytes");
+	}
+
+	/**
+	 * Checks whether the connection may be reused after a response, which is the
+	 * default for HTTP/1.1 unless the server asked to close it or the body was only
+	 * ended by closing the connection
+	 *
+	 * @param headers the header fields of the response
+	 * @return true if the connection may be reused
+	 */
+	private static boolean isKeepAlive(Map<String, List<String>> headers) {
+		String connection = getHeader(headers, "Connection");
+		if(connection != null && connection.toLowerCase(Locale.ROOT).contains("close")) {
+			return false;
+		}
+		int status = HtmlFetcher.getStatusCode(headers);
+		boolean empty = (status >= 100 && status < 200) || status == 204 || status == 304;
+		if(!empty && getHeader(headers, "Transfer-Encoding") == null && getHeader(headers, "Content-Length") == null) {
+			return false;
+		}
+		return headers.get(null).get(0).startsWith("HTTP/1.1") ||
+				(connection != null && connection.toLowerCase(Locale.ROOT).contains("keep-alive"));
+	}
+
+	/**
+	 * Finds the first value of a header field, ignoring the case of its name
+	 *
+	 * @param headers the header fields
+	 * @param name the name of the header field
+	 * @return the first value, or {@code null} if there is none
+	 */
+	private static String getHeader(Map<String, List<String>> headers, String name) {
+		for(Map.Entry<String, List<String>> entry : headers.entrySet()) {
+			if(name.equalsIgnoreCase(entry.getKey()) && !entry.getValue().isEmpty()) {
+				return entry.getValue().get(0);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Reads exactly the given number of bytes
+	 *
+	 * @param response the input of a socket connection
+	 * @param length the number of bytes to read
+	 * @return the bytes read
+	 * @throws IOException if unable to read from socket or the input ends early
+	 */
+	private static byte[] readFully(InputStream response, int length) throws IOException {
+		byte[] bytes = response.readNBytes(length);
+		if(bytes.length < length) {
+			throw new EOFException("The body ended after " + bytes.length + " of " + length + " bytes");
+		}
+		return bytes;
+	}
+
+	/**
+	 * Reads a line of a response without reading past its end, so that the rest
+	 * of the response stays in the stream
+	 *
+	 * @param response the input of a socket connection
+	 * @return the line without its line break, or {@code null} if the input has ended
+	 * @throws IOException if unable to read from socket or the line is too long
+	 */
+	private static String readLine(InputStream response) throws IOException {
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		int b;
+		while((b = response.read()) >= 0 && b != '\n') {
+			if(line.size() >= MAX_LINE) {
+				throw new IOException("A line of the response is longer than " + MAX_LINE + " bytes");
+			}
+			line.write(b);
+		}
+		if(b < 0 && line.size() == 0) {
+			return null;
+		}
+		byte[] bytes = line.toByteArray();
+		int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+		return new String(bytes, 0, length, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Returns the number of body bytes received by all fetches, before decoding
+	 *
+	 * @return the number of bytes received
+	 */
+	public static long getReceivedBytes() {
+		return receivedBytes.sum();
+	}
+
+	/**
+	 * Returns the number of body bytes of all fetches after decoding
+	 *
+	 * @return the number of decoded bytes
+	 */
+	public static long getDecodedBytes() {
+		return decodedBytes.sum();
+	}
+
+	/**
+	 * Describes how many body bytes were received and decoded
+	 *
+	 * @return the transfer statistics
+	 */
+	public static String transferStatistics() {
+		long received = getReceivedBytes();
+		long decoded = getDecodedBytes();
+		return String.format("Bodies: %d bytes received, %d bytes decoded (%.1fx)%n", received, decoded,
+				received == 0 ? 1.0 : (double) decoded / received);
+	}
+
+	/**
+	 * Wraps a body in a stream that undoes its content encoding.
+	 *
+	 * @param body the body as received
+	 * @param headers the header fields of the response
+	 * @return a stream of the decoded body
+	 * @throws IOException if the content encoding is not supported or the body is
+	 *         not valid for its encoding
+	 */
+	private static InputStream decode(InputStream body, Map<String, List<String>> headers) throws IOException {
+		String encoding = getHeader(headers, "Content-Encoding");
+		if(encoding == null) {
+			return body;
+		}
+
+		// look at the start of the body to spot an empty one and the kind of deflate
+		PushbackInputStream in = new PushbackInputStream(body, 2);
+		byte[] start = in.readNBytes(2);
+		in.unread(start);
+		if(start.length == 0) {
+			return in;
+		}
+
+		switch(encoding.strip().toLowerCase(Locale.ROOT)) {
+			case "gzip":
+			case "x-gzip":
+				return new GZIPInputStream(in);
+			case "deflate":
+				// deflate should be wrapped in zlib headers, but some servers send it raw
+				boolean zlib = start.length >= 2 && (start[0] & 0x0F) == 8 &&
+						(((start[0] & 0xFF) << 8) | (start[1] & 0xFF)) % 31 == 0;
+				return new InflaterInputStream(in, new Inflater(!zlib));
+			case "identity":
+				return in;
+			default:
+				throw new IOException("Unsupported content encoding: " + encoding);
+		}
+	}
+
+	/**
+	 * Reads the body of a response off the connection, and ends where the body
+	 * ends. Chunked bodies are decoded, bodies with a Content-Length end after that
+	 * length, and other bodies end when the server closes the connection. Reading
+	 * fails as soon as the body turns out to be larger than the maximum body size.
+	 */
+	private static class BodyInputStream extends InputStream {
+
+		/** The input of the connection */
+		private final InputStream in;
+
+		/** Whether the body is sent in chunks */
+		private final boolean chunked;
+
+		/** The bytes left in the body or the current chunk, or -1 if the body ends when the connection does */
+		private long remaining;
+
+		/** Whether the end of the body has been read */
+		private boolean ended;
+
+		/** The number of body bytes read */
+		private long received;
+
+		/**
+		 * Constructor
+		 * @param in the input of a socket connection, positioned after the headers
+		 * @param headers the header fields of the response
+		 * @throws IOException if the body is too large or its length is invalid
+		 */
+		public BodyInputStream(InputStream in, Map<String, List<String>> headers) throws IOException {
+			this.in = in;
+			int status = HtmlFetcher.getStatusCode(headers);
+			String encoding = getHeader(headers, "Transfer-Encoding");
+			this.chunked = encoding != null && encoding.toLowerCase(Locale.ROOT).contains("chunked");
+			if((status >= 100 && status < 200) || status == 204 || status == 304) {
+				this.ended = true;
+			} else if(!chunked) {
+				this.remaining = getContentLength(headers);
+				if(remaining > maxBody) {
+					throw tooLarge();
+				}
+				this.ended = remaining == 0;
+			}
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			if(length == 0) {
+				return 0;
+			}
+			if(chunked && remaining == 0 && !ended) {
+				nextChunk();
+			}
+			if(ended) {
+				return -1;
+			}
+
+			int read = in.read(buffer, offset, remaining < 0 ? length : (int) Math.min(length, remaining));
+			if(read < 0) {
+				if(remaining < 0) {
+					ended = true;
+					return -1;
+				}
+				throw new EOFException("The body ended early");
+			}
+			received += read;
+			if(received > maxBody) {
+				throw tooLarge();
+			}
+			if(remaining > 0) {
+				remaining -= read;
+				if(remaining == 0) {
+					if(chunked) {
+						// the line break after the chunk
+						readLine(in);
+					} else {
+						ended = true;
+					}
+				}
+			}
+			return read;
+		}
+
+		/**
+		 * @brief Reads the size of the next chunk, and the trailer after the last one
+		 * @throws IOException if unable to read from socket or the size is invalid
+		 */
+		private void nextChunk() throws IOException {
+			String line = readLine(in);
+			if(line == null) {
+				throw new EOFException("The chunked body ended early");
+			}
+			int extension = line.indexOf(';');
+			String size = (extension >= 0 ? line.substring(0, extension) : line).strip();
+			try {
+				remaining = Integer.parseInt(size, 16);
+			} catch (NumberFormatException e) {
+				throw new IOException("Invalid chunk size: " + size);
+			}
+			if(remaining < 0) {
+				throw new IOException("Invalid chunk size: " + size);
+			}
+			if(remaining > maxBody - received) {
+				throw tooLarge();
+			}
+			if(remaining == 0) {
+				// skip the trailer
+				int lines = 0;
+				while((line = readLine(in)) != null && !line.isEmpty()) {
+					if(++lines > MAX_HEADERS) {
+						throw new IOException("The response has more than " + MAX_HEADERS + " trailer lines");
+					}
+				}
+				ended = true;
+			}
+		}
+
+		/**
+		 * @brief Reads the rest of the body if it is small, so that the connection can
+		 * be reused after a consumer stopped reading early
+		 * @return true if the whole body has been read
+		 * @throws IOException if unable to read from socket
+		 */
+		public boolean finish() throws IOException {
+			byte[] buffer = new byte[1024];
+			long skipped = 0;
+			while(!ended && skipped <= MAX_DRAIN) {
+				int read = read(buffer, 0, buffer.length);
+				if(read > 0) {
+					skipped += read;
+				}
+			}
+			return ended;
+		}
+	}
+
+	/**
+	 * Reads from a connection until a deadline. The read timeout of the socket is
+	 * cut down as the deadline comes closer, so a server that keeps sending a
+	 * little data within every read timeout still cannot hold up a fetch past it.
+	 */
+	private static class DeadlineInputStream extends FilterInputStream {
+
+		/** The socket of the connection */
+		private final Socket socket;
+
+		/** The time in nanoseconds after which reads fail */
+		private final long deadline;
+
+		/** The read timeout of the socket in milliseconds */
+		private int timeout;
+
+		/**
+		 * Constructor
+		 * @param connection the connection to read from
+		 * @param deadline the time in nanoseconds, see {@link System#nanoTime()},
+		 *        after which reads fail
+		 * @throws IOException if the read timeout of the socket cannot be read
+		 */
+		public DeadlineInputStream(HttpConnectionPool.Connection connection, long deadline) throws IOException {
+			super(connection.getInputStream());
+			this.socket = connection.getSocket();
+			this.deadline = deadline;
+			this.timeout = socket.getSoTimeout();
+		}
+
+		@Override
+		public int read() throws IOException {
+			check();
+			return super.read();
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			check();
+			return super.read(buffer, offset, length);
+		}
+
+		/**
+		 * @brief Fails if the deadline has passed, and otherwise keeps the read timeout
+		 * of the socket within the time left
+		 * @throws SocketTimeoutException if the deadline has passed
+		 * @throws IOException if the read timeout of the socket cannot be set
+		 */
+		private void check() throws IOException {
+			long left = (deadline - System.nanoTime()) / 1_000_000;
+			if(left <= 0) {
+				throw new SocketTimeoutException("The request took longer than " + totalTimeout + " ms");
+			}
+			if(left < timeout) {
+				timeout = (int) left;
+				socket.setSoTimeout(timeout);
+			}
+		}
+	}
+
+	/**
+	 * Counts the bytes read through it and fails once there are more than a limit,
+	 * so that a small compressed body cannot decode to an endless one.
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+
+		/** The most bytes that may be read */
+		private final long limit;
+
+		/** The number of bytes read so far */
+		private long count;
+
+		/**
+		 * Constructor
+		 * @param in the stream to count
+		 * @param limit the most bytes that may be read
+		 */
+		public CountingInputStream(InputStream in, long limit) {
+			super(in);
+			this.limit = limit;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if(b >= 0) {
+				count(1);
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			int read = super.read(buffer, offset, length);
+			if(read > 0) {
+				count(read);
+			}
+			return read;
+		}
+
+		/**
+		 * @brief Adds to the count of bytes read
+		 * @param read the number of bytes just read
+		 * @throws IOException if more bytes than the limit have been read
+		 */
+		private void count(int read) throws IOException {
+			count += read;
+			if(count > limit) {
+				throw tooLarge();
+			}
+		}
+	}
 }
@@ -8,7 +8,9 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.TreeSet;
 
@@ -27,21 +29,31 @@ public class InvertedIndex {
 	 * 		location: [positions]
 	 * 	}
 	 */
-	private final TreeMap<String, TreeMap<String, TreeSet<Integer>>> index;
+	private final SortedMap<String, SortedMap<String, TreeSet<Integer>>> index;
 
 	/**
 	 * A Tree Map structure that stores all paths and their respective total word counts.
 	 * Structure:
 	 * { Path : totalWordCount }
 	 */
-	private final TreeMap<String, Integer> totalWordCounts;
+	private final SortedMap<String, Integer> totalWordCounts;
 	
 	/**
 	 * Constructor
 	 */
 	public InvertedIndex() {
-		index = new TreeMap<>();
-		totalWordCounts = new TreeMap<>();
+		this(new TreeMap<>(), new TreeMap<>());
+	}
+	
+	/**
+	 * Constructor for an index over existing structures
+	 * @param index the items with their locations and positions
+	 * @param totalWordCounts the total word counts of the locations
+	 */
+	private InvertedIndex(SortedMap<String, SortedMap<String, TreeSet<Integer>>> index,
+			SortedMap<String, Integer> totalWordCounts) {
+		this.index = index;
+		this.totalWordCounts = totalWordCounts;
 	}
 
 	/**
@@ -89,6 +101,49 @@ public class InvertedIndex {
 		}
 	}
 
+	/**
+	 * @brief Creates a new index that contains everything in this index and in the
+	 * other index without modifying this index. The new index is built from
+	 * {@link PersistentSortedMap}s, so it shares every term, location and word count
+	 * that did not change with this index, and only copies the paths of the tree to
+	 * what the other index adds. The cost depends on the size of the other index,
+	 * not on the size of this one. The structures of the other index are moved into
+	 * the new one, so neither index may be modified afterwards.
+	 * @param other an InvertedIndex to merge, which is consumed by this call
+	 * @return a new InvertedIndex containing both indexes
+	 */
+	public InvertedIndex mergedWith(InvertedIndex other) {
+		PersistentSortedMap<String, SortedMap<String, TreeSet<Integer>>> items = PersistentSortedMap.from(this.index);
+		PersistentSortedMap<String, Integer> counts = PersistentSortedMap.from(this.totalWordCounts);
+		
+		for(Map.Entry<String, SortedMap<String, TreeSet<Integer>>> entry : other.index.entrySet()) {
+			SortedMap<String, TreeSet<Integer>> shared = items.get(entry.getKey());
+			if(shared == null) {
+				items = items.plus(entry.getKey(), PersistentSortedMap.from(entry.getValue()));
+				continue;
+			}
+			PersistentSortedMap<String, TreeSet<Integer>> paths = PersistentSortedMap.from(shared);
+			for(Map.Entry<String, TreeSet<Integer>> path : entry.getValue().entrySet()) {
+				TreeSet<Integer> positions = paths.get(path.getKey());
+				if(positions == null) {
+					positions = path.getValue();
+				} else {
+					positions = new TreeSet<>(positions);
+					positions.addAll(path.getValue());
+				}
+				paths = paths.plus(path.getKey(), positions);
+			}
+			items = items.plus(entry.getKey(), paths);
+		}
+		
+		for(Map.Entry<String, Integer> entry : other.totalWordCounts.entrySet()) {
+			Integer count = counts.get(entry.getKey());
+			counts = counts.plus(entry.getKey(), count == null ? entry.getValue() : count + entry.getValue());
+		}
+		
+		return new InvertedIndex(items, counts);
+	}
+
 	/**
 	 * @brief Gets total word count of a path
 	 * @param path a needed path
@@ -112,8 +167,9 @@ public class InvertedIndex {
 	 * @return all paths where item appears in TreeSet data structure
 	 */
 	public Collection<String> getItemPaths(String item) {
-		if(hasItem(item)) {
-			return Collections.unmodifiableSet(index.get(item).keySet());
+		SortedMap<String, TreeSet<Integer>> paths = index.get(item);
+		if(paths != null) {
+			return Collections.unmodifiableSet(paths.keySet());
 		}
 		return Collections.emptySet();
 	}
@@ -125,8 +181,9 @@ public class InvertedIndex {
 	 * @return the tree set of all positions
 	 */
 	public Collection<Integer> getItemPositions(String item, String path) {
-		if(hasPath(item, path)) {
-			return Collections.unmodifiableSet(index.get(item).get(path));
+		TreeSet<Integer> positions = positions(item, path);
+		if(positions != null) {
+			return Collections.unmodifiableSet(positions);
 		}
 		return Collections.emptySet();
 	}
@@ -138,7 +195,8 @@ public class InvertedIndex {
 	 * @return the number of item appearances in the path
 	 */
 	public Integer getItemCountsByPath(String item, String path) {
-		return hasPath(item, path) ? index.get(item).get(path).size() : 0; 
+		TreeSet<Integer> positions = positions(item, path);
+		return positions != null ? positions.size() : 0;
 	}
 	
 	/**
@@ -157,7 +215,7 @@ public class InvertedIndex {
 	 * @return true if item is present false otherwise
 	 */
 	public boolean hasPath(String item, String path) { 
-		return hasItem(item) && index.get(item).containsKey(path);
+		return positions(item, path) != null;
 	}
 	
 	/**
@@ -168,11 +226,21 @@ public class InvertedIndex {
 	 * @return true if position is present, false if absent
 	 */
 	public boolean hasPosition(String item, String path, int pos) {
-		if(hasPath(item, path)) {
-			return index.get(item).get(path).contains(pos);
-		}
-		
-		return false;
+		TreeSet<Integer> positions = positions(item, path);
+		return positions != null && positions.contains(pos);
+	}
+	
+	/**
+	 * @brief Looks up the positions of an item in a path without going through any
+	 * overridable methods, so subclasses that guard the public methods with a lock
+	 * never re-enter it.
+	 * @param item an item to look up
+	 * @param path a path to look up
+	 * @return the positions of the item in the path, or null if there are none
+	 */
+	private TreeSet<Integer> positions(String item, String path) {
+		SortedMap<String, TreeSet<Integer>> paths = index.get(item);
+		return paths != null ? paths.get(path) : null;
 	}
 	
 	/**
@@ -233,7 +301,7 @@ public class InvertedIndex {
 	 * @param lookup a map that contains found results
 	 */
 	private void addResults(String query, List<QueryResult> results, HashMap<String, QueryResult> lookup) {
-		for(String path : this.getItemPaths(query)) {
+		for(String path : index.get(query).keySet()) {
 			if(!lookup.containsKey(path)) {
 				QueryResult queryResult = new QueryResult(path);
 				results.add(queryResult);
@@ -253,7 +321,7 @@ public class InvertedIndex {
 		HashMap<String, QueryResult> lookup = new HashMap<>();
 		
 		for(String query : queries) {
-			if(this.hasItem(query)) {
+			if(index.containsKey(query)) {
 				addResults(query, results, lookup);
 			}
 		}
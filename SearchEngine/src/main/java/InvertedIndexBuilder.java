@@ -1,20 +1,20 @@
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
+import java.io.InputStream;
 import java.nio.file.Path;
 import java.util.List;
 
-import opennlp.tools.stemmer.Stemmer;
-import opennlp.tools.stemmer.snowball.SnowballStemmer;
-
 /**
  * Builds an Inverted Index structure and outputs it in JSON format is a path was specified.
- * Takes Inverted Index as an argument and populates it.
+ * Takes Inverted Index as an argument and populates it. If reading archives is turned
+ * on, text files inside zip, tar and gzip archives are indexed without extracting them,
+ * under locations of the form {@code archive!/entry}.
  * 
  * @author salimamukhit
  */
 public class InvertedIndexBuilder {
+	/** A reusable file reader for each thread */
+	private static final ThreadLocal<ChunkedTextReader> READERS = ThreadLocal.withInitial(ChunkedTextReader::new);
+
 	/** Inverted Index structure */
 	private final InvertedIndex index;
 
@@ -27,29 +27,46 @@ public class InvertedIndexBuilder {
 	}
 	/**
 	 * @brief Static method that parses a given file and then adds it's content to the index.
+	 * The file is streamed in chunks, so long lines are never held in memory as a whole.
 	 *
 	 * @param file a file to parse
 	 * @param index an inverted index to populate
 	 * @throws IOException if an I/O error occurs
 	 */
 	public static void parseFile(Path file, InvertedIndex index) throws IOException {
-		try (
-				BufferedReader br = Files.newBufferedReader(file, StandardCharsets.UTF_8)
-				)
-		{
-			String line;
-			int pos = 0;
-			String location = file.toString();
-			Stemmer stemmer = new SnowballStemmer(TextFileStemmer.DEFAULT);
-			while((line = br.readLine()) != null) {
-				String[] items = TextParser.parse(line);
-				int len = items.length;
-				for(int i = 0; i < len; i++) {
-					index.addItem(stemmer.stem(items[i]).toString(), location, pos + i + 1);
-				}
-				pos += len;
-			}
+		if(ArchiveReader.isArchive(file)) {
+			ArchiveReader.read(file, (location, in) -> parseEntry(location, in, index));
+			return;
 		}
+		int[] pos = {0};
+		String location = file.toString();
+		StemmingService stemmer = StemmingService.getDefault();
+		reader().tokenize(file, new TextTokenizer(), (buffer, length) ->
+				index.addItem(stemmer.stem(buffer, length), location, ++pos[0]));
+	}
+
+	/**
+	 * @brief Parses a text file read from an archive and adds its content to the index
+	 * under the location of the entry.
+	 *
+	 * @param location the location of the entry, in the form {@code archive!/entry}
+	 * @param in the contents of the entry
+	 * @param index an inverted index to populate
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static void parseEntry(String location, InputStream in, InvertedIndex index) throws IOException {
+		int[] pos = {0};
+		StemmingService stemmer = StemmingService.getDefault();
+		reader().tokenize(in, new TextTokenizer(), (buffer, length) ->
+				index.addItem(stemmer.stem(buffer, length), location, ++pos[0]));
+	}
+
+	/**
+	 * @brief Returns the file reader of the calling thread
+	 * @return a reusable file reader
+	 */
+	protected static ChunkedTextReader reader() {
+		return READERS.get();
 	}
 	
 	/**
@@ -3,6 +3,7 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -15,6 +16,9 @@ import java.util.regex.Pattern;
  */
 public class LinkParser {
 
+	/** The href attribute of an anchor tag, with the link in the first group */
+	private static final Pattern HREF = Pattern.compile("(?si)<a[^>]*?href\\s*=\\s*\"(.*?)\"");
+
 	/**
 	 * Removes the fragment component of a URL (if present), and properly encodes
 	 * the query string (if necessary).
@@ -48,21 +52,31 @@ public class LinkParser {
 	 */
 	public static ArrayList<URL> getValidLinks(URL base, String html) {
 		ArrayList<URL> urls = new ArrayList<>();
-		String regex = "(?si)<a[^>]*?href\\s*=\\s*\"(.*?)\"";
-		Pattern pattern = Pattern.compile(regex);
-		Matcher matcher = pattern.matcher(html);
+		Matcher matcher = HREF.matcher(html);
 
 		while (matcher.find()) {
-			String matched = matcher.group(1);
-			try {
-				URL url = new URL(base, matched);
-				urls.add(normalize(url));
-			} catch(MalformedURLException e) {
-				System.out.println("Malformed URL exception");
-			} catch(URISyntaxException o) {
-				System.out.println("URI syntax exception");
-			}
+			addValidLink(base, matcher.group(1), urls);
 		}
 		return urls;
 	}
+
+	/**
+	 * Converts the value of an href attribute to an absolute link using the base
+	 * URL, normalizes it and adds it to a list. A link that cannot be parsed is
+	 * reported and left out.
+	 *
+	 * @param base the base url used to convert relative links to absolute
+	 * @param href the value of the href attribute
+	 * @param urls the list to add the link to
+	 */
+	public static void addValidLink(URL base, String href, List<URL> urls) {
+		try {
+			URL url = new URL(base, href);
+			urls.add(normalize(url));
+		} catch(MalformedURLException e) {
+			System.out.println("Malformed URL exception");
+		} catch(URISyntaxException o) {
+			System.out.println("URI syntax exception");
+		}
+	}
 }
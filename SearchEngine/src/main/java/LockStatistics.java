@@ -0,0 +1,319 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ *
+ * @author salimamukhit
+ *
+ * Records how long threads wait for and hold the read and write locks of a
+ * {@link SimpleReadWriteLock}, how often they had to wait at all, and which
+ * threads spent the most time waiting. All times are in nanoseconds.
+ */
+public class LockStatistics {
+
+	/** Time spent acquiring the read lock */
+	private final Histogram readWait;
+
+	/** Time the read lock was held */
+	private final Histogram readHold;
+
+	/** Time spent acquiring the write lock */
+	private final Histogram writeWait;
+
+	/** Time the write lock was held */
+	private final Histogram writeHold;
+
+	/** Number of read acquisitions that had to wait */
+	private final LongAdder readContention;
+
+	/** Number of write acquisitions that had to wait */
+	private final LongAdder writeContention;
+
+	/** Total contended wait time per thread name */
+	private final ConcurrentHashMap<String, LongAdder> waiters;
+
+	/** Times at which the current thread acquired the read locks it holds, innermost last */
+	private final ThreadLocal<ReadStarts> readStarts;
+
+	/** Time at which the current writer acquired the write lock */
+	private volatile long writeStart;
+
+	/**
+	 * Constructor
+	 */
+	public LockStatistics() {
+		readWait = new Histogram();
+		readHold = new Histogram();
+		writeWait = new Histogram();
+		writeHold = new Histogram();
+		readContention = new LongAdder();
+		writeContention = new LongAdder();
+		waiters = new ConcurrentHashMap<>();
+		readStarts = ThreadLocal.withInitial(ReadStarts::new);
+	}
+
+	/**
+	 * @brief Records that the current thread acquired the read lock
+	 * @param start the time the thread asked for the lock
+	 * @param contended whether the thread had to wait
+	 */
+	public void readAcquired(long start, boolean contended) {
+		long now = System.nanoTime();
+		readWait.record(now - start);
+		if(contended) {
+			readContention.increment();
+			addWaiter(now - start);
+		}
+		readStarts.get().push(now);
+	}
+
+	/**
+	 * @brief Records that the current thread released the read lock. Nested reads
+	 * release the innermost read first, so that is the one that ends.
+	 */
+	public void readReleased() {
+		ReadStarts starts = readStarts.get();
+		if(starts.depth > 0) {
+			readHold.record(System.nanoTime() - starts.pop());
+		}
+	}
+
+	/**
+	 * @brief Records that the current thread acquired the write lock
+	 * @param start the time the thread asked for the lock
+	 * @param contended whether the thread had to wait
+	 */
+	public void writeAcquired(long start, boolean contended) {
+		long now = System.nanoTime();
+		writeWait.record(now - start);
+		if(contended) {
+			writeContention.increment();
+			addWaiter(now - start);
+		}
+		writeStart = now;
+	}
+
+	/**
+	 * @brief Records that the current thread released the write lock
+	 */
+	public void writeReleased() {
+		writeHold.record(System.nanoTime() - writeStart);
+	}
+
+	/**
+	 * @brief Adds contended wait time to the current thread's total
+	 * @param nanos the time waited
+	 */
+	private void addWaiter(long nanos) {
+		waiters.computeIfAbsent(Thread.currentThread().getName(), name -> new LongAdder()).add(nanos);
+	}
+
+	/**
+	 * @brief Getter for the read wait histogram
+	 * @return time spent acquiring the read lock
+	 */
+	public Histogram getReadWait() {
+		return readWait;
+	}
+
+	/**
+	 * @brief Getter for the read hold histogram
+	 * @return time the read lock was held
+	 */
+	public Histogram getReadHold() {
+		return readHold;
+	}
+
+	/**
+	 * @brief Getter for the write wait histogram
+	 * @return time spent acquiring the write lock
+	 */
+	public Histogram getWriteWait() {
+		return writeWait;
+	}
+
+	/**
+	 * @brief Getter for the write hold histogram
+	 * @return time the write lock was held
+	 */
+	public Histogram getWriteHold() {
+		return writeHold;
+	}
+
+	/**
+	 * @brief Getter for the number of read acquisitions that had to wait
+	 * @return the read contention count
+	 */
+	public long getReadContention() {
+		return readContention.sum();
+	}
+
+	/**
+	 * @brief Getter for the number of write acquisitions that had to wait
+	 * @return the write contention count
+	 */
+	public long getWriteContention() {
+		return writeContention.sum();
+	}
+
+	/**
+	 * @brief Returns the names of the threads that spent the most time waiting for
+	 * the lock, together with their total wait time, longest first
+	 * @param limit the maximum number of threads to return
+	 * @return a list of thread names and wait times
+	 */
+	public List<Map.Entry<String, Long>> topWaiters(int limit) {
+		List<Map.Entry<String, Long>> result = new ArrayList<>();
+		for(Map.Entry<String, LongAdder> entry : waiters.entrySet()) {
+			result.add(Map.entry(entry.getKey(), entry.getValue().sum()));
+		}
+		result.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+		return result.size() > limit ? result.subList(0, limit) : result;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append(String.format("read wait:   %s%n", readWait));
+		builder.append(String.format("read hold:   %s%n", readHold));
+		builder.append(String.format("write wait:  %s%n", writeWait));
+		builder.append(String.format("write hold:  %s%n", writeHold));
+		builder.append(String.format("contended:   %d reads, %d writes%n", getReadContention(), getWriteContention()));
+		builder.append(String.format("top waiters:%n"));
+		for(Map.Entry<String, Long> waiter : topWaiters(10)) {
+			builder.append(String.format("  %s: %.3f ms%n", waiter.getKey(), waiter.getValue() / 1e6));
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * The times at which a thread acquired the read locks it holds, as a stack of
+	 * primitive times so that recording a read does not allocate
+	 */
+	private static class ReadStarts {
+
+		/** The times, innermost read last */
+		private long[] times = new long[4];
+
+		/** The number of reads held */
+		private int depth;
+
+		/**
+		 * @brief Records the start of a read inside the reads held
+		 * @param time the time the read lock was acquired
+		 */
+		private void push(long time) {
+			if(depth == times.length) {
+				times = Arrays.copyOf(times, depth * 2);
+			}
+			times[depth++] = time;
+		}
+
+		/**
+		 * @brief Removes the innermost read
+		 * @return the time its read lock was acquired
+		 */
+		private long pop() {
+			return times[--depth];
+		}
+	}
+
+	/**
+	 *
+	 * @author salimamukhit
+	 *
+	 * A lock-free histogram of durations with power-of-two buckets. Bucket i
+	 * counts durations below 2^i nanoseconds that did not fit in bucket i - 1.
+	 */
+	public static class Histogram {
+
+		/** Counts per bucket */
+		private final AtomicLongArray buckets;
+
+		/** Sum of all recorded durations */
+		private final LongAdder total;
+
+		/** The longest recorded duration */
+		private final AtomicLong max;
+
+		/**
+		 * Constructor
+		 */
+		public Histogram() {
+			buckets = new AtomicLongArray(Long.SIZE);
+			total = new LongAdder();
+			max = new AtomicLong();
+		}
+
+		/**
+		 * @brief Records a duration
+		 * @param nanos the duration in nanoseconds
+		 */
+		public void record(long nanos) {
+			nanos = Math.max(nanos, 0);
+			buckets.incrementAndGet(Math.min(Long.SIZE - Long.numberOfLeadingZeros(nanos), Long.SIZE - 1));
+			total.add(nanos);
+			max.accumulateAndGet(nanos, Math::max);
+		}
+
+		/**
+		 * @brief Getter for the number of recorded durations
+		 * @return the number of recorded durations
+		 */
+		public long getCount() {
+			long count = 0;
+			for(int i = 0; i < buckets.length(); i++) {
+				count += buckets.get(i);
+			}
+			return count;
+		}
+
+		/**
+		 * @brief Getter for the sum of all recorded durations
+		 * @return the total duration in nanoseconds
+		 */
+		public long getTotal() {
+			return total.sum();
+		}
+
+		/**
+		 * @brief Getter for the longest recorded duration
+		 * @return the longest duration in nanoseconds
+		 */
+		public long getMax() {
+			return max.get();
+		}
+
+		/**
+		 * @brief Returns an upper bound of the given percentile
+		 * @param percentile a percentile between 0 and 100
+		 * @return the upper bound of the bucket the percentile falls in, in nanoseconds
+		 */
+		public long percentile(double percentile) {
+			long count = getCount();
+			long rank = (long) Math.ceil(count * percentile / 100);
+			long seen = 0;
+			for(int i = 0; i < buckets.length(); i++) {
+				seen += buckets.get(i);
+				if(seen >= rank && seen > 0) {
+					return Math.min(i < Long.SIZE - 1 ? 1L << i : Long.MAX_VALUE, getMax());
+				}
+			}
+			return 0;
+		}
+
+		@Override
+		public String toString() {
+			long count = getCount();
+			return String.format("count=%d mean=%.1fus p50<=%.1fus p99<=%.1fus max=%.1fus",
+					count, count == 0 ? 0.0 : getTotal() / 1e3 / count,
+					percentile(50) / 1e3, percentile(99) / 1e3, getMax() / 1e3);
+		}
+	}
+}
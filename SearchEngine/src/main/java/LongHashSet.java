@@ -0,0 +1,172 @@
+import java.util.function.LongConsumer;
+
+/**
+ * A set of 64-bit values kept in a single array of primitive longs with open
+ * addressing and linear probing, so a value costs one slot of eight bytes
+ * instead of a boxed {@link Long} and a node of a hash table. The table doubles
+ * once it is three quarters full, so it holds between 11 and 22 bytes per value
+ * once it has grown, and briefly half as much again while it doubles.
+ *
+ * This class is not thread-safe.
+ *
+ * @author salimamukhit
+ */
+public class LongHashSet {
+
+	/** The number of slots a new set starts with */
+	private static final int INITIAL_CAPACITY = 16;
+
+	/** The value that marks an empty slot */
+	private static final long EMPTY = 0L;
+
+	/** The slots of the table, {@link #EMPTY} where there is no value */
+	private long[] table;
+
+	/** The number of values in the table, not counting {@link #EMPTY} */
+	private int count;
+
+	/** Whether the value that marks empty slots has been added */
+	private boolean hasEmpty;
+
+	/**
+	 * Constructor
+	 */
+	public LongHashSet() {
+		this.table = new long[INITIAL_CAPACITY];
+	}
+
+	/**
+	 * @brief Adds a value to the set
+	 * @param value the value to add
+	 * @return true if the value was not in the set before
+	 */
+	public boolean add(long value) {
+		if(value == EMPTY) {
+			boolean added = !hasEmpty;
+			hasEmpty = true;
+			return added;
+		}
+		int mask = table.length - 1;
+		int slot = slot(value, mask);
+		while(table[slot] != EMPTY) {
+			if(table[slot] == value) {
+				return false;
+			}
+			slot = (slot + 1) & mask;
+		}
+		table[slot] = value;
+		if(++count > table.length / 4 * 3) {
+			grow();
+		}
+		return true;
+	}
+
+	/**
+	 * @brief Checks whether a value is in the set
+	 * @param value the value to check
+	 * @return true if the value has been added and not removed since
+	 */
+	public boolean contains(long value) {
+		if(value == EMPTY) {
+			return hasEmpty;
+		}
+		int mask = table.length - 1;
+		int slot = slot(value, mask);
+		while(table[slot] != EMPTY) {
+			if(table[slot] == value) {
+				return true;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return false;
+	}
+
+	/**
+	 * @brief Removes a value from the set. The values after it in its run of slots
+	 * are shifted back, so no slot is left marked as deleted.
+	 * @param value the value to remove
+	 * @return true if the value was in the set
+	 */
+	public boolean remove(long value) {
+		if(value == EMPTY) {
+			boolean removed = hasEmpty;
+			hasEmpty = false;
+			return removed;
+		}
+		int mask = table.length - 1;
+		int slot = slot(value, mask);
+		while(table[slot] != value) {
+			if(table[slot] == EMPTY) {
+				return false;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		int hole = slot;
+		int next = (hole + 1) & mask;
+		while(table[next] != EMPTY) {
+			// a value may fill the hole unless its home slot lies after the hole
+			int home = slot(table[next], mask);
+			if(((next - home) & mask) >= ((next - hole) & mask)) {
+				table[hole] = table[next];
+				hole = next;
+			}
+			next = (next + 1) & mask;
+		}
+		table[hole] = EMPTY;
+		count--;
+		return true;
+	}
+
+	/**
+	 * @brief Returns the number of values in the set
+	 * @return the size of the set
+	 */
+	public int size() {
+		return hasEmpty ? count + 1 : count;
+	}
+
+	/**
+	 * @brief Calls a consumer with every value in the set, in no particular order
+	 * @param consumer the consumer of the values
+	 */
+	public void forEach(LongConsumer consumer) {
+		if(hasEmpty) {
+			consumer.accept(EMPTY);
+		}
+		for(long value : table) {
+			if(value != EMPTY) {
+				consumer.accept(value);
+			}
+		}
+	}
+
+	/**
+	 * @brief Doubles the table and puts every value back in its new slot
+	 */
+	private void grow() {
+		long[] old = table;
+		table = new long[old.length * 2];
+		int mask = table.length - 1;
+		for(long value : old) {
+			if(value != EMPTY) {
+				int slot = slot(value, mask);
+				while(table[slot] != EMPTY) {
+					slot = (slot + 1) & mask;
+				}
+				table[slot] = value;
+			}
+		}
+	}
+
+	/**
+	 * @brief Returns the home slot of a value, taken from the high bits of the value
+	 * multiplied by the golden ratio so that similar values spread out
+	 * @param value the value
+	 * @param mask the number of slots minus one
+	 * @return the slot the search for the value starts at
+	 */
+	private static int slot(long value, int mask) {
+		return (int) ((value * 0x9e3779b97f4a7c15L) >>> 32) & mask;
+	}
+}
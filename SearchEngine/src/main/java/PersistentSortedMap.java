@@ -0,0 +1,468 @@
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+
+/**
+ * An immutable sorted map that is changed by creating a new map with
+ * {@link #plus(Comparable, Object)}. The map is a balanced (AVL) tree, and a new
+ * map only copies the nodes on the path to the key it adds, sharing every other
+ * node with the map it was created from. Adding a key therefore takes
+ * logarithmic time and space however large the map is, and old maps stay
+ * valid and unchanged.
+ *
+ * The map supports the read methods of {@link SortedMap}. The maps returned by
+ * {@link #subMap(Comparable, Comparable)}, {@link #headMap(Comparable)} and
+ * {@link #tailMap(Comparable)} are views of the same tree. Null keys and values
+ * are not allowed.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ *
+ * @author salimamukhit
+ */
+public class PersistentSortedMap<K extends Comparable<? super K>, V> extends AbstractMap<K, V>
+		implements SortedMap<K, V> {
+
+	/** The map without any keys */
+	@SuppressWarnings("rawtypes")
+	private static final PersistentSortedMap EMPTY = new PersistentSortedMap<>(null, null, null);
+
+	/** The root of the tree, or null if the tree is empty */
+	private final Node<K, V> root;
+
+	/** The smallest key of the view, inclusive, or null if there is no lower bound */
+	private final K low;
+
+	/** The key the view ends before, or null if there is no upper bound */
+	private final K high;
+
+	/**
+	 * Constructor
+	 * @param root the root of the tree
+	 * @param low the smallest key of the view, or null
+	 * @param high the key the view ends before, or null
+	 */
+	private PersistentSortedMap(Node<K, V> root, K low, K high) {
+		this.root = root;
+		this.low = low;
+		this.high = high;
+	}
+
+	/**
+	 * @brief Returns the empty map
+	 * @param <K> the type of the keys
+	 * @param <V> the type of the values
+	 * @return the map without any keys
+	 */
+	@SuppressWarnings("unchecked")
+	public static <K extends Comparable<? super K>, V> PersistentSortedMap<K, V> empty() {
+		return EMPTY;
+	}
+
+	/**
+	 * @brief Returns a persistent map with the entries of a sorted map. A persistent
+	 * map that is not a view is returned as it is, and any other map is copied in
+	 * linear time.
+	 * @param <K> the type of the keys
+	 * @param <V> the type of the values
+	 * @param map a map sorted by the natural order of its keys
+	 * @return a persistent map with the same entries
+	 */
+	@SuppressWarnings("unchecked")
+	public static <K extends Comparable<? super K>, V> PersistentSortedMap<K, V> from(SortedMap<K, ? extends V> map) {
+		if(map instanceof PersistentSortedMap) {
+			PersistentSortedMap<K, V> persistent = (PersistentSortedMap<K, V>) map;
+			if(persistent.low == null && persistent.high == null) {
+				return persistent;
+			}
+		}
+		Object[] keys = new Object[map.size()];
+		Object[] values = new Object[map.size()];
+		int i = 0;
+		for(Map.Entry<K, ? extends V> entry : map.entrySet()) {
+			keys[i] = entry.getKey();
+			values[i] = entry.getValue();
+			i++;
+		}
+		Node<K, V> root = build(keys, values, 0, keys.length);
+		return new PersistentSortedMap<>(root, null, null);
+	}
+
+	/**
+	 * @brief Returns a map with a key added or its value replaced, sharing all nodes
+	 * off the path to the key with this map
+	 * @param key the key
+	 * @param value the value
+	 * @return the new map
+	 */
+	public PersistentSortedMap<K, V> plus(K key, V value) {
+		if(key == null || value == null) {
+			throw new NullPointerException("The map has no null keys or values!");
+		}
+		if(low != null || high != null) {
+			throw new UnsupportedOperationException("A view of a map cannot be added to!");
+		}
+		return new PersistentSortedMap<>(insert(root, key, value), null, null);
+	}
+
+	@Override
+	public V get(Object key) {
+		Node<K, V> node = find(key);
+		return node != null ? node.value : null;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return find(key) != null;
+	}
+
+	@Override
+	public int size() {
+		if(low == null && high == null) {
+			return root != null ? root.size : 0;
+		}
+		int size = 0;
+		for(Iterator<Map.Entry<K, V>> i = new EntryIterator(); i.hasNext(); i.next()) {
+			size++;
+		}
+		return size;
+	}
+
+	@Override
+	public Set<Map.Entry<K, V>> entrySet() {
+		return new AbstractSet<>() {
+			@Override
+			public Iterator<Map.Entry<K, V>> iterator() {
+				return new EntryIterator();
+			}
+
+			@Override
+			public int size() {
+				return PersistentSortedMap.this.size();
+			}
+		};
+	}
+
+	@Override
+	public Comparator<? super K> comparator() {
+		return null;
+	}
+
+	@Override
+	public SortedMap<K, V> subMap(K fromKey, K toKey) {
+		if(fromKey.compareTo(toKey) > 0) {
+			throw new IllegalArgumentException("The first key is greater than the last key!");
+		}
+		return view(fromKey, toKey);
+	}
+
+	@Override
+	public SortedMap<K, V> headMap(K toKey) {
+		return view(null, toKey);
+	}
+
+	@Override
+	public SortedMap<K, V> tailMap(K fromKey) {
+		return view(fromKey, null);
+	}
+
+	@Override
+	public K firstKey() {
+		Iterator<Map.Entry<K, V>> entries = new EntryIterator();
+		if(!entries.hasNext()) {
+			throw new NoSuchElementException();
+		}
+		return entries.next().getKey();
+	}
+
+	@Override
+	public K lastKey() {
+		Node<K, V> last = null;
+		for(Node<K, V> node = root; node != null; ) {
+			if(high != null && node.key.compareTo(high) >= 0) {
+				node = node.left;
+			} else {
+				last = node;
+				node = node.right;
+			}
+		}
+		if(last == null || !inRange(last.key)) {
+			throw new NoSuchElementException();
+		}
+		return last.key;
+	}
+
+	/**
+	 * @brief Returns a view of the tree limited to a range of keys inside the range
+	 * of this view
+	 * @param fromKey the smallest key, or null to keep the lower bound of this view
+	 * @param toKey the key to end before, or null to keep the upper bound of this view
+	 * @return the view
+	 */
+	private PersistentSortedMap<K, V> view(K fromKey, K toKey) {
+		K from = low;
+		if(fromKey != null) {
+			from = low == null || fromKey.compareTo(low) > 0 ? fromKey : low;
+		}
+		K to = high;
+		if(toKey != null) {
+			to = high == null || toKey.compareTo(high) < 0 ? toKey : high;
+		}
+		return new PersistentSortedMap<>(root, from, to);
+	}
+
+	/**
+	 * @brief Checks whether a key is inside the range of this view
+	 * @param key the key
+	 * @return true if the key is in range
+	 */
+	private boolean inRange(K key) {
+		return (low == null || key.compareTo(low) >= 0) && (high == null || key.compareTo(high) < 0);
+	}
+
+	/**
+	 * @brief Finds the node of a key inside the range of this view
+	 * @param key the key
+	 * @return the node, or null if the key is not in the view
+	 */
+	@SuppressWarnings("unchecked")
+	private Node<K, V> find(Object key) {
+		K wanted = (K) key;
+		Node<K, V> node = root;
+		while(node != null) {
+			int compare = wanted.compareTo(node.key);
+			if(compare == 0) {
+				return inRange(wanted) ? node : null;
+			}
+			node = compare < 0 ? node.left : node.right;
+		}
+		return null;
+	}
+
+	/**
+	 * @brief Builds a balanced tree of sorted keys
+	 * @param <K> the type of the keys
+	 * @param <V> the type of the values
+	 * @param keys the keys in ascending order
+	 * @param values the values of the keys
+	 * @param from the first index to build from
+	 * @param to the index to end before
+	 * @return the root of the tree
+	 */
+	@SuppressWarnings("unchecked")
+	private static <K, V> Node<K, V> build(Object[] keys, Object[] values, int from, int to) {
+		if(from >= to) {
+			return null;
+		}
+		int middle = (from + to) >>> 1;
+		return new Node<>((K) keys[middle], (V) values[middle],
+				build(keys, values, from, middle), build(keys, values, middle + 1, to));
+	}
+
+	/**
+	 * @brief Adds a key below a node by copying the path to it
+	 * @param <K> the type of the keys
+	 * @param <V> the type of the values
+	 * @param node the node, or null
+	 * @param key the key
+	 * @param value the value
+	 * @return the new node that replaces the node
+	 */
+	private static <K extends Comparable<? super K>, V> Node<K, V> insert(Node<K, V> node, K key, V value) {
+		if(node == null) {
+			return new Node<>(key, value, null, null);
+		}
+		int compare = key.compareTo(node.key);
+		if(compare < 0) {
+			return balance(node.key, node.value, insert(node.left, key, value), node.right);
+		}
+		if(compare > 0) {
+			return balance(node.key, node.value, node.left, insert(node.right, key, value));
+		}
+		return new Node<>(key, value, node.left, node.right);
+	}
+
+	/**
+	 * @brief Creates a node whose subtrees differ in height by at most two, rotating
+	 * them if they differ by two
+	 * @param <K> the type of the keys
+	 * @param <V> the type of the values
+	 * @param key the key of the node
+	 * @param value the value of the node
+	 * @param left the left subtree
+	 * @param right the right subtree
+	 * @return the balanced node
+	 */
+	private static <K, V> Node<K, V> balance(K key, V value, Node<K, V> left, Node<K, V> right) {
+		if(height(left) > height(right) + 1) {
+			if(height(left.left) >= height(left.right)) {
+				return new Node<>(left.key, left.value, left.left, new Node<>(key, value, left.right, right));
+			}
+			Node<K, V> middle = left.right;
+			return new Node<>(middle.key, middle.value, new Node<>(left.key, left.value, left.left, middle.left),
+					new Node<>(key, value, middle.right, right));
+		}
+		if(height(right) > height(left) + 1) {
+			if(height(right.right) >= height(right.left)) {
+				return new Node<>(right.key, right.value, new Node<>(key, value, left, right.left), right.right);
+			}
+			Node<K, V> middle = right.left;
+			return new Node<>(middle.key, middle.value, new Node<>(key, value, left, middle.left),
+					new Node<>(right.key, right.value, middle.right, right.right));
+		}
+		return new Node<>(key, value, left, right);
+	}
+
+	/**
+	 * @brief Returns the height of a subtree
+	 * @param node the root of the subtree, or null
+	 * @return the height, 0 for an empty subtree
+	 */
+	private static int height(Node<?, ?> node) {
+		return node != null ? node.height : 0;
+	}
+
+	/**
+	 * An immutable node of the tree
+	 * @param <K> the type of the key
+	 * @param <V> the type of the value
+	 */
+	private static class Node<K, V> implements Map.Entry<K, V> {
+
+		/** The key of the node */
+		private final K key;
+
+		/** The value of the node */
+		private final V value;
+
+		/** The subtree of smaller keys */
+		private final Node<K, V> left;
+
+		/** The subtree of greater keys */
+		private final Node<K, V> right;
+
+		/** The height of the subtree of the node */
+		private final int height;
+
+		/** The number of nodes in the subtree of the node */
+		private final int size;
+
+		/**
+		 * Constructor
+		 * @param key the key
+		 * @param value the value
+		 * @param left the subtree of smaller keys
+		 * @param right the subtree of greater keys
+		 */
+		private Node(K key, V value, Node<K, V> left, Node<K, V> right) {
+			this.key = key;
+			this.value = value;
+			this.left = left;
+			this.right = right;
+			this.height = Math.max(height(left), height(right)) + 1;
+			this.size = (left != null ? left.size : 0) + (right != null ? right.size : 0) + 1;
+		}
+
+		@Override
+		public K getKey() {
+			return key;
+		}
+
+		@Override
+		public V getValue() {
+			return value;
+		}
+
+		@Override
+		public V setValue(V value) {
+			throw new UnsupportedOperationException("The map cannot be changed!");
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if(!(other instanceof Map.Entry)) {
+				return false;
+			}
+			Map.Entry<?, ?> entry = (Map.Entry<?, ?>) other;
+			return key.equals(entry.getKey()) && value.equals(entry.getValue());
+		}
+
+		@Override
+		public int hashCode() {
+			return key.hashCode() ^ value.hashCode();
+		}
+
+		@Override
+		public String toString() {
+			return key + "=" + value;
+		}
+	}
+
+	/**
+	 * Walks the nodes inside the range of the view in ascending order of their keys
+	 */
+	private class EntryIterator implements Iterator<Map.Entry<K, V>> {
+
+		/** The nodes whose own key and right subtree are still to be walked */
+		private final ArrayDeque<Node<K, V>> stack;
+
+		/** The next node, or null if there is none */
+		private Node<K, V> next;
+
+		/**
+		 * Constructor
+		 */
+		private EntryIterator() {
+			this.stack = new ArrayDeque<>();
+			// only descend into the nodes at or after the lower bound
+			for(Node<K, V> node = root; node != null; ) {
+				if(low != null && node.key.compareTo(low) < 0) {
+					node = node.right;
+				} else {
+					stack.push(node);
+					node = node.left;
+				}
+			}
+			advance();
+		}
+
+		/**
+		 * @brief Moves on to the next node in range
+		 */
+		private void advance() {
+			if(stack.isEmpty()) {
+				next = null;
+				return;
+			}
+			Node<K, V> node = stack.pop();
+			for(Node<K, V> child = node.right; child != null; child = child.left) {
+				stack.push(child);
+			}
+			next = high == null || node.key.compareTo(high) < 0 ? node : null;
+			if(next == null) {
+				stack.clear();
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		@Override
+		public Map.Entry<K, V> next() {
+			if(next == null) {
+				throw new NoSuchElementException();
+			}
+			Node<K, V> current = next;
+			advance();
+			return current;
+		}
+	}
+}
@@ -0,0 +1,182 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * A stage of a pipeline. Items wait in a bounded queue, and the threads of the
+ * stage take them off in batches and hand them to a handler. A producer that
+ * finds the queue full waits until there is room, so a slow stage holds back the
+ * stages in front of it instead of letting their output pile up in memory.
+ *
+ * The stage records how deep its queue gets, how long producers wait for room
+ * and how busy its threads are, which shows the stage that limits the pipeline.
+ *
+ * @param <T> the type of the items
+ *
+ * @author salimamukhit
+ */
+public class PipelineStage<T> {
+
+	/** The default number of items that fit in the queue of a stage */
+	public static final int DEFAULT_CAPACITY = 64;
+
+	/** The name of the stage, used for its threads and statistics */
+	private final String name;
+
+	/** The items waiting for the stage */
+	private final BlockingQueue<T> queue;
+
+	/** The most items handed to the handler at once */
+	private final int batch;
+
+	/** The handler of a batch of items */
+	private final Consumer<List<T>> handler;
+
+	/** The threads of the stage */
+	private final Thread[] workers;
+
+	/** Whether the threads should stop once the queue is empty */
+	private volatile boolean shutdown;
+
+	/** The time in nanoseconds the stage was started */
+	private final long started;
+
+	/** The number of items put in the queue */
+	private final LongAdder items;
+
+	/** The number of batches handled */
+	private final LongAdder batches;
+
+	/** The sum of the depths of the queue seen by every item put in it */
+	private final LongAdder depths;
+
+	/** The time in nanoseconds producers waited for room in the queue */
+	private final LongAdder blocked;
+
+	/** The time in nanoseconds the threads spent in the handler */
+	private final LongAdder busy;
+
+	/** The deepest the queue has been */
+	private final AtomicInteger deepest;
+
+	/**
+	 * Constructor, which starts the threads of the stage
+	 * @param name the name of the stage
+	 * @param threads the number of threads of the stage
+	 * @param capacity the number of items that fit in the queue
+	 * @param batch the most items handed to the handler at once
+	 * @param handler the handler of a batch of items, which is called by several
+	 *        threads at once if the stage has more than one
+	 */
+	public PipelineStage(String name, int threads, int capacity, int batch, Consumer<List<T>> handler) {
+		if(threads < 1 || capacity < 1 || batch < 1) {
+			throw new IllegalArgumentException("A stage needs at least one thread, one item of room and one item per batch!");
+		}
+		this.name = name;
+		this.queue = new ArrayBlockingQueue<>(capacity);
+		this.batch = batch;
+		this.handler = handler;
+		this.shutdown = false;
+		this.started = System.nanoTime();
+		this.items = new LongAdder();
+		this.batches = new LongAdder();
+		this.depths = new LongAdder();
+		this.blocked = new LongAdder();
+		this.busy = new LongAdder();
+		this.deepest = new AtomicInteger();
+
+		this.workers = new Thread[threads];
+		for(int i = 0; i < threads; i++) {
+			workers[i] = new Thread(this::work, name + "-" + i);
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+	}
+
+	/**
+	 * @brief Puts an item in the queue of the stage, waiting for room if it is full.
+	 * The wait is not cut short by an interrupt, since the item would be lost, but
+	 * the interrupt is kept for the caller.
+	 * @param item the item
+	 */
+	public void put(T item) {
+		if(!queue.offer(item)) {
+			long start = System.nanoTime();
+			boolean interrupted = false;
+			while(true) {
+				try {
+					queue.put(item);
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			blocked.add(System.nanoTime() - start);
+			if(interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		int depth = queue.size();
+		items.increment();
+		depths.add(depth);
+		deepest.accumulateAndGet(depth, Math::max);
+	}
+
+	/**
+	 * @brief Stops the threads of the stage. Items still in the queue are left
+	 * there, so the stage should only be shut down once nothing is put in it.
+	 */
+	public void shutdown() {
+		shutdown = true;
+		for(Thread worker : workers) {
+			worker.interrupt();
+		}
+	}
+
+	/**
+	 * @brief Returns the statistics of the stage
+	 * @return a line with the items, queue depths, waits and use of the threads
+	 */
+	@Override
+	public String toString() {
+		long count = items.sum();
+		double elapsed = Math.max(1, System.nanoTime() - started);
+		return String.format("%s: %d threads, %d items in %d batches, queue depth mean %.1f max %d of %d, "
+				+ "producers blocked %d ms, threads busy %.0f%%%n",
+				name, workers.length, count, batches.sum(), count == 0 ? 0.0 : (double) depths.sum() / count,
+				deepest.get(), queue.size() + queue.remainingCapacity(), blocked.sum() / 1_000_000,
+				100 * busy.sum() / (elapsed * workers.length));
+	}
+
+	/**
+	 * @brief Takes batches of items off the queue and hands them to the handler
+	 * until the stage is shut down
+	 */
+	private void work() {
+		List<T> taken = new ArrayList<>(batch);
+		while(!shutdown) {
+			try {
+				taken.add(queue.take());
+			} catch (InterruptedException e) {
+				continue;
+			}
+			queue.drainTo(taken, batch - 1);
+
+			long start = System.nanoTime();
+			try {
+				handler.accept(taken);
+			} catch (RuntimeException e) {
+				// catch runtime exceptions to avoid losing the thread
+				e.printStackTrace();
+				System.err.println("Warning: Pipeline stage " + name + " encountered an exception while running.");
+			}
+			busy.add(System.nanoTime() - start);
+			batches.increment();
+			taken.clear();
+		}
+	}
+}
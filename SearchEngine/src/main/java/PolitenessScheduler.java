@@ -0,0 +1,506 @@
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands the pages of a crawl to a {@link WorkQueue} without overloading any
+ * single host. Every host has its own queue of pages, and a page is only handed
+ * to the work queue while fewer than a set number of pages of the same host are
+ * being fetched, and once a set delay has passed since the last fetch from that
+ * host started. Pages of other hosts are handed out in the meantime. By default
+ * a host may be fetched by every thread of the work queue at once, so a crawl of
+ * a single host is only slowed down if asked to. A host is forgotten once none of
+ * its pages are waiting or being fetched and its delay has passed, so the state
+ * kept does not grow with the number of hosts a large crawl has visited.
+ *
+ * The robots.txt file of every host is fetched once and cached for a day, as
+ * RFC 9309 suggests, and the cache keeps the files of the most recently used
+ * hosts only. Pages it disallows are skipped, and its crawl delay, if longer than
+ * the set delay, is used for the host along with a limit of one fetch at a time.
+ * Until the rules of a host are known only one of its pages is fetched at a time.
+ * A file that cannot be read because of a server error or a network problem
+ * disallows the host only for a short while: it is asked for again after that,
+ * and the pages that were held back are tried again a few times.
+ *
+ * In adaptive mode the number of pages of a host fetched at the same time is
+ * also limited by a window that follows how the host copes, the way TCP
+ * congestion control does (additive increase, multiplicative decrease). Every
+ * successful fetch grows the window by one over its size, so it grows by about
+ * one fetch per round of fetches, up to the set limit. A failed fetch, a 429 or
+ * 503 response, or a fetch taking several times longer than the fastest one seen
+ * halves the window, at most once per round. Once the window is down to one
+ * fetch, such signals double a backoff delay between fetches instead, which
+ * successful fetches wind down again. A host that was forgotten while idle starts
+ * over with a window of one, as TCP restarts its window after an idle period. Pages that got a 429 or 503 response are
+ * fetched again a few times, once the host has been slowed down.
+ *
+ * @author salimamukhit
+ */
+public class PolitenessScheduler {
+
+	/** The default time in milliseconds between the starts of fetches from a host */
+	public static final long DEFAULT_DELAY = 0;
+
+	/** How many times longer than the fastest fetch a fetch may take before the host counts as slow */
+	private static final int SLOW_FACTOR = 3;
+
+	/** The least time in milliseconds a fetch has to exceed the fastest one by to count as slow */
+	private static final long SLOW_MARGIN = 500;
+
+	/** The backoff delay in milliseconds after the first signal at a window of one */
+	private static final long MIN_BACKOFF = 250;
+
+	/** The longest backoff delay in milliseconds */
+	private static final long MAX_BACKOFF = 30_000;
+
+	/**
+	 * The most times a page is fetched again after a 429 or 503 response in adaptive
+	 * mode, or after the robots.txt file of its host could not be read
+	 */
+	private static final int RETRIES = 3;
+
+	/** The time in milliseconds the robots.txt rules of a host are cached */
+	private static final long ROBOTS_TTL = 24 * 60 * 60 * 1000L;
+
+	/** The time in milliseconds before a robots.txt file that could not be read is asked for again */
+	private static final long ROBOTS_RETRY = 10_000;
+
+	/** The most hosts whose robots.txt rules are cached */
+	private static final int MAX_ROBOTS = 10_000;
+
+	/** The work queue the pages are handed to */
+	private final WorkQueue queue;
+
+	/** The most pages of a host fetched at the same time */
+	private final int hostThreads;
+
+	/** The least time in milliseconds between the starts of fetches from a host */
+	private final long delay;
+
+	/** Whether the number of fetches of every host follows how the host copes */
+	private final boolean adaptive;
+
+	/** The state of every host, guarded by this scheduler */
+	private final Map<String, Host> hosts;
+
+	/** The robots.txt rules of the hosts used most recently, guarded by itself */
+	private final Map<String, CachedRules> robots;
+
+	/** The timer that hands out pages whose host has to wait */
+	private final ScheduledExecutorService timer;
+
+	/** The number of pages submitted and not finished yet */
+	private int outstanding;
+
+	/**
+	 * Constructor. Lets every thread of the work queue fetch from the same host.
+	 * @param queue the work queue to hand pages to
+	 */
+	public PolitenessScheduler(WorkQueue queue) {
+		this(queue, queue.size(), DEFAULT_DELAY, false);
+	}
+
+	/**
+	 * Constructor
+	 * @param queue the work queue to hand pages to
+	 * @param hostThreads the most pages of a host fetched at the same time
+	 * @param delay the least time in milliseconds between the starts of fetches from
+	 *        a host
+	 * @param adaptive whether the number of fetches of every host adapts to how the
+	 *        host copes, up to the most pages of a host
+	 */
+	public PolitenessScheduler(WorkQueue queue, int hostThreads, long delay, boolean adaptive) {
+		if(hostThreads < 1 || delay < 0) {
+			throw new IllegalArgumentException("There has to be at least one fetch per host and no negative delay!");
+		}
+		this.queue = queue;
+		this.hostThreads = hostThreads;
+		this.delay = delay;
+		this.adaptive = adaptive;
+		this.hosts = new HashMap<>();
+		this.robots = new LinkedHashMap<>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedRules> eldest) {
+				return size() > MAX_ROBOTS;
+			}
+		};
+		this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "politeness-timer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.outstanding = 0;
+	}
+
+	/**
+	 * @brief Queues a page of a host, to be run on the work queue once the host allows
+	 * @param url the url of the page
+	 * @param task the task that crawls the page
+	 */
+	public synchronized void submit(URL url, Runnable task) {
+		outstanding++;
+		enqueue(url, task);
+	}
+
+	/**
+	 * @brief Queues a page of a host once a delay has passed. The page counts as
+	 * submitted right away, so {@link #finish()} waits for it.
+	 * @param url the url of the page
+	 * @param task the task that crawls the page
+	 * @param delay the time in milliseconds to wait
+	 */
+	public synchronized void submitLater(URL url, Runnable task, long delay) {
+		outstanding++;
+		timer.schedule(() -> enqueue(url, task), delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @brief Waits until every page submitted has finished, including the pages
+	 * submitted by other pages
+	 */
+	public synchronized void finish() {
+		while(outstanding > 0) {
+			try {
+				this.wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @brief Checks whether the robots.txt file of the host of a URL allows crawling
+	 * it. The file is fetched by the first caller for the host once the cached rules
+	 * have expired or were dropped, and other callers for the same host wait for it.
+	 * @param url the url to check
+	 * @return true if the url may be crawled
+	 */
+	public boolean isAllowed(URL url) {
+		String key = HttpConnectionPool.key(url);
+		CachedRules created = new CachedRules();
+		CachedRules cached;
+		synchronized(robots) {
+			cached = robots.get(key);
+			if(cached == null || cached.isExpired(System.currentTimeMillis())) {
+				robots.put(key, created);
+				cached = null;
+			}
+		}
+
+		if(cached == null) {
+			RobotsRules fetched = RobotsRules.ALLOW_ALL;
+			try {
+				fetched = RobotsRules.fetch(url);
+			} finally {
+				created.expires = System.currentTimeMillis() + (fetched.isUnavailable() ? ROBOTS_RETRY : ROBOTS_TTL);
+				created.rules.complete(fetched);
+				learned(key, fetched);
+			}
+			return fetched.isAllowed(url);
+		}
+		return cached.rules.join().isAllowed(url);
+	}
+
+	/**
+	 * @brief Hands a page that was skipped back to be tried again once the robots.txt
+	 * file of its host is asked for again, if the file could not be read and the page
+	 * has not been tried too often
+	 * @param url the url of the page
+	 * @param attempt the number of times the page was tried before
+	 * @param task the task that tries the page again
+	 * @return true if the page was handed back
+	 */
+	public boolean retryUnavailable(URL url, int attempt, Runnable task) {
+		if(attempt >= RETRIES) {
+			return false;
+		}
+		long wait = 0;
+		synchronized(robots) {
+			CachedRules cached = robots.get(HttpConnectionPool.key(url));
+			if(cached != null && cached.rules.isDone()) {
+				if(!cached.rules.join().isUnavailable()) {
+					return false;
+				}
+				wait = Math.max(0, cached.expires - System.currentTimeMillis());
+			}
+		}
+		submitLater(url, task, wait);
+		return true;
+	}
+
+	/**
+	 * @brief Records how a fetch from a host went. In adaptive mode this grows or
+	 * shrinks the window of the host.
+	 * @param url the url that was fetched
+	 * @param status the status code of the response, or -1 if the fetch failed
+	 * @param latency the time in milliseconds the fetch took
+	 */
+	public synchronized void record(URL url, int status, long latency) {
+		Host host = hosts.get(HttpConnectionPool.key(url));
+		if(!adaptive || host == null) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		boolean slow = host.fastest > 0 && latency > SLOW_FACTOR * host.fastest && latency - host.fastest > SLOW_MARGIN;
+		boolean overloaded = status < 0 || status == 429 || status == 503;
+		if(!overloaded) {
+			host.fastest = Math.max(1, host.fastest > 0 ? Math.min(host.fastest, latency) : latency);
+		}
+
+		if(slow || overloaded) {
+			// fetches started before the last decrease saw the old window, so they
+			// do not count again
+			if(now - latency >= host.lastDecrease) {
+				host.lastDecrease = now;
+				if(host.window <= 1) {
+					host.backoff = Math.min(MAX_BACKOFF, host.backoff == 0 ? MIN_BACKOFF : host.backoff * 2);
+				}
+				host.window = Math.max(1, host.window / 2);
+			}
+		} else if(host.backoff > 0) {
+			host.backoff = host.backoff > MIN_BACKOFF ? host.backoff - MIN_BACKOFF : 0;
+		} else {
+			host.window = Math.min(hostThreads, host.window + 1 / host.window);
+		}
+		dispatch(host);
+	}
+
+	/**
+	 * @brief Checks whether a page should be fetched again after a response telling
+	 * the crawler to slow down
+	 * @param status the status code of the response
+	 * @param attempt the number of times the page was fetched before
+	 * @return true if the page should be submitted again
+	 */
+	public boolean isRetryable(int status, int attempt) {
+		return adaptive && (status == 429 || status == 503) && attempt < RETRIES;
+	}
+
+	/**
+	 * @brief Returns the windows of the hosts in adaptive mode
+	 * @return a line for every host with its window and backoff delay
+	 */
+	@Override
+	public synchronized String toString() {
+		StringBuilder builder = new StringBuilder();
+		for(Map.Entry<String, Host> entry : hosts.entrySet()) {
+			Host host = entry.getValue();
+			builder.append(String.format("%s: window %.1f, backoff %d ms, fastest %d ms%n",
+					entry.getKey(), host.window, host.backoff, host.fastest));
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * @brief Hands out the waiting pages of a host as far as its limits allow, and
+	 * sets the timer if the host has to wait before the next one
+	 * @param host the host
+	 */
+	private synchronized void dispatch(Host host) {
+		while(!host.waiting.isEmpty() && host.active < limit(host)) {
+			long now = System.currentTimeMillis();
+			long ready = host.lastStart + delay(host);
+			if(now < ready) {
+				if(!host.timed) {
+					host.timed = true;
+					timer.schedule(() -> wake(host), ready - now, TimeUnit.MILLISECONDS);
+				}
+				return;
+			}
+
+			Runnable task = host.waiting.pollFirst();
+			host.active++;
+			host.lastStart = now;
+			queue.execute(() -> {
+				try {
+					task.run();
+				} finally {
+					finished(host);
+				}
+			});
+		}
+	}
+
+	/**
+	 * @brief Queues a page that has been counted as submitted
+	 * @param url the url of the page
+	 * @param task the task that crawls the page
+	 */
+	private synchronized void enqueue(URL url, Runnable task) {
+		Host host = hosts.computeIfAbsent(HttpConnectionPool.key(url), this::host);
+		host.waiting.addLast(task);
+		dispatch(host);
+	}
+
+	/**
+	 * @brief Hands out the pages of a host once its delay has passed
+	 * @param host the host
+	 */
+	private synchronized void wake(Host host) {
+		host.timed = false;
+		dispatch(host);
+		prune(host);
+	}
+
+	/**
+	 * @brief Records that a page of a host has finished and hands out the next one
+	 * @param host the host of the page
+	 */
+	private synchronized void finished(Host host) {
+		host.active--;
+		outstanding--;
+		dispatch(host);
+		prune(host);
+		if(outstanding == 0) {
+			this.notifyAll();
+		}
+	}
+
+	/**
+	 * @brief Records the robots.txt rules of a host, which may change its limits
+	 * @param key the protocol, host and port of the host
+	 * @param rules the rules of the host
+	 */
+	private synchronized void learned(String key, RobotsRules rules) {
+		Host host = hosts.get(key);
+		if(host != null) {
+			host.rules = rules;
+			dispatch(host);
+		}
+	}
+
+	/**
+	 * @brief Creates the state of a host, with its robots.txt rules if they are known
+	 * already because the host was forgotten after an earlier visit
+	 * @param key the protocol, host and port of the host
+	 * @return the state of the host
+	 */
+	private Host host(String key) {
+		Host host = new Host(key);
+		synchronized(robots) {
+			CachedRules cached = robots.get(key);
+			if(cached != null && cached.rules.isDone()) {
+				host.rules = cached.rules.join();
+			}
+		}
+		return host;
+	}
+
+	/**
+	 * @brief Forgets a host once none of its pages are waiting or being fetched and
+	 * its delay has passed, and sets the timer to check again if the delay has not
+	 * passed yet
+	 * @param host the host
+	 */
+	private synchronized void prune(Host host) {
+		if(!host.waiting.isEmpty() || host.active > 0 || host.timed) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		long ready = host.lastStart + delay(host);
+		if(now < ready) {
+			host.timed = true;
+			timer.schedule(() -> wake(host), ready - now, TimeUnit.MILLISECONDS);
+			return;
+		}
+		hosts.remove(host.key, host);
+	}
+
+	/**
+	 * @brief Returns the most pages of a host that may be fetched at the same time
+	 * @param host the host
+	 * @return the limit of the host
+	 */
+	private int limit(Host host) {
+		if(host.rules == null || host.rules.getCrawlDelay() > delay) {
+			return 1;
+		}
+		return adaptive ? Math.min(hostThreads, (int) host.window) : hostThreads;
+	}
+
+	/**
+	 * @brief Returns the least time between the starts of fetches from a host
+	 * @param host the host
+	 * @return the delay of the host in milliseconds
+	 */
+	private long delay(Host host) {
+		long wait = Math.max(delay, host.backoff);
+		return host.rules == null ? wait : Math.max(wait, host.rules.getCrawlDelay());
+	}
+
+	/**
+	 * The robots.txt rules of a host, completed once they are fetched, and when they
+	 * expire
+	 */
+	private static class CachedRules {
+
+		/** The rules, completed once they are fetched */
+		private final CompletableFuture<RobotsRules> rules = new CompletableFuture<>();
+
+		/** The time in milliseconds the rules expire, set before they are completed */
+		private volatile long expires = Long.MAX_VALUE;
+
+		/**
+		 * @brief Checks whether the rules have been fetched and have expired since
+		 * @param now the current time in milliseconds
+		 * @return true if the rules have to be fetched again
+		 */
+		private boolean isExpired(long now) {
+			return rules.isDone() && now >= expires;
+		}
+	}
+
+	/**
+	 * The pages waiting for a host and the fetches in progress, guarded by the
+	 * scheduler
+	 */
+	private static class Host {
+
+		/** The protocol, host and port of the host */
+		private final String key;
+
+		/** The tasks of the pages waiting to be handed out */
+		private final ArrayDeque<Runnable> waiting = new ArrayDeque<>();
+
+		/** The number of pages handed out and not finished */
+		private int active;
+
+		/** The time in milliseconds the last fetch was handed out */
+		private long lastStart;
+
+		/** Whether the timer is set to hand out the next page */
+		private boolean timed;
+
+		/** The robots.txt rules of the host, or null while they are not known */
+		private RobotsRules rules;
+
+		/** The number of fetches the host is trusted with in adaptive mode */
+		private double window = 1;
+
+		/** The delay in milliseconds added between fetches while the host struggles */
+		private long backoff;
+
+		/** The time in milliseconds of the fastest fetch from the host, or 0 */
+		private long fastest;
+
+		/** The time in milliseconds the window was last decreased */
+		private long lastDecrease;
+
+		/**
+		 * Constructor
+		 * @param key the protocol, host and port of the host
+		 */
+		private Host(String key) {
+			this.key = key;
+		}
+	}
+}
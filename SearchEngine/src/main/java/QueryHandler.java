@@ -7,9 +7,6 @@ import java.util.List;
 import java.util.TreeMap;
 import java.util.TreeSet;
 
-import opennlp.tools.stemmer.Stemmer;
-import opennlp.tools.stemmer.snowball.SnowballStemmer;
-
 /**
  * 
  * @author salimamukhit
@@ -36,8 +33,7 @@ public class QueryHandler implements QueryHandlerInterface {
 	 
 	@Override
 	public void parseQuery(String line, boolean exact) {
-		Stemmer stemmer = new SnowballStemmer(TextFileStemmer.DEFAULT);
-		TreeSet<String> query = TextFileStemmer.uniqueStems(line, stemmer);
+		TreeSet<String> query = TextFileStemmer.uniqueStems(line, StemmingService.getDefault());
 		String joined = String.join(" ", query);
 		if(!query.isEmpty() && !allResults.containsKey(joined)) {
 			allResults.put(joined, index.search(query, exact));
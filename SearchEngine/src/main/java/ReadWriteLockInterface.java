@@ -0,0 +1,22 @@
+/**
+ *
+ * @author salimamukhit
+ *
+ * A common interface for read/write locks used by {@link ConcurrentInvertedIndex}.
+ */
+public interface ReadWriteLockInterface {
+
+	/**
+	 * @brief Returns the reader lock.
+	 *
+	 * @return the reader lock
+	 */
+	public SimpleLock readLock();
+
+	/**
+	 * @brief Returns the writer lock.
+	 *
+	 * @return the writer lock
+	 */
+	public SimpleLock writeLock();
+}
@@ -0,0 +1,277 @@
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * The rules of a robots.txt file that apply to this crawler, following RFC 9309.
+ * The rules of the groups naming the crawler are used if there are any, and
+ * otherwise the rules of the groups for every crawler ({@code *}). The longest
+ * rule matching the path of a URL decides whether it may be crawled, and an
+ * allow rule wins a tie. Rules may use {@code *} to match any characters and
+ * end with {@code $} to match the end of the path.
+ *
+ * The non-standard {@code Crawl-delay} field of the same groups is kept as the
+ * time to wait between requests to the host.
+ *
+ * @author salimamukhit
+ */
+public class RobotsRules {
+
+	/** The product token of the crawler that robots.txt groups are matched against */
+	public static final String AGENT = "SearchEngine";
+
+	/** The longest crawl delay in milliseconds that is obeyed */
+	public static final long MAX_CRAWL_DELAY = 30_000;
+
+	/** The rules of a host without a robots.txt file */
+	public static final RobotsRules ALLOW_ALL = new RobotsRules(Collections.emptyList(), 0, false);
+
+	/**
+	 * The rules of a host whose robots.txt file cannot be read for now, which are
+	 * only meant to be kept until the file is asked for again
+	 */
+	public static final RobotsRules DISALLOW_ALL = new RobotsRules(List.of(new Rule("/", false)), 0, true);
+
+	/** The number of redirects followed when fetching robots.txt */
+	private static final int REDIRECTS = 5;
+
+	/** The allow and disallow rules */
+	private final List<Rule> rules;
+
+	/** The time in milliseconds to wait between requests */
+	private final long crawlDelay;
+
+	/** Whether the rules stand in for a robots.txt file that could not be read */
+	private final boolean unavailable;
+
+	/**
+	 * Constructor
+	 * @param rules the allow and disallow rules
+	 * @param crawlDelay the time in milliseconds to wait between requests
+	 * @param unavailable whether the rules stand in for a file that could not be read
+	 */
+	private RobotsRules(List<Rule> rules, long crawlDelay, boolean unavailable) {
+		this.rules = rules;
+		this.crawlDelay = crawlDelay;
+		this.unavailable = unavailable;
+	}
+
+	/**
+	 * @brief Fetches and parses the robots.txt file of the host of a URL. A missing
+	 * file allows everything, while a server error or a host that cannot be reached
+	 * disallows everything until the file is asked for again, see
+	 * {@link #isUnavailable()}.
+	 * @param url a url of the host
+	 * @return the rules of the host
+	 */
+	public static RobotsRules fetch(URL url) {
+		try {
+			URL robots = new URL(url.getProtocol(), url.getHost(), url.getPort(), "/robots.txt");
+			for(int i = 0; i <= REDIRECTS; i++) {
+				Map<String, List<String>> headers = HttpsFetcher.fetchURL(robots,
+						response -> HtmlFetcher.getStatusCode(response) / 100 == 2);
+				int status = HtmlFetcher.getStatusCode(headers);
+
+				if(HtmlFetcher.isRedirect(headers)) {
+					robots = new URL(robots, headers.get("Location").get(0));
+				} else if(status / 100 == 2) {
+					return parse(headers.get("Content"), AGENT);
+				} else if(status / 100 == 4) {
+					return ALLOW_ALL;
+				} else {
+					return DISALLOW_ALL;
+				}
+			}
+			return ALLOW_ALL;
+		} catch (MalformedURLException e) {
+			return ALLOW_ALL;
+		} catch (IOException e) {
+			return DISALLOW_ALL;
+		}
+	}
+
+	/**
+	 * @brief Parses the lines of a robots.txt file
+	 * @param lines the lines of the file
+	 * @param agent the product token of the crawler
+	 * @return the rules that apply to the crawler
+	 */
+	public static RobotsRules parse(List<String> lines, String agent) {
+		List<Rule> named = new ArrayList<>();
+		List<Rule> everyone = new ArrayList<>();
+		long namedDelay = -1;
+		long everyoneDelay = -1;
+		boolean matchesNamed = false;
+		boolean matchesEveryone = false;
+		boolean foundNamed = false;
+		boolean inAgents = false;
+
+		for(String line : lines) {
+			int comment = line.indexOf('#');
+			String text = (comment >= 0 ? line.substring(0, comment) : line).trim();
+			int colon = text.indexOf(':');
+			if(colon < 0) {
+				continue;
+			}
+			String field = text.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+			String value = text.substring(colon + 1).trim();
+
+			if(field.equals("user-agent")) {
+				// a user-agent line after rules starts a new group
+				if(!inAgents) {
+					matchesNamed = false;
+					matchesEveryone = false;
+					inAgents = true;
+				}
+				if(value.equalsIgnoreCase(agent)) {
+					matchesNamed = true;
+					foundNamed = true;
+				} else if(value.equals("*")) {
+					matchesEveryone = true;
+				}
+				continue;
+			}
+			inAgents = false;
+
+			if(field.equals("allow") || field.equals("disallow")) {
+				if(value.isEmpty()) {
+					continue;
+				}
+				Rule rule = new Rule(value, field.equals("allow"));
+				if(matchesNamed) {
+					named.add(rule);
+				}
+				if(matchesEveryone) {
+					everyone.add(rule);
+				}
+			} else if(field.equals("crawl-delay")) {
+				long delay = parseDelay(value);
+				if(matchesNamed && delay >= 0) {
+					namedDelay = Math.max(namedDelay, delay);
+				}
+				if(matchesEveryone && delay >= 0) {
+					everyoneDelay = Math.max(everyoneDelay, delay);
+				}
+			}
+		}
+
+		if(foundNamed) {
+			return new RobotsRules(named, Math.max(0, namedDelay), false);
+		}
+		return new RobotsRules(everyone, Math.max(0, everyoneDelay), false);
+	}
+
+	/**
+	 * @brief Checks whether the rules allow crawling a URL
+	 * @param url the url to check
+	 * @return true if the url may be crawled
+	 */
+	public boolean isAllowed(URL url) {
+		String path = url.getFile().isEmpty() ? "/" : url.getFile();
+		if(path.equals("/robots.txt")) {
+			return true;
+		}
+		Rule best = null;
+		for(Rule rule : rules) {
+			if(rule.matches(path) && (best == null || rule.length > best.length
+					|| (rule.length == best.length && rule.allow))) {
+				best = rule;
+			}
+		}
+		return best == null || best.allow;
+	}
+
+	/**
+	 * @brief Returns the time to wait between requests to the host
+	 * @return the crawl delay in milliseconds, or 0 if there is none
+	 */
+	public long getCrawlDelay() {
+		return crawlDelay;
+	}
+
+	/**
+	 * @brief Checks whether the rules stand in for a robots.txt file that could not
+	 * be read, because of a server error or a network problem that may pass
+	 * @return true if the file should be asked for again later
+	 */
+	public boolean isUnavailable() {
+		return unavailable;
+	}
+
+	/**
+	 * @brief Parses a crawl delay in seconds, which may have a fraction
+	 * @param value the value of the field
+	 * @return the delay in milliseconds, capped at {@link #MAX_CRAWL_DELAY}, or -1 if
+	 *         it is not a number
+	 */
+	private static long parseDelay(String value) {
+		try {
+			double seconds = Double.parseDouble(value);
+			if(Double.isNaN(seconds) || seconds < 0) {
+				return -1;
+			}
+			return (long) Math.min(MAX_CRAWL_DELAY, seconds * 1000);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * An allow or disallow rule, with its path pattern compiled once
+	 */
+	private static class Rule {
+
+		/** The pattern matching the start of the paths of the rule */
+		private final Pattern pattern;
+
+		/** The length of the path of the rule, which decides between matching rules */
+		private final int length;
+
+		/** Whether the rule allows the paths it matches */
+		private final boolean allow;
+
+		/**
+		 * Constructor
+		 * @param path the path of the rule, which may use the * and $ wildcards
+		 * @param allow whether the rule allows the paths it matches
+		 */
+		private Rule(String path, boolean allow) {
+			StringBuilder regex = new StringBuilder();
+			int start = 0;
+			boolean anchored = path.endsWith("$");
+			String body = anchored ? path.substring(0, path.length() - 1) : path;
+			for(int i = 0; i <= body.length(); i++) {
+				if(i == body.length() || body.charAt(i) == '*') {
+					if(i > start) {
+						regex.append(Pattern.quote(body.substring(start, i)));
+					}
+					if(i < body.length()) {
+						regex.append(".*");
+					}
+					start = i + 1;
+				}
+			}
+			if(anchored) {
+				regex.append('$');
+			}
+			this.pattern = Pattern.compile(regex.toString(), Pattern.DOTALL);
+			this.length = path.length();
+			this.allow = allow;
+		}
+
+		/**
+		 * @brief Checks whether the rule matches a path
+		 * @param path the path and query of a url
+		 * @return true if the pattern matches the start of the path
+		 */
+		private boolean matches(String path) {
+			return pattern.matcher(path).lookingAt();
+		}
+	}
+}
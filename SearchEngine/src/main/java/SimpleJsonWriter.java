@@ -6,7 +6,6 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
-import java.util.TreeSet;
 
 /**
  * Outputs several simple data structures in "pretty" JSON format where newlines
@@ -115,7 +114,7 @@ public class SimpleJsonWriter {
  * @param level indentation level
  * @throws IOException if an I/O error occurs
  */
-	public static void asInvertedIndex(TreeMap<String, TreeMap<String, TreeSet<Integer>>> elements, Writer writer, int level) throws IOException {
+	public static void asInvertedIndex(Map<String, ? extends Map<String, ? extends Collection<Integer>>> elements, Writer writer, int level) throws IOException {
 		indent(writer, level);
 		writer.append("{\n");
 		Iterator<String> iter = elements.keySet().iterator();
@@ -302,7 +301,7 @@ public class SimpleJsonWriter {
 	 * @param elements an InvertedIndex structure
 	 * @return a JSON string
 	 */
-	public static String asInvertedIndex(TreeMap<String, TreeMap<String, TreeSet<Integer>>> elements) {
+	public static String asInvertedIndex(Map<String, ? extends Map<String, ? extends Collection<Integer>>> elements) {
 		try {
 			StringWriter writer = new StringWriter();
 			asInvertedIndex(elements, writer, 0);
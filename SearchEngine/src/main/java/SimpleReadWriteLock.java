@@ -1,16 +1,48 @@
+import java.util.ArrayDeque;
 import java.util.ConcurrentModificationException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Maintains a pair of associated locks, one for read-only operations and one
  * for writing. The read lock may be held simultaneously by multiple reader
  * threads, so long as there are no writers. The write lock is exclusive.
  *
+ * Which side wins when readers and writers compete is determined by the
+ * {@link Policy} the lock is created with. Waiting writers are always served
+ * in arrival order, and each one is woken individually through its own
+ * {@link Condition}.
+ *
  * @author Salima Mukhit
  * @author CS 212 Software Development
  * @author University of San Francisco
  * @version Fall 2020
  */
-public class SimpleReadWriteLock {
+public class SimpleReadWriteLock implements ReadWriteLockInterface {
+
+	/**
+	 * Determines the order in which competing readers and writers are admitted.
+	 */
+	public enum Policy {
+		/**
+		 * Readers are admitted whenever no writer is active. Gives the best read
+		 * throughput, but a steady stream of readers can starve writers.
+		 */
+		READER_PREFERRING,
+
+		/**
+		 * New readers wait while any writer is active or waiting, so writers never
+		 * starve. Readers can starve under a steady stream of writers.
+		 */
+		WRITER_PREFERRING,
+
+		/**
+		 * Readers and writers alternate in phases. New readers wait behind a waiting
+		 * writer, but every reader that was waiting when a writer releases the lock
+		 * is admitted before the next writer. Neither side can starve.
+		 */
+		PHASE_FAIR
+	}
 
 	/** The lock used for reading. */
 	private final SimpleLock readerLock;
@@ -18,29 +50,80 @@ public class SimpleReadWriteLock {
 	/** The lock used for writing. */
 	private final SimpleLock writerLock;
 
+	/** The admission policy of this lock. */
+	private final Policy policy;
+
+	/** Wait and hold time statistics, or null if not instrumented. */
+	private final LockStatistics statistics;
+
 	/** The number of active readers. */
 	private int readers;
 
 	/** The number of active writers; */
 	private int writers;
 
+	/** The number of readers waiting to be admitted. */
+	private int waitingReaders;
+
+	/**
+	 * The number of waiting readers released by the last writer that have not
+	 * been admitted yet. Only used by {@link Policy#PHASE_FAIR}.
+	 */
+	private int releasedReaders;
+
+	/** Incremented every time a writer releases the lock. */
+	private long phase;
+
+	/** Conditions of the waiting writers in arrival order. */
+	private final ArrayDeque<Condition> waitingWriters;
+
 	/**
 	 * The lock object used for synchronized access of readers and writers. For
 	 * security reasons, a separate private final lock object is used.
 	 */
-	private Object lock;
+	private final ReentrantLock lock;
+
+	/** Signaled when waiting readers may be able to proceed. */
+	private final Condition readable;
 
 	/**
-	 * Initializes a new simple read/write lock.
+	 * Initializes a new simple read/write lock that prefers readers.
 	 */
 	public SimpleReadWriteLock() {
+		this(Policy.READER_PREFERRING);
+	}
+
+	/**
+	 * Initializes a new simple read/write lock with the given admission policy.
+	 *
+	 * @param policy the admission policy to use
+	 */
+	public SimpleReadWriteLock(Policy policy) {
+		this(policy, false);
+	}
+
+	/**
+	 * Initializes a new simple read/write lock with the given admission policy
+	 * that optionally records wait and hold times.
+	 *
+	 * @param policy the admission policy to use
+	 * @param instrumented whether to record {@link LockStatistics}
+	 */
+	public SimpleReadWriteLock(Policy policy, boolean instrumented) {
 		readerLock = new ReadLock();
 		writerLock = new WriteLock();
+		this.policy = policy;
+		this.statistics = instrumented ? new LockStatistics() : null;
 
-		lock = new Object();
+		lock = new ReentrantLock();
+		readable = lock.newCondition();
+		waitingWriters = new ArrayDeque<>();
 
 		readers = 0;
 		writers = 0;
+		waitingReaders = 0;
+		releasedReaders = 0;
+		phase = 0;
 	}
 
 	/**
@@ -48,6 +131,7 @@ public class SimpleReadWriteLock {
 	 *
 	 * @return the reader lock
 	 */
+	@Override
 	public SimpleLock readLock() {
 		return readerLock;
 	}
@@ -57,18 +141,40 @@ public class SimpleReadWriteLock {
 	 *
 	 * @return the writer lock
 	 */
+	@Override
 	public SimpleLock writeLock() {
 		return writerLock;
 	}
 
+	/**
+	 * @brief Returns the admission policy of this lock.
+	 *
+	 * @return the admission policy
+	 */
+	public Policy policy() {
+		return policy;
+	}
+
+	/**
+	 * @brief Returns the wait and hold time statistics of this lock.
+	 *
+	 * @return the statistics, or null if this lock is not instrumented
+	 */
+	public LockStatistics statistics() {
+		return statistics;
+	}
+
 	/**
 	 * @brief Returns the number of active readers.
 	 *
 	 * @return the number of active readers
 	 */
 	public int readers() {
-		synchronized (lock) {
+		lock.lock();
+		try {
 			return readers;
+		} finally {
+			lock.unlock();
 		}
 	}
 
@@ -78,8 +184,11 @@ public class SimpleReadWriteLock {
 	 * @return the number of active writers
 	 */
 	public int writers() {
-		synchronized (lock) {
+		lock.lock();
+		try {
 			return writers;
+		} finally {
+			lock.unlock();
 		}
 	}
 
@@ -95,48 +204,102 @@ public class SimpleReadWriteLock {
 		return other != null && other.getId() == Thread.currentThread().getId();
 	}
 
+	/**
+	 * @brief Determines whether a reader that started waiting in the given phase
+	 * must keep waiting. Must be called while holding the lock object.
+	 *
+	 * @param arrival the phase in which the reader arrived
+	 * @return true if the reader may not be admitted yet
+	 */
+	private boolean readerBlocked(long arrival) {
+		if(writers > 0) {
+			return true;
+		}
+
+		switch(policy) {
+			case WRITER_PREFERRING:
+				return !waitingWriters.isEmpty();
+			case PHASE_FAIR:
+				return !waitingWriters.isEmpty() && arrival == phase;
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * @brief Wakes up the writer at the head of the queue if it might be able to
+	 * proceed. Must be called while holding the lock object.
+	 */
+	private void signalWriter() {
+		if(readers == 0 && writers == 0 && releasedReaders == 0 && !waitingWriters.isEmpty()) {
+			waitingWriters.peekFirst().signal();
+		}
+	}
+
 	/**
 	 * Used to maintain simultaneous read operations.
 	 */
 	private class ReadLock implements SimpleLock {
 
 		/**
-		 * @brief Waits until there are no active writers in the system, then increases the
-		 * number of active readers.
+		 * @brief Waits until the admission policy lets this reader in, then increases
+		 * the number of active readers.
 		 */
 		@Override
 		public void lock() {
-			synchronized (lock) {
-				while (writers > 0) {
-					try {
-						lock.wait();
-					}
-					catch (InterruptedException ex) {
-						Thread.currentThread().interrupt();
+			long start = statistics != null ? System.nanoTime() : 0;
+			boolean waited = false;
+
+			lock.lock();
+			try {
+				long arrival = phase;
+
+				if(readerBlocked(arrival)) {
+					waitingReaders++;
+					waited = true;
+					while(readerBlocked(arrival)) {
+						readable.awaitUninterruptibly();
 					}
+					waitingReaders--;
+				}
+
+				if(waited && arrival != phase && releasedReaders > 0) {
+					releasedReaders--;
 				}
 
 				assert writers == 0;
 				readers++;
+			} finally {
+				lock.unlock();
+			}
+
+			if(statistics != null) {
+				statistics.readAcquired(start, waited);
 			}
 		}
 
 		/**
-		 * @brief Decreases the number of active readers and notifies any waiting threads
-		 * if necessary.
+		 * @brief Decreases the number of active readers and wakes up the next writer
+		 * if this was the last active reader.
 		 *
 		 * @throws IllegalStateException if no readers to unlock
 		 */
 		@Override
 		public void unlock() throws IllegalStateException {
-			synchronized (lock) {
-				if (readers > 0) {
-					readers--;
-				} else if (readers == 0) {
-					lock.notifyAll();
-				} else {
+			lock.lock();
+			try {
+				if(readers <= 0) {
 					throw new IllegalStateException();
 				}
+
+				readers--;
+				signalWriter();
+
+				if(statistics != null) {
+					statistics.readReleased();
+				}
+			} finally {
+				lock.unlock();
 			}
 		}
 
@@ -153,29 +316,42 @@ public class SimpleReadWriteLock {
 		private Thread currentThread;
 
 		/**
-		 * @brief Waits until there are no active readers or writers in the system. Then,
-		 * increases the number of active writers and tracks which thread holds the
-		 * write lock currently.
+		 * @brief Waits until this writer is at the head of the writer queue and there
+		 * are no active readers or writers in the system. Then, increases the number
+		 * of active writers and tracks which thread holds the write lock currently.
 		 */
 		@Override
 		public void lock() {
-			synchronized (lock) {
-				while(readers > 0 || writers > 0) { // Waiting until there are no active readers and writers
-					try {
-						lock.wait();
-					} catch(InterruptedException e) {
-						Thread.currentThread().interrupt();
-					}
+			long start = statistics != null ? System.nanoTime() : 0;
+			boolean waited = false;
+
+			lock.lock();
+			try {
+				Condition turn = lock.newCondition();
+				waitingWriters.addLast(turn);
+
+				while(waitingWriters.peekFirst() != turn || readers > 0 || writers > 0 || releasedReaders > 0) {
+					waited = true;
+					turn.awaitUninterruptibly();
 				}
+
+				waitingWriters.removeFirst();
 				writers++; // Adding a writer
 				currentThread = Thread.currentThread();
 				assert readers == 0;
+			} finally {
+				lock.unlock();
+			}
+
+			if(statistics != null) {
+				statistics.writeAcquired(start, waited);
 			}
 		}
 
 		/**
 		 * @brief Decreases the number of active writers, resets the thread that holds the
-		 * write lock, and notifies any waiting threads if necessary.
+		 * write lock, and wakes up the waiting readers or the next writer depending on
+		 * the admission policy.
 		 *
 		 * @throws IllegalStateException if no writers to unlock
 		 *
@@ -184,12 +360,26 @@ public class SimpleReadWriteLock {
 		 */
 		@Override
 		public void unlock() throws IllegalStateException, ConcurrentModificationException {
-			synchronized(lock) {
+			lock.lock();
+			try {
 				if(sameThread(currentThread)) {
 					if(writers > 0) {
+						if(statistics != null) {
+							statistics.writeReleased();
+						}
+
 						writers--;
 						currentThread = null;
-						lock.notifyAll();
+						phase++;
+
+						if(policy == Policy.PHASE_FAIR) {
+							releasedReaders = waitingReaders;
+						}
+
+						if(waitingReaders > 0 && (policy != Policy.WRITER_PREFERRING || waitingWriters.isEmpty())) {
+							readable.signalAll();
+						}
+						signalWriter();
 					} else {
 						throw new IllegalStateException();
 					}
@@ -198,7 +388,9 @@ public class SimpleReadWriteLock {
 				} else {
 					throw new IllegalStateException();
 				}
+			} finally {
+				lock.unlock();
 			}
 		}
 	}
-}
\ No newline at end of file
+}
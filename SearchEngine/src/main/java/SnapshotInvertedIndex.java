@@ -0,0 +1,174 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @author salimamukhit
+ *
+ * A thread-safe InvertedIndex whose readers never lock. Reads go to an immutable
+ * snapshot published through an atomic reference. Writes are collected in a
+ * pending index and merged into a new snapshot once enough of them have piled
+ * up, or when {@link #publish()} is called. Snapshots are built from
+ * {@link PersistentSortedMap}s, so a new snapshot shares every term, location
+ * and word count that did not change with the previous one, and publishing
+ * costs time in the size of the batch rather than the size of the index.
+ *
+ * The index has no read/write lock, so the lock options of
+ * {@link ConcurrentInvertedIndex} do not apply to it.
+ *
+ * Because snapshots are never modified, the collections returned by the getters
+ * are safe to use after the call returns.
+ */
+public class SnapshotInvertedIndex extends ConcurrentInvertedIndex {
+
+	/** The default number of writes to batch before publishing a new snapshot */
+	public static final int DEFAULT_BATCH = 64;
+
+	/** The currently published snapshot, never modified once published */
+	private final AtomicReference<InvertedIndex> snapshot;
+
+	/** The number of writes to batch before publishing a new snapshot */
+	private final int batchSize;
+
+	/** Writes not yet published, guarded by itself */
+	private InvertedIndex pending;
+
+	/** The number of writes in the pending index */
+	private int pendingWrites;
+
+	/** Constructor */
+	public SnapshotInvertedIndex() {
+		this(DEFAULT_BATCH);
+	}
+
+	/**
+	 * Constructor
+	 * @param batchSize the number of writes to batch before publishing a new snapshot
+	 */
+	public SnapshotInvertedIndex(int batchSize) {
+		super();
+		if(batchSize < 1) {
+			throw new IllegalArgumentException("The batch size has to be at least 1!");
+		}
+		this.batchSize = batchSize;
+		this.snapshot = new AtomicReference<>(new InvertedIndex());
+		this.pending = new InvertedIndex();
+		this.pendingWrites = 0;
+	}
+
+	/**
+	 * @brief Returns the currently published snapshot. The snapshot must not be modified.
+	 * @return the current snapshot
+	 */
+	public InvertedIndex snapshot() {
+		return snapshot.get();
+	}
+
+	/**
+	 * @brief Publishes all pending writes as a new snapshot
+	 */
+	@Override
+	public void publish() {
+		synchronized(this.snapshot) {
+			if(pendingWrites > 0) {
+				snapshot.set(snapshot.get().mergedWith(pending));
+				pending = new InvertedIndex();
+				pendingWrites = 0;
+			}
+		}
+	}
+
+	/**
+	 * @brief Counts a pending write and publishes a new snapshot if the batch is full.
+	 * Must be called while synchronized on the snapshot reference.
+	 */
+	private void wrote() {
+		if(++pendingWrites >= batchSize) {
+			publish();
+		}
+	}
+
+	@Override
+	public void addItem(String item, String location, int position) {
+		synchronized(this.snapshot) {
+			pending.addItem(item, location, position);
+			wrote();
+		}
+	}
+
+	@Override
+	public void addAll(InvertedIndex mergeIndex) {
+		synchronized(this.snapshot) {
+			pending.addAll(mergeIndex);
+			wrote();
+		}
+	}
+
+	@Override
+	public int getWordCount(String path) {
+		return snapshot.get().getWordCount(path);
+	}
+
+	@Override
+	public Collection<String> getAllItems() {
+		return snapshot.get().getAllItems();
+	}
+
+	@Override
+	public Collection<String> getItemPaths(String item) {
+		return snapshot.get().getItemPaths(item);
+	}
+
+	@Override
+	public Collection<Integer> getItemPositions(String item, String path) {
+		return snapshot.get().getItemPositions(item, path);
+	}
+
+	@Override
+	public Integer getItemCountsByPath(String item, String path) {
+		return snapshot.get().getItemCountsByPath(item, path);
+	}
+
+	@Override
+	public boolean hasItem(String item) {
+		return snapshot.get().hasItem(item);
+	}
+
+	@Override
+	public boolean hasPath(String item, String path) {
+		return snapshot.get().hasPath(item, path);
+	}
+
+	@Override
+	public boolean hasPosition(String item, String path, int pos) {
+		return snapshot.get().hasPosition(item, path, pos);
+	}
+
+	@Override
+	public List<QueryResult> exactSearch(Set<String> queries) {
+		return snapshot.get().exactSearch(queries);
+	}
+
+	@Override
+	public List<QueryResult> partialSearch(Set<String> queries) {
+		return snapshot.get().partialSearch(queries);
+	}
+
+	@Override
+	public String toJson() {
+		return snapshot.get().toJson();
+	}
+
+	@Override
+	public void toJson(Path outputPath) throws IOException {
+		snapshot.get().toJson(outputPath);
+	}
+
+	@Override
+	public void writeWordCounts(Path outputPath) throws IOException {
+		snapshot.get().writeWordCounts(outputPath);
+	}
+}
@@ -0,0 +1,74 @@
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ *
+ * @author salimamukhit
+ *
+ * A read/write lock backed by {@link StampedLock}. Taking the read lock is a
+ * single atomic update of the lock state rather than a monitor and a counter, so
+ * it is cheaper than the read lock of {@link SimpleReadWriteLock}, but readers
+ * still update the same word and so still contend with each other.
+ *
+ * The optimistic reads of {@link StampedLock} are not offered, because every read
+ * of an index walks its trees, and a walk that races a rebalancing writer may see
+ * a structure in the middle of a change and never finish. Readers that should not
+ * contend at all read the immutable snapshots of {@link SnapshotInvertedIndex}.
+ */
+public class StampedReadWriteLock implements ReadWriteLockInterface {
+
+	/** The underlying stamped lock */
+	private final StampedLock lock;
+
+	/** The lock used for reading. */
+	private final SimpleLock readerLock;
+
+	/** The lock used for writing. */
+	private final SimpleLock writerLock;
+
+	/**
+	 * Constructor
+	 */
+	public StampedReadWriteLock() {
+		lock = new StampedLock();
+		readerLock = new LockView(lock.asReadLock());
+		writerLock = new LockView(lock.asWriteLock());
+	}
+
+	@Override
+	public SimpleLock readLock() {
+		return readerLock;
+	}
+
+	@Override
+	public SimpleLock writeLock() {
+		return writerLock;
+	}
+
+	/**
+	 * Adapts a {@link Lock} view of the stamped lock to a {@link SimpleLock}.
+	 */
+	private static class LockView implements SimpleLock {
+
+		/** The wrapped lock view */
+		private final Lock view;
+
+		/**
+		 * Constructor
+		 * @param view a lock view to wrap
+		 */
+		public LockView(Lock view) {
+			this.view = view;
+		}
+
+		@Override
+		public void lock() {
+			view.lock();
+		}
+
+		@Override
+		public void unlock() {
+			view.unlock();
+		}
+	}
+}
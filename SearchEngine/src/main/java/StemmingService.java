@@ -0,0 +1,237 @@
+import java.util.concurrent.atomic.LongAdder;
+
+import opennlp.tools.stemmer.Stemmer;
+
+/**
+ * A thread-safe {@link Stemmer} shared by everything that stems words. Each
+ * thread gets its own reusable {@link EnglishStemmer}, and recently stemmed
+ * words are remembered in a bounded cache so that frequent words are only
+ * stemmed once.
+ *
+ * The cache is a fixed-size table where a word can only live in the slot its
+ * hash points to, and a new word simply replaces whatever was there before.
+ * Since word frequencies are heavily skewed, the few words that make up most
+ * of the text keep finding themselves in the cache. Lookups from a character
+ * buffer do not create any objects when the word is found.
+ *
+ * @author salimamukhit
+ */
+public class StemmingService implements Stemmer {
+
+	/** The default number of cache slots */
+	public static final int DEFAULT_CAPACITY = 1 << 16;
+
+	/** The stemming service shared by all callers */
+	private static final StemmingService SHARED = new StemmingService(DEFAULT_CAPACITY);
+
+	/** The cache slots, each holding the last word that hashed to it */
+	private final Entry[] cache;
+
+	/** The mask used to map a hash to a slot */
+	private final int mask;
+
+	/** A reusable stemmer for each thread */
+	private final ThreadLocal<EnglishStemmer> stemmers;
+
+	/** A reusable buffer for each thread to stem words in */
+	private final ThreadLocal<char[]> buffers;
+
+	/** The number of words found in the cache */
+	private final LongAdder hits;
+
+	/** The number of words that had to be stemmed */
+	private final LongAdder misses;
+
+	/**
+	 * Constructor
+	 * @param capacity the number of cache slots, rounded up to a power of two
+	 */
+	public StemmingService(int capacity) {
+		if(capacity < 1) {
+			throw new IllegalArgumentException("The cache needs at least one slot!");
+		}
+		int size = Integer.highestOneBit(capacity);
+		size = size < capacity ? size << 1 : size;
+
+		this.cache = new Entry[size];
+		this.mask = size - 1;
+		this.stemmers = ThreadLocal.withInitial(EnglishStemmer::new);
+		this.buffers = ThreadLocal.withInitial(() -> new char[32]);
+		this.hits = new LongAdder();
+		this.misses = new LongAdder();
+	}
+
+	/**
+	 * @brief Returns the stemming service shared by all callers
+	 * @return the shared stemming service
+	 */
+	public static StemmingService getDefault() {
+		return SHARED;
+	}
+
+	@Override
+	public CharSequence stem(CharSequence word) {
+		return stem(word.toString());
+	}
+
+	/**
+	 * @brief Stems a word
+	 * @param word the word to stem
+	 * @return the stem of the word
+	 */
+	public String stem(String word) {
+		int hash = word.hashCode();
+		int slot = spread(hash) & mask;
+		Entry entry = cache[slot];
+
+		if(entry != null && entry.hash == hash && entry.word.equals(word)) {
+			hits.increment();
+			return entry.stem;
+		}
+
+		return miss(word, hash, slot);
+	}
+
+	/**
+	 * @brief Stems a word held in a character buffer, such as the ones handed out
+	 * by {@link TextTokenizer}
+	 * @param buffer the buffer holding the word, starting at index 0
+	 * @param length the length of the word
+	 * @return the stem of the word
+	 */
+	public String stem(char[] buffer, int length) {
+		int hash = 0;
+		for(int i = 0; i < length; i++) {
+			hash = 31 * hash + buffer[i];
+		}
+		int slot = spread(hash) & mask;
+		Entry entry = cache[slot];
+
+		if(entry != null && entry.hash == hash && entry.matches(buffer, length)) {
+			hits.increment();
+			return entry.stem;
+		}
+
+		return miss(new String(buffer, 0, length), hash, slot);
+	}
+
+	/**
+	 * @brief Stems a word that was not in the cache and remembers the result. The
+	 * word is stemmed in the thread's scratch buffer, so only the stem itself is
+	 * created.
+	 * @param word the word to stem
+	 * @param hash the hash of the word
+	 * @param slot the cache slot of the word
+	 * @return the stem of the word
+	 */
+	private String miss(String word, int hash, int slot) {
+		misses.increment();
+		int length = word.length();
+		char[] scratch = scratch(length);
+		word.getChars(0, length, scratch, 0);
+		String stem = new String(scratch, 0, stemmers.get().stem(scratch, length));
+		cache[slot] = new Entry(word, stem, hash);
+		return stem;
+	}
+
+	/**
+	 * @brief Returns the current thread's scratch buffer, grown to the given length
+	 * @param length the number of characters the buffer has to hold
+	 * @return the scratch buffer
+	 */
+	private char[] scratch(int length) {
+		char[] scratch = buffers.get();
+		if(scratch.length < length) {
+			scratch = new char[Math.max(length, scratch.length * 2)];
+			buffers.set(scratch);
+		}
+		return scratch;
+	}
+
+	/**
+	 * @brief Mixes the high bits of a hash into the low bits used to pick a slot
+	 * @param hash the hash to spread
+	 * @return the spread hash
+	 */
+	private static int spread(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+	 * @brief Getter for the number of cache hits
+	 * @return the number of words found in the cache
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * @brief Getter for the number of cache misses
+	 * @return the number of words that had to be stemmed
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * @brief Returns the fraction of words found in the cache
+	 * @return the hit rate between 0 and 1
+	 */
+	public double getHitRate() {
+		long found = getHits();
+		long total = found + getMisses();
+		return total == 0 ? 0 : (double) found / total;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("stem cache: %d hits, %d misses, %.1f%% hit rate",
+				getHits(), getMisses(), getHitRate() * 100);
+	}
+
+	/**
+	 * An immutable word and its stem. Because all fields are final, entries can be
+	 * shared between threads through the cache without synchronization.
+	 */
+	private static class Entry {
+
+		/** The word */
+		private final String word;
+
+		/** The stem of the word */
+		private final String stem;
+
+		/** The hash of the word */
+		private final int hash;
+
+		/**
+		 * Constructor
+		 * @param word the word
+		 * @param stem the stem of the word
+		 * @param hash the hash of the word
+		 */
+		public Entry(String word, String stem, int hash) {
+			this.word = word;
+			this.stem = stem;
+			this.hash = hash;
+		}
+
+		/**
+		 * @brief Checks whether this entry holds the word in the buffer
+		 * @param buffer the buffer holding a word, starting at index 0
+		 * @param length the length of the word
+		 * @return true if the words are equal
+		 */
+		public boolean matches(char[] buffer, int length) {
+			if(word.length() != length) {
+				return false;
+			}
+			for(int i = 0; i < length; i++) {
+				if(word.charAt(i) != buffer[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
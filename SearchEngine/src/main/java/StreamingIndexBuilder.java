@@ -0,0 +1,171 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ *
+ * @author salimamukhit
+ *
+ * A ConcurrentIndexBuilder that submits files to the work queue while it is still
+ * walking the directory tree, so that parsing starts with the first file found
+ * instead of after the whole tree has been listed. Subdirectories can be walked
+ * by several threads in parallel, which helps on slow file systems.
+ *
+ * The same files are found as by {@link TextFileFinder#list(Path)}, but they are
+ * submitted in the order they are found rather than largest first.
+ */
+public class StreamingIndexBuilder extends ConcurrentIndexBuilder {
+
+	/** The number of threads walking the directory tree */
+	private final int walkers;
+
+	/**
+	 * Constructor
+	 * @param index InvertedIndex structure
+	 * @param queue the work queue
+	 * @param splitSize the size in bytes above which a file is split into chunks
+	 * @param walkers the number of threads walking the directory tree
+	 */
+	public StreamingIndexBuilder(ConcurrentInvertedIndex index, WorkQueue queue, int splitSize, int walkers) {
+		super(index, queue, splitSize);
+		if(walkers < 1) {
+			throw new IllegalArgumentException("There has to be at least one walker!");
+		}
+		this.walkers = walkers;
+	}
+
+	/**
+	 * @brief Submits every text file in the path to the work queue as soon as it is
+	 * found
+	 * @param start a starting path
+	 * @throws IOException if an I/O error occurs
+	 */
+	@Override
+	protected void submitAll(Path start) throws IOException {
+		if(!Files.isDirectory(start)) {
+			parseFile(start);
+		} else if(walkers == 1) {
+			walk(start);
+		} else {
+			ForkJoinPool pool = new ForkJoinPool(walkers);
+			try {
+				pool.invoke(new WalkTask(start, List.of()));
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			} finally {
+				pool.shutdown();
+			}
+		}
+	}
+
+	/**
+	 * @brief Walks the directory tree on the calling thread, following symbolic links
+	 * @param start the directory to walk
+	 * @throws IOException if an I/O error occurs
+	 */
+	private void walk(Path start) throws IOException {
+		Files.walkFileTree(start, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+				new SimpleFileVisitor<Path>() {
+					@Override
+					public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+						visit(file, attributes);
+						return FileVisitResult.CONTINUE;
+					}
+				});
+	}
+
+	/**
+	 * @brief Submits a file if it is a text file or an archive
+	 * @param file the file found
+	 * @param attributes the attributes of the file
+	 */
+	private void visit(Path file, BasicFileAttributes attributes) {
+		if(attributes.isRegularFile() && (TextFileFinder.hasTextName(file) || ArchiveReader.isArchive(file))) {
+			schedule(file, attributes.size());
+		}
+	}
+
+	/**
+	 * @brief Reads the attributes of a path, following symbolic links unless the link
+	 * is broken
+	 * @param path the path
+	 * @return the attributes of the path
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static BasicFileAttributes attributes(Path path) throws IOException {
+		try {
+			return Files.readAttributes(path, BasicFileAttributes.class);
+		} catch (IOException e) {
+			return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+		}
+	}
+
+	/**
+	 *
+	 * @author salimamukhit
+	 *
+	 * Lists one directory, submits its text files and walks its subdirectories in
+	 * parallel
+	 */
+	private class WalkTask extends RecursiveAction {
+
+		/** Unique serialization identifier */
+		private static final long serialVersionUID = 1L;
+
+		/** The directory to walk */
+		private final Path directory;
+
+		/** The file keys of the directories above this one, used to detect cycles */
+		private final List<Object> ancestors;
+
+		/**
+		 * Constructor
+		 * @param directory the directory to walk
+		 * @param ancestors the file keys of the directories above this one
+		 */
+		public WalkTask(Path directory, List<Object> ancestors) {
+			this.directory = directory;
+			this.ancestors = ancestors;
+		}
+
+		@Override
+		protected void compute() {
+			List<WalkTask> subdirectories = new ArrayList<>();
+
+			try(DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+				List<Object> path = new ArrayList<>(ancestors);
+				path.add(attributes(directory).fileKey());
+
+				for(Path entry : entries) {
+					BasicFileAttributes attributes = attributes(entry);
+					if(attributes.isDirectory()) {
+						Object key = attributes.fileKey();
+						if(key != null && path.contains(key)) {
+							throw new FileSystemLoopException(entry.toString());
+						}
+						subdirectories.add(new WalkTask(entry, path));
+					} else {
+						visit(entry, attributes);
+					}
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+
+			invokeAll(subdirectories);
+		}
+	}
+}
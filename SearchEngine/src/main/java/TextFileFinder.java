@@ -23,14 +23,63 @@ public class TextFileFinder {
 	 * {@link Files#walk(Path, FileVisitOption...)}.
 	 */
 	public static final Predicate<Path> IS_TEXT = (path) -> {
-		String filename = path.toString().toLowerCase();
 		if(Files.isRegularFile(path)) {
-			return (filename.endsWith(".txt") || filename.endsWith(".text") &&
-				!filename.startsWith("."));
+			return hasTextName(path);
 		}
 		return false;
 	};
 
+	/**
+	 * @brief Checks whether a path has a .txt or .text extension (case-insensitive),
+	 * without looking at the file itself.
+	 *
+	 * @param path the path to check
+	 * @return true if the path looks like a text file
+	 */
+	public static boolean hasTextName(Path path) {
+		return hasTextName(path.toString());
+	}
+
+	/**
+	 * @brief Checks whether a file name, such as the name of an archive entry, has a
+	 * .txt or .text extension (case-insensitive).
+	 *
+	 * @param name the name to check
+	 * @return true if the name looks like a text file
+	 */
+	public static boolean hasTextName(String name) {
+		String filename = name.toLowerCase();
+		return (filename.endsWith(".txt") || filename.endsWith(".text") &&
+			!filename.startsWith("."));
+	}
+
+	/**
+	 * @brief A lambda function that returns true if the path is a zip, tar, gzipped tar
+	 * or gzipped text file that {@link ArchiveReader} can read text files from.
+	 */
+	public static final Predicate<Path> IS_ARCHIVE = (path) -> {
+		if(Files.isRegularFile(path)) {
+			return hasArchiveName(path);
+		}
+		return false;
+	};
+
+	/**
+	 * @brief Checks whether a path has the extension of an archive that may contain text
+	 * files (case-insensitive), without looking at the file itself.
+	 *
+	 * @param path the path to check
+	 * @return true if the path looks like an archive
+	 */
+	public static boolean hasArchiveName(Path path) {
+		String filename = path.toString().toLowerCase();
+		if(filename.endsWith(".gz") && !filename.endsWith(".tar.gz")) {
+			return hasTextName(filename.substring(0, filename.length() - 3));
+		}
+		return filename.endsWith(".zip") || filename.endsWith(".tar") || filename.endsWith(".tar.gz") ||
+			filename.endsWith(".tgz");
+	}
+
 	/**
 	 * @brief Returns a stream of matching files, following any symbolic links
 	 * encountered.
@@ -45,14 +94,17 @@ public class TextFileFinder {
 	};
 
 	/**
-	 * @brief Returns a stream of text files, following any symbolic links encountered.
+	 * @brief Returns a stream of text files, and of archives of text files if
+	 * reading archives is turned on, following any symbolic links encountered.
 	 *
 	 * @param start the initial path to start with
-	 * @return a stream of text files
+	 * @return a stream of text files and archives
 	 * @throws IOException if an IO error occurs
+	 *
+	 * @see ArchiveReader#setEnabled(boolean)
 	 */
 	public static Stream<Path> find(Path start) throws IOException {
-		return find(start, IS_TEXT);
+		return find(start, ArchiveReader.isEnabled() ? IS_TEXT.or(IS_ARCHIVE) : IS_TEXT);
 	}
 
 	/**
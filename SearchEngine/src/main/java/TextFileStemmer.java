@@ -31,9 +31,9 @@ public class TextFileStemmer {
 	 * @return a list of cleaned and stemmed words
 	 */
 	public static ArrayList<String> listStems(String line) {
-		Stemmer stemmer = new SnowballStemmer(DEFAULT);
+		Stemmer stemmer = StemmingService.getDefault();
 		ArrayList<String> result = new ArrayList<>();
-		stemLine(line, stemmer, result);
+		stemLine(line, stemmer, new TextTokenizer(), result);
 		return result;
 	}
 
@@ -47,7 +47,7 @@ public class TextFileStemmer {
 	 */
 	public static TreeSet<String> uniqueStems(String line, Stemmer stemmer) {
 		TreeSet<String> result = new TreeSet<>();
-		stemLine(line, stemmer, result);
+		stemLine(line, stemmer, new TextTokenizer(), result);
 		return result;
 	}
 	
@@ -60,14 +60,15 @@ public class TextFileStemmer {
 	 * @throws IOException if I/O error occurs
 	 */
 	public static TreeSet<String> uniqueStems(Path inputFile) throws IOException {
-		Stemmer stemmer = new SnowballStemmer(DEFAULT);
+		Stemmer stemmer = StemmingService.getDefault();
 		TreeSet<String> result = new TreeSet<>();
+		TextTokenizer tokenizer = new TextTokenizer();
 		try (
 			BufferedReader br = Files.newBufferedReader(inputFile, StandardCharsets.UTF_8);
 		) {
 			String line;
 			while((line = br.readLine()) != null) {
-				stemLine(line, stemmer, result);
+				stemLine(line, stemmer, tokenizer, result);
 			}
 		}
 		return result;
@@ -82,15 +83,16 @@ public class TextFileStemmer {
 	 * @throws IOException if I/O error occurs
 	 */
 	public static ArrayList<String> listStems(Path inputFile) throws IOException {
-		Stemmer stemmer = new SnowballStemmer(DEFAULT);
+		Stemmer stemmer = StemmingService.getDefault();
 		ArrayList<String> result = new ArrayList<>();
+		TextTokenizer tokenizer = new TextTokenizer();
 		try (
 				BufferedReader br = Files.newBufferedReader(inputFile, StandardCharsets.UTF_8);
 				)
 		{
 			String line;
 			while((line = br.readLine()) != null) {
-				stemLine(line, stemmer, result);
+				stemLine(line, stemmer, tokenizer, result);
 			}
 		}
 		return result;
@@ -100,11 +102,15 @@ public class TextFileStemmer {
 	 * @brief A helper method for stemming a line
 	 * @param line a line to stem
 	 * @param stemmer a stemmer object
+	 * @param tokenizer a tokenizer object
 	 * @param result a container for the output
 	 */
-	private static void stemLine(String line, Stemmer stemmer, Collection<String> result) {
-		for(String s : TextParser.parse(line)) {
-			result.add(stemmer.stem(s).toString());
+	private static void stemLine(String line, Stemmer stemmer, TextTokenizer tokenizer, Collection<String> result) {
+		if(stemmer instanceof StemmingService) {
+			StemmingService service = (StemmingService) stemmer;
+			tokenizer.tokenize(line, (buffer, length) -> result.add(service.stem(buffer, length)));
+		} else {
+			tokenizer.tokenize(line, (buffer, length) -> result.add(stemmer.stem(new String(buffer, 0, length)).toString()));
 		}
 	}
 }
@@ -1,4 +1,5 @@
 import java.text.Normalizer;
+import java.util.ArrayList;
 import java.util.regex.Pattern;
 
 /**
@@ -40,12 +41,15 @@ public class TextParser {
 	}
 
 	/**
-	 * @brief Parses the text into an array of clean words.
+	 * @brief Parses the text into an array of clean words. Produces the same words as
+	 * {@code split(clean(text))} in a single pass using a {@link TextTokenizer}.
 	 *
 	 * @param text the text to clean and split
 	 * @return an array of {@link String} objects
 	 */
 	public static String[] parse(String text) {
-		return split(clean(text));
+		ArrayList<String> words = new ArrayList<>();
+		new TextTokenizer().tokenize(text, (buffer, length) -> words.add(new String(buffer, 0, length)));
+		return words.toArray(new String[0]);
 	}
 }
@@ -0,0 +1,315 @@
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * A single-pass tokenizer that produces the same words as
+ * {@link TextParser#parse(String)} without creating any intermediate strings.
+ * Characters are classified, stripped of diacritical marks and lowercased one
+ * at a time, and each finished word is handed to a {@link TokenConsumer} in a
+ * buffer that is reused for the next word.
+ *
+ * Text that only contains ASCII characters skips Unicode normalization. Other
+ * text is decomposed first, so that accented letters lose their marks just like
+ * they do in {@link TextParser#clean(String)}.
+ *
+ * Text may be fed in several pieces with {@link #feed(CharSequence, TokenConsumer)};
+ * a word that is cut off at the end of one piece continues in the next one until
+ * {@link #finish(TokenConsumer)} is called. A piece may even end between the two
+ * halves of a surrogate pair. This class is not thread-safe.
+ *
+ * @author salimamukhit
+ */
+public class TextTokenizer {
+
+	/**
+	 * Receives the words found by the tokenizer.
+	 */
+	@FunctionalInterface
+	public interface TokenConsumer {
+		/**
+		 * @brief Accepts a word. The buffer is reused once this method returns.
+		 * @param buffer the buffer holding the word, starting at index 0
+		 * @param length the length of the word
+		 */
+		public void accept(char[] buffer, int length);
+	}
+
+	/** ASCII class of a letter */
+	private static final byte LETTER = 1;
+
+	/** ASCII class of whitespace */
+	private static final byte SPACE = 2;
+
+	/** Classes of the ASCII characters, anything else is removed */
+	private static final byte[] ASCII = new byte[128];
+
+	static {
+		for(char c = 'a'; c <= 'z'; c++) {
+			ASCII[c] = LETTER;
+			ASCII[Character.toUpperCase(c)] = LETTER;
+		}
+		for(char c = '\t'; c <= '\r'; c++) {
+			ASCII[c] = SPACE;
+		}
+		ASCII[' '] = SPACE;
+	}
+
+	/** The capital sigma, which has two lowercase forms */
+	private static final char CAPITAL_SIGMA = '\u03A3';
+
+	/** The default number of characters the word buffer can hold */
+	private static final int DEFAULT_CAPACITY = 32;
+
+	/** Whether 'I' lowercases to a dotless i, as in the Turkish locales */
+	private final boolean dotlessI;
+
+	/** The reusable word buffer */
+	private char[] buffer;
+
+	/** The length of the word in the buffer */
+	private int length;
+
+	/** The current word before lowercasing, only needed for words with a capital sigma */
+	private char[] original;
+
+	/** The length of the word before lowercasing */
+	private int originalLength;
+
+	/** The number of capital sigmas in the current word */
+	private int sigmaCount;
+
+	/** Whether no letter has been seen since the text started */
+	private boolean start;
+
+	/** The high surrogate the last piece ended with, or 0 if it did not end with one */
+	private char highSurrogate;
+
+	/**
+	 * Whether the text started with whitespace that {@link String#strip()} does not
+	 * remove, which makes {@link TextParser#split(String)} produce an empty first word
+	 */
+	private boolean leadingEmpty;
+
+	/**
+	 * Constructor
+	 */
+	public TextTokenizer() {
+		String language = Locale.getDefault().getLanguage();
+		this.dotlessI = language.equals("tr") || language.equals("az");
+		this.buffer = new char[DEFAULT_CAPACITY];
+		this.original = new char[DEFAULT_CAPACITY];
+		reset();
+	}
+
+	/**
+	 * @brief Tokenizes a complete text. Equivalent to feeding the text and then
+	 * finishing.
+	 * @param text the text to tokenize
+	 * @param consumer the consumer of the words
+	 */
+	public void tokenize(CharSequence text, TokenConsumer consumer) {
+		feed(text, consumer);
+		finish(consumer);
+	}
+
+	/**
+	 * @brief Tokenizes the next piece of a text. The last word of the piece is held
+	 * back until more text or {@link #finish(TokenConsumer)} shows that it ended.
+	 * @param text the next piece of text
+	 * @param consumer the consumer of the words
+	 */
+	public void feed(CharSequence text, TokenConsumer consumer) {
+		int size = text.length();
+		if(size == 0) {
+			return;
+		}
+
+		int i = 0;
+		if(highSurrogate != 0) {
+			// the last piece ended in the middle of a surrogate pair
+			char high = highSurrogate;
+			highSurrogate = 0;
+			if(Character.isLowSurrogate(text.charAt(0))) {
+				feedUnicode(new String(new char[] {high, text.charAt(0)}), consumer);
+				i = 1;
+			}
+		}
+		if(Character.isHighSurrogate(text.charAt(size - 1))) {
+			highSurrogate = text.charAt(--size);
+		}
+
+		for(; i < size; i++) {
+			char c = text.charAt(i);
+
+			if(c >= 128) {
+				CharSequence rest = text.subSequence(i, size);
+				if(!Normalizer.isNormalized(rest, Normalizer.Form.NFD)) {
+					rest = Normalizer.normalize(rest, Normalizer.Form.NFD);
+				}
+				feedUnicode(rest, consumer);
+				return;
+			}
+
+			switch(ASCII[c]) {
+				case LETTER:
+					startWord(consumer);
+					append(c <= 'Z' ? (dotlessI && c == 'I' ? '\u0131' : (char) (c + 32)) : c, c);
+					break;
+				case SPACE:
+					if(length > 0) {
+						emit(consumer);
+					}
+					break;
+				default:
+					break;
+			}
+		}
+	}
+
+	/**
+	 * @brief Tokenizes a piece of text in normalization form D
+	 * @param text the text to tokenize
+	 * @param consumer the consumer of the words
+	 */
+	private void feedUnicode(CharSequence text, TokenConsumer consumer) {
+		int size = text.length();
+
+		for(int i = 0; i < size; ) {
+			int cp = Character.codePointAt(text, i);
+			i += Character.charCount(cp);
+
+			if(cp < 128 ? ASCII[cp] == LETTER : Character.isAlphabetic(cp)) {
+				startWord(consumer);
+				if(cp == CAPITAL_SIGMA) {
+					sigmaCount++;
+				}
+				appendCodePoint(dotlessI && cp == 'I' ? '\u0131' : Character.toLowerCase(cp), cp);
+			} else if(isSpace(cp)) {
+				if(length > 0) {
+					emit(consumer);
+				} else if(start && !Character.isWhitespace(cp)) {
+					leadingEmpty = true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @brief Ends the text, handing over the last word if there is one. The
+	 * tokenizer may be used for another text afterwards.
+	 * @param consumer the consumer of the words
+	 */
+	public void finish(TokenConsumer consumer) {
+		if(length > 0) {
+			emit(consumer);
+		}
+		reset();
+	}
+
+	/**
+	 * @brief Tells the tokenizer that the text it is about to be fed continues a line
+	 * that already contained a word, so that it does not apply the rules for the
+	 * start of a line. Used when a long line is split into pieces that are tokenized
+	 * separately.
+	 */
+	public void continueLine() {
+		start = false;
+	}
+
+	/**
+	 * @brief Prepares the tokenizer for a new text
+	 */
+	private void reset() {
+		length = 0;
+		originalLength = 0;
+		sigmaCount = 0;
+		start = true;
+		leadingEmpty = false;
+		// a high surrogate without its low half is neither a letter nor a space
+		highSurrogate = 0;
+	}
+
+	/**
+	 * @brief Called before a letter is added to the buffer. Hands over the empty
+	 * first word if the text started with non-strippable whitespace.
+	 * @param consumer the consumer of the words
+	 */
+	private void startWord(TokenConsumer consumer) {
+		if(start) {
+			if(leadingEmpty) {
+				consumer.accept(buffer, 0);
+			}
+			start = false;
+		}
+	}
+
+	/**
+	 * @brief Hands over the word in the buffer and clears it. Whether a capital sigma
+	 * lowercases to its final form depends on the letters around it, so the rare
+	 * words that contain one are lowercased by {@link String#toLowerCase()} instead.
+	 * @param consumer the consumer of the words
+	 */
+	private void emit(TokenConsumer consumer) {
+		if(sigmaCount > 0) {
+			String word = new String(original, 0, originalLength).toLowerCase();
+			length = word.length();
+			if(length > buffer.length) {
+				buffer = new char[length];
+			}
+			word.getChars(0, length, buffer, 0);
+		}
+		consumer.accept(buffer, length);
+		length = 0;
+		originalLength = 0;
+		sigmaCount = 0;
+	}
+
+	/**
+	 * @brief Checks whether a code point is whitespace in the sense of the Unicode
+	 * {@code \p{Space}} class used by {@link TextParser}
+	 * @param cp the code point to check
+	 * @return true if the code point is whitespace
+	 */
+	private static boolean isSpace(int cp) {
+		int separators = (1 << Character.SPACE_SEPARATOR) | (1 << Character.LINE_SEPARATOR) |
+				(1 << Character.PARAGRAPH_SEPARATOR);
+		return ((separators >> Character.getType(cp)) & 1) != 0 || (cp >= 0x9 && cp <= 0xd) || cp == 0x85;
+	}
+
+	/**
+	 * @brief Adds a character to the word, growing the buffers if needed
+	 * @param lower the lowercase character to add
+	 * @param c the character before lowercasing
+	 */
+	private void append(char lower, char c) {
+		if(length == buffer.length) {
+			buffer = Arrays.copyOf(buffer, length * 2);
+		}
+		if(originalLength == original.length) {
+			original = Arrays.copyOf(original, originalLength * 2);
+		}
+		buffer[length++] = lower;
+		original[originalLength++] = c;
+	}
+
+	/**
+	 * @brief Adds a code point to the word, growing the buffers if needed
+	 * @param lower the lowercase code point to add
+	 * @param cp the code point before lowercasing
+	 */
+	private void appendCodePoint(int lower, int cp) {
+		if(Character.isBmpCodePoint(lower) && Character.isBmpCodePoint(cp)) {
+			append((char) lower, (char) cp);
+		} else {
+			if(length + 2 > buffer.length) {
+				buffer = Arrays.copyOf(buffer, buffer.length * 2);
+			}
+			if(originalLength + 2 > original.length) {
+				original = Arrays.copyOf(original, original.length * 2);
+			}
+			length += Character.toChars(lower, buffer, length);
+			originalLength += Character.toChars(cp, original, originalLength);
+		}
+	}
+}
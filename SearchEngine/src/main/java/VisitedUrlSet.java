@@ -0,0 +1,177 @@
+import java.net.URL;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The set of URLs a crawl has already seen. URLs are compared by a 64-bit
+ * fingerprint of their normalized form, so checking a URL never resolves its
+ * host the way {@link URL#equals(Object)} does. The fingerprints are kept in
+ * {@link LongHashSet}s of primitive longs, which take between 11 and 22 bytes per
+ * URL. The set is split into stripes by fingerprint, each with its own lock, so
+ * it is safe to use from several threads without an outside lock and threads
+ * adding different URLs rarely wait for each other.
+ *
+ * For very large crawls the set can be backed by a {@link BloomFilter} alone,
+ * which uses a few bits per URL. In that mode a small fraction of new URLs is
+ * mistaken for ones that were seen before, so they are skipped.
+ *
+ * @author salimamukhit
+ */
+public class VisitedUrlSet {
+
+	/** The default false positive probability of the Bloom filter */
+	public static final double DEFAULT_FALSE_POSITIVES = 0.001;
+
+	/** The number of stripes of the set, each with its own lock */
+	private static final int STRIPES = 64;
+
+	/** The fingerprints of the URLs seen in every stripe, or null if the Bloom filter is used */
+	private final LongHashSet[] fingerprints;
+
+	/** The Bloom filter of the URLs seen, or null if the fingerprints are kept */
+	private final BloomFilter filter;
+
+	/** The locks of the stripes, which also make adding the same fingerprint to the filter atomic */
+	private final Object[] stripes;
+
+	/** The number of URLs added */
+	private final AtomicLong size;
+
+	/**
+	 * Constructor for a set that keeps the fingerprint of every URL
+	 */
+	public VisitedUrlSet() {
+		this.fingerprints = new LongHashSet[STRIPES];
+		for(int i = 0; i < STRIPES; i++) {
+			this.fingerprints[i] = new LongHashSet();
+		}
+		this.filter = null;
+		this.stripes = locks();
+		this.size = new AtomicLong();
+	}
+
+	/**
+	 * Constructor for a set that only keeps a Bloom filter of the URLs
+	 * @param expected the number of URLs expected to be added
+	 * @param falsePositives the probability that a new URL is taken for a seen one
+	 *        once that many have been added
+	 */
+	public VisitedUrlSet(long expected, double falsePositives) {
+		this.fingerprints = null;
+		this.filter = new BloomFilter(expected, falsePositives);
+		this.stripes = locks();
+		this.size = new AtomicLong();
+	}
+
+	/**
+	 * @brief Creates the locks of the stripes
+	 * @return a lock for every stripe
+	 */
+	private static Object[] locks() {
+		Object[] locks = new Object[STRIPES];
+		for(int i = 0; i < STRIPES; i++) {
+			locks[i] = new Object();
+		}
+		return locks;
+	}
+
+	/**
+	 * @brief Adds a URL to the set
+	 * @param url the url to add
+	 * @return true if the url had not been seen before
+	 */
+	public boolean add(URL url) {
+		long fingerprint = fingerprint(url);
+		int stripe = stripe(fingerprint);
+		boolean added;
+		synchronized(stripes[stripe]) {
+			added = filter == null ? fingerprints[stripe].add(fingerprint) : filter.add(fingerprint);
+		}
+		if(added) {
+			size.incrementAndGet();
+		}
+		return added;
+	}
+
+	/**
+	 * @brief Checks whether a URL has been seen
+	 * @param url the url to check
+	 * @return true if the url has been added before
+	 */
+	public boolean contains(URL url) {
+		return contains(fingerprint(url));
+	}
+
+	/**
+	 * @brief Checks whether a URL with the given fingerprint has been seen
+	 * @param fingerprint the fingerprint of the url, see {@link #fingerprint(URL)}
+	 * @return true if a url with the fingerprint has been added before
+	 */
+	public boolean contains(long fingerprint) {
+		if(filter != null) {
+			return filter.mightContain(fingerprint);
+		}
+		int stripe = stripe(fingerprint);
+		synchronized(stripes[stripe]) {
+			return fingerprints[stripe].contains(fingerprint);
+		}
+	}
+
+	/**
+	 * @brief Returns the stripe of a fingerprint, taken from its top bits
+	 * @param fingerprint the fingerprint
+	 * @return the index of the stripe
+	 */
+	private static int stripe(long fingerprint) {
+		return (int) (fingerprint >>> 58) & (STRIPES - 1);
+	}
+
+	/**
+	 * @brief Returns the number of URLs added
+	 * @return the size of the set
+	 */
+	public long size() {
+		return size.get();
+	}
+
+	/**
+	 * @brief Normalizes a URL without resolving its host: the protocol and host are
+	 * lowercased, the default port is left out, an empty path becomes "/" and the
+	 * fragment is removed. Two URLs that {@link URL#equals(Object)} considers equal
+	 * without resolving hosts have the same normalized form.
+	 * @param url the url to normalize
+	 * @return the normalized url
+	 */
+	public static String normalize(URL url) {
+		StringBuilder builder = new StringBuilder();
+		builder.append(url.getProtocol().toLowerCase(Locale.ROOT)).append("://");
+		builder.append(url.getHost().toLowerCase(Locale.ROOT));
+		if(url.getPort() >= 0 && url.getPort() != url.getDefaultPort()) {
+			builder.append(':').append(url.getPort());
+		}
+		builder.append(url.getFile().isEmpty() ? "/" : url.getFile());
+		return builder.toString();
+	}
+
+	/**
+	 * @brief Computes the 64-bit fingerprint of the normalized form of a URL
+	 * @param url the url
+	 * @return the fingerprint
+	 */
+	public static long fingerprint(URL url) {
+		String text = normalize(url);
+
+		// FNV-1a over the characters, followed by the MurmurHash3 finalizer
+		long hash = 0xcbf29ce484222325L;
+		for(int i = 0; i < text.length(); i++) {
+			hash ^= text.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+}
@@ -1,10 +1,9 @@
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.HashSet;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
-
-import opennlp.tools.stemmer.snowball.SnowballStemmer;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 
@@ -17,17 +16,50 @@ public class WebCrawler {
 	/** The default number of redirects when fetching HTML */
 	private static final int REDIRECTS = 3;
 	
+	/** The most pages of the frontier handed to the work queue at once */
+	private static final int WINDOW = 64;
+	
+	/** The most pages merged into the index at once by the index stage */
+	private static final int INDEX_BATCH = 16;
+	
 	/** A Concurrent Inverted Index structure that supports multithreading */
 	private final ConcurrentInvertedIndex index;
 	
 	/** A maximum amount of links to be parsed */
 	private final int max;
 	
-	/** A Work Queue object*/
-	private final WorkQueue queue;
+	/** The links seen so far, which are never crawled again */
+	private final VisitedUrlSet links;
+	
+	/** The number of links handed to the work queue */
+	private final AtomicInteger scheduled;
+	
+	/** The frontier kept on disk, or null if the crawl is only kept in memory */
+	private final CrawlFrontier frontier;
+	
+	/** The scheduler that hands pages to the work queue politely */
+	private final PolitenessScheduler scheduler;
+	
+	/** The lock that guards the number of pages in progress */
+	private final Object dispatch;
+	
+	/** The number of pages handed to the work queue and not done yet */
+	private int inFlight;
+	
+	/** The number of threads that parse pages, or 0 if every page is crawled on one thread */
+	private int parsers;
+	
+	/** The number of threads that merge pages into the index */
+	private int writers;
 	
-	/** A Set object that stores links to parse */
-	private final Set<URL> links;
+	/** The number of pages that fit in the queue of each stage */
+	private int capacity;
+	
+	/** The stage that parses fetched pages, or null if there is no pipeline */
+	private PipelineStage<CrawlerTask> parseStage;
+	
+	/** The stage that merges parsed pages into the index, or null if there is no pipeline */
+	private PipelineStage<CrawlerTask> indexStage;
 	
 	/**
 	 * Constructor
@@ -36,81 +68,414 @@ public class WebCrawler {
 	 * @param max a maximum amount of links to be parsed
 	 */
 	public WebCrawler(ConcurrentInvertedIndex index, WorkQueue queue, int max) {
+		this(index, queue, max, new VisitedUrlSet());
+	}
+	
+	/**
+	 * Constructor
+	 * @param index a thread-safe Inverted Index structure
+	 * @param queue a Work Queue object
+	 * @param max a maximum amount of links to be parsed
+	 * @param links the set that remembers the links seen
+	 */
+	public WebCrawler(ConcurrentInvertedIndex index, WorkQueue queue, int max, VisitedUrlSet links) {
+		this(index, queue, max, links, new PolitenessScheduler(queue));
+	}
+	
+	/**
+	 * Constructor
+	 * @param index a thread-safe Inverted Index structure
+	 * @param queue a Work Queue object
+	 * @param max a maximum amount of links to be parsed
+	 * @param links the set that remembers the links seen
+	 * @param scheduler the scheduler that hands pages to the work queue
+	 */
+	public WebCrawler(ConcurrentInvertedIndex index, WorkQueue queue, int max, VisitedUrlSet links,
+			PolitenessScheduler scheduler) {
+		this.index = index;
+		this.max = max;
+		this.links = links;
+		this.scheduled = new AtomicInteger();
+		this.frontier = null;
+		this.scheduler = scheduler;
+		this.dispatch = new Object();
+	}
+	
+	/**
+	 * Constructor for a crawl that keeps its frontier on disk, so that it can be
+	 * resumed. Only a bounded number of pages sits in the work queue at a time, and
+	 * the rest of the frontier is read back from disk as pages are done.
+	 * @param index a thread-safe Inverted Index structure
+	 * @param queue a Work Queue object
+	 * @param max a maximum amount of links to be parsed
+	 * @param frontier the frontier of the crawl, which the caller closes once the crawl is done
+	 */
+	public WebCrawler(ConcurrentInvertedIndex index, WorkQueue queue, int max, CrawlFrontier frontier) {
+		this(index, queue, max, frontier, new PolitenessScheduler(queue));
+	}
+	
+	/**
+	 * Constructor for a crawl that keeps its frontier on disk
+	 * @param index a thread-safe Inverted Index structure
+	 * @param queue a Work Queue object
+	 * @param max a maximum amount of links to be parsed
+	 * @param frontier the frontier of the crawl, which the caller closes once the crawl is done
+	 * @param scheduler the scheduler that hands pages to the work queue
+	 */
+	public WebCrawler(ConcurrentInvertedIndex index, WorkQueue queue, int max, CrawlFrontier frontier,
+			PolitenessScheduler scheduler) {
 		this.index = index;
-		this.queue = queue;
 		this.max = max;
-		this.links = new HashSet<>();
+		this.links = null;
+		this.scheduled = null;
+		this.frontier = frontier;
+		this.scheduler = scheduler;
+		this.dispatch = new Object();
+	}
+	
+	/**
+	 * @brief Splits the crawl into a pipeline of stages. The threads of the work
+	 * queue only fetch pages, and hand them to a stage of parser threads, which find
+	 * the words and links of a page and hand the words to a stage of threads that
+	 * merge them into the index in batches. A full stage holds back the stage in
+	 * front of it. Has to be called before the crawl starts.
+	 * @param parsers the number of threads that parse pages
+	 * @param writers the number of threads that merge pages into the index
+	 * @param capacity the number of pages that fit in the queue of each stage
+	 */
+	public void usePipeline(int parsers, int writers, int capacity) {
+		if(parsers < 1 || writers < 1 || capacity < 1) {
+			throw new IllegalArgumentException("Every stage needs at least one thread and one page of room!");
+		}
+		this.parsers = parsers;
+		this.writers = writers;
+		this.capacity = capacity;
+	}
+	
+	/**
+	 * @brief Returns the statistics of the stages of the pipeline of the last crawl
+	 * @return a line for every stage, or an empty string if there is no pipeline
+	 */
+	public String pipelineStatistics() {
+		if(this.parseStage == null) {
+			return "";
+		}
+		return this.parseStage.toString() + this.indexStage.toString();
 	}
 	
 	/**
 	 * 
 	 * @param url a url to start crawling from
 	 * @throws MalformedURLException if URL is Malformed
+	 * @throws IOException if the frontier cannot be read or written
 	 */
-	public void crawl(String url) throws MalformedURLException {
+	public void crawl(String url) throws IOException {
 			URL seedUrl = new URL(url);
 			
-			synchronized(this.links) {
-				this.links.add(seedUrl);
+			if(this.parsers > 0) {
+				this.parseStage = new PipelineStage<>("parse", this.parsers, this.capacity, 1, this::parsePages);
+				this.indexStage = new PipelineStage<>("index", this.writers, this.capacity, INDEX_BATCH, this::indexPages);
 			}
 			
-			this.queue.execute(new CrawlerTask(seedUrl));
-			this.queue.finish();
+			try {
+				if(this.frontier != null) {
+					crawlFrontier(seedUrl);
+					return;
+				}
+				
+				if(this.links.add(seedUrl)) {
+					this.scheduled.incrementAndGet();
+				}
+				
+				submit(seedUrl);
+				awaitPages();
+				this.scheduler.finish();
+			} finally {
+				if(this.parseStage != null) {
+					this.parseStage.shutdown();
+					this.indexStage.shutdown();
+				}
+				// the hosts of a crawl are unlikely to be fetched from again
+				HttpConnectionPool.getDefault().closeAll();
+			}
+			this.index.publish();
+	}
+	
+	/**
+	 * @brief Crawls the links of the frontier until none is left. The pages crawled
+	 * before the frontier was resumed are restored into the index first, and the
+	 * seed is only added if the frontier has not seen it yet.
+	 * @param seedUrl a url to start crawling from
+	 * @throws IOException if the frontier cannot be read or written
+	 */
+	private void crawlFrontier(URL seedUrl) throws IOException {
+		this.frontier.restore(this.index);
+		this.frontier.add(seedUrl, this.max);
+		
+		try {
+			while(true) {
+				synchronized(this.dispatch) {
+					while(this.inFlight >= WINDOW || (this.inFlight > 0 && !this.frontier.hasNext())) {
+						this.dispatch.wait();
+					}
+					// Nothing is running that could add more links
+					if(this.inFlight == 0 && !this.frontier.hasNext()) {
+						break;
+					}
+					this.inFlight++;
+				}
+				URL next = this.frontier.next();
+				this.scheduler.submit(next, new CrawlerTask(next));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		
+		this.scheduler.finish();
+		this.index.publish();
+	}
+	
+	/**
+	 * @brief Hands a new page to the scheduler, counting it as in progress
+	 * @param url the url of the page
+	 */
+	private void submit(URL url) {
+		synchronized(this.dispatch) {
+			this.inFlight++;
+		}
+		this.scheduler.submit(url, new CrawlerTask(url));
+	}
+	
+	/**
+	 * @brief Waits until every page in progress is done, including the pages found
+	 * by other pages
+	 */
+	private void awaitPages() {
+		synchronized(this.dispatch) {
+			while(this.inFlight > 0) {
+				try {
+					this.dispatch.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @brief Parses pages fetched by the work queue and hands them to the index
+	 * stage. Runs on the threads of the parse stage.
+	 * @param tasks the tasks of the fetched pages
+	 */
+	private void parsePages(List<CrawlerTask> tasks) {
+		for(CrawlerTask task : tasks) {
+			try {
+				task.parse();
+			} catch (RuntimeException e) {
+				task.finish();
+				throw e;
+			}
+			this.indexStage.put(task);
+		}
+	}
+	
+	/**
+	 * @brief Merges a batch of parsed pages into the index with a single write.
+	 * Runs on the threads of the index stage.
+	 * @param tasks the tasks of the parsed pages
+	 */
+	private void indexPages(List<CrawlerTask> tasks) {
+		try {
+			if(tasks.size() == 1) {
+				this.index.addAll(tasks.get(0).page);
+			} else {
+				InvertedIndex batch = new InvertedIndex();
+				for(CrawlerTask task : tasks) {
+					batch.addAll(task.page);
+				}
+				this.index.addAll(batch);
+			}
+		} finally {
+			for(CrawlerTask task : tasks) {
+				task.finish();
+			}
+		}
+	}
+	
+	/**
+	 * @brief Wakes up the threads waiting for pages in progress
+	 * @param finished whether a page is done
+	 */
+	private void signal(boolean finished) {
+		synchronized(this.dispatch) {
+			if(finished) {
+				this.inFlight--;
+			}
+			this.dispatch.notifyAll();
+		}
 	}
 	
 	/**
 	 * 
 	 * @author salimamukhit
 	 * 
-	 * A Runnable instance of WebCrawler that processes each link and populates InvertedIndex
+	 * A Runnable instance of WebCrawler that processes each link and populates InvertedIndex.
+	 * Without a pipeline the whole page is crawled on the thread of the work queue,
+	 * and otherwise the task itself is handed on to the parse and index stages.
 	 */
 	public class CrawlerTask implements Runnable {
 		
 		/** A URL to parse */
 		private final URL seedUrl;
 		
+		/** The number of times the page has been fetched before */
+		private final int attempt;
+		
+		/** Whether the page was handed back to the scheduler to be fetched again */
+		private boolean retried;
+		
+		/** The HTML of the page once fetched, until it is parsed */
+		private String html;
+		
+		/** The index of the words of the page once parsed */
+		private InvertedIndex page;
+		
 		/**
 		 * Constructor
 		 * @param seedUrl a seed url to start indexing
 		 */
 		public CrawlerTask(URL seedUrl) {
+			this(seedUrl, 0);
+		}
+		
+		/**
+		 * Constructor
+		 * @param seedUrl a seed url to start indexing
+		 * @param attempt the number of times the page has been fetched before
+		 */
+		private CrawlerTask(URL seedUrl, int attempt) {
 			this.seedUrl = seedUrl;
+			this.attempt = attempt;
+			this.retried = false;
 		}
 		
 		@Override
 		public void run() {
-			// Building a local Inverted Index from link and merging with concurrent one
-			InvertedIndex local = new InvertedIndex();
-			SnowballStemmer stemmer = new SnowballStemmer(TextFileStemmer.DEFAULT);
-			String html = HtmlFetcher.fetch(seedUrl, REDIRECTS);
+			boolean fetched = false;
+			try {
+				fetched = fetch();
+			} finally {
+				if(!fetched) {
+					finish();
+				}
+			}
+			if(!fetched) {
+				return;
+			}
 			
-			if(html == null) {
+			if(parseStage != null) {
+				parseStage.put(this);
 				return;
 			}
 			
-			List<URL> validLinks = LinkParser.getValidLinks(seedUrl, HtmlCleaner.stripBlockElements(html));
+			try {
+				parse();
+				index.addAll(page);
+			} finally {
+				finish();
+			}
+		}
+		
+		/**
+		 * @brief Fetches the page, unless robots.txt disallows it. A page the host
+		 * asks to slow down for, or whose robots.txt file could not be read, may be
+		 * handed back to the scheduler.
+		 * @return true if the page was fetched
+		 */
+		private boolean fetch() {
+			if(!scheduler.isAllowed(seedUrl)) {
+				// a robots.txt file that could not be read is asked for again before the
+				// page is given up on
+				retried = scheduler.retryUnavailable(seedUrl, attempt, new CrawlerTask(seedUrl, attempt + 1));
+				return false;
+			}
+			
+			int[] status = {-1};
+			html = HtmlFetcher.fetch(seedUrl, REDIRECTS, (last, code, latency) -> {
+				status[0] = code;
+				// a redirect to another host tells nothing about the host of this page
+				scheduler.record(last, code, latency);
+			});
+			
+			if(html == null) {
+				if(scheduler.isRetryable(status[0], attempt)) {
+					retried = true;
+					scheduler.submit(seedUrl, new CrawlerTask(seedUrl, attempt + 1));
+				}
+				return false;
+			}
+			return true;
+		}
+		
+		/**
+		 * @brief Builds a local Inverted Index of the words of the fetched page and
+		 * schedules its links
+		 */
+		private void parse() {
+			InvertedIndex local = new InvertedIndex();
+			
+			// one pass over the page finds both its words and its links
+			List<URL> validLinks = new ArrayList<>();
+			int[] pos = {1};
+			String location = seedUrl.toString();
+			StemmingService stemmer = StemmingService.getDefault();
 			
-			synchronized(links) {
+			HtmlTextExtractor.extract(html, new TextTokenizer(), (buffer, length) ->
+					local.addItem(stemmer.stem(buffer, length), location, pos[0]++),
+					href -> LinkParser.addValidLink(seedUrl, href, validLinks));
+			html = null;
+			
+			if(frontier != null) {
+				for(URL link : validLinks) {
+					if(frontier.size() >= max) {
+						break;
+					}
+					frontier.add(link, max);
+				}
+				signal(false);
+			} else {
 				for(URL link : validLinks) {
-					if(links.size() >= max) {
+					if(scheduled.get() >= max) {
 						break;
 					}
 					
-					if(!links.contains(link)) {
-						links.add(link);
-						queue.execute(new CrawlerTask(link));
+					if(links.add(link)) {
+						if(scheduled.getAndIncrement() >= max) {
+							break;
+						}
+						submit(link);
 					}
 				}
 			}
-			
-			int pos = 1;
-			String location = seedUrl.toString();
-			
-			for(String item : TextParser.parse(HtmlCleaner.stripHtml(html))) {
-				local.addItem(stemmer.stem(item).toString(), location, pos++);
+			page = local;
+		}
+		
+		/**
+		 * @brief Marks the page as done, unless it was handed back to be fetched again,
+		 * in which case it stays in progress until its last attempt
+		 */
+		private void finish() {
+			if(retried) {
+				return;
+			}
+			try {
+				if(frontier != null) {
+					frontier.done(seedUrl, page);
+				}
+			} finally {
+				signal(true);
 			}
-			
-			index.addAll(local);
 		}
 	}
 }
@@ -0,0 +1,124 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import opennlp.tools.stemmer.snowball.SnowballStemmer;
+
+/**
+ * Checks that {@link EnglishStemmer} gives the same stem as the opennlp
+ * {@link SnowballStemmer} for English, token for token, on a fixed list of
+ * words. The list holds real words that reach every rule of the algorithm, and
+ * every word made of a root followed by up to two suffixes of the algorithm.
+ *
+ * @author salimamukhit
+ */
+public class EnglishStemmerTest {
+
+	/** Real words, including the exceptions and the words that end up invariant */
+	private static final String[] WORDS = {
+			"skis", "skies", "dying", "lying", "tying", "idly", "gently", "ugly", "early", "only", "singly",
+			"sky", "news", "howe", "atlas", "cosmos", "bias", "andes", "inning", "innings", "outing", "outings",
+			"canning", "cannings", "herring", "herrings", "earring", "earrings", "proceed", "proceeds",
+			"proceeding", "exceed", "exceeding", "succeed", "succeeding", "generously", "generate", "general",
+			"communism", "community", "communities", "arsenal", "ties", "cries", "gas", "gaps", "kiwis", "hoping",
+			"hopping", "luxuriating", "caresses", "ponies", "caress", "cats", "feed", "agreed", "plastered",
+			"bled", "motoring", "sing", "conflated", "troubled", "sized", "hopped", "tanned", "falling",
+			"hissing", "fizzed", "failing", "filing", "happy", "cry", "by", "say", "relational", "conditional",
+			"rational", "valenci", "hesitanci", "digitizer", "conformabli", "radicalli", "differentli", "vileli",
+			"analogousli", "vietnamization", "predication", "operator", "feudalism", "decisiveness",
+			"hopefulness", "callousness", "formaliti", "sensitiviti", "sensibiliti", "triplicate", "formative",
+			"formalize", "electriciti", "electrical", "hopeful", "goodness", "revival", "allowance", "inference",
+			"airliner", "gyroscopic", "adjustable", "defensible", "irritant", "replacement", "adjustment",
+			"dependent", "adoption", "homologou", "activate", "angulariti", "homologous", "effective",
+			"bowdlerize", "probate", "rate", "cease", "controll", "roll", "consign", "consigned", "consigning",
+			"consignment", "consist", "consisted", "consistency", "consistent", "consistently", "consisting",
+			"consists", "consolation", "consolations", "consolatory", "console", "consoled", "consoles",
+			"consolidate", "consolidated", "consolidating", "consoling", "consolingly", "consols", "consonant",
+			"consort", "consorted", "consorting", "conspicuous", "conspicuously", "conspiracy", "conspirator",
+			"conspirators", "conspire", "conspired", "conspiring", "constable", "constables", "constance",
+			"constancy", "constant", "knack", "knackeries", "knacks", "knag", "knave", "knaves", "knavish",
+			"kneaded", "kneading", "knee", "kneel", "kneeled", "kneeling", "kneels", "knees", "knell", "knelt",
+			"knew", "knick", "knif", "knife", "knight", "knightly", "knights", "knit", "knits", "knitted",
+			"knitting", "knives", "knob", "knobs", "knock", "knocked", "knocker", "knockers", "knocking",
+			"knocks", "knopp", "knot", "knots", "'", "''", "'s", "'s'", "s'", "y", "yy", "yes", "youth", "yelled",
+			"sayings", "playing", "bey", "beyond", "a", "as", "is", "us", "ss", "sss", "ied", "ies", "eed", "ing",
+			"ed", "ly", "caf\u00e9", "na\u00efve", "\u03c3\u03b9\u03c3"
+	};
+
+	/** Roots that reach the special cases of the regions and the short syllables */
+	private static final String[] ROOTS = {
+			"", "a", "y", "at", "ab", "ok", "ski", "sky", "hop", "tan", "fizz", "gener", "commun", "arsen",
+			"uni", "bey", "kiwi", "luxur", "condit", "valen", "hesit", "digit", "analog", "oper", "feud",
+			"decis", "callo", "sensi", "tripl", "electr", "revi", "infer", "airlin", "gyroscop", "adjust",
+			"defens", "irrit", "replac", "depend", "adopt", "homolog", "activ", "angular", "bowdler", "prob",
+			"cea", "rol", "consign", "knight", "play", "say", "'", "caf\u00e9", "\u03c3"
+	};
+
+	/** The suffixes the steps of the algorithm look for */
+	private static final String[] SUFFIXES = {
+			"", "s", "es", "ies", "ied", "ed", "ing", "ingly", "edly", "eed", "eedly", "ly", "li", "ational",
+			"tional", "enci", "anci", "izer", "ization", "ation", "ator", "alism", "aliti", "alli", "fulness",
+			"ousli", "ousness", "iveness", "iviti", "biliti", "bli", "ogi", "fulli", "lessli", "entli", "icate",
+			"ative", "alize", "iciti", "ical", "ful", "ness", "al", "ance", "ence", "er", "ic", "able", "ible",
+			"ant", "ement", "ment", "ent", "ism", "ate", "iti", "ous", "ive", "ize", "ion", "sion", "tion", "e",
+			"l", "ll", "y", "Y", "'", "'s", "'s'", "sses", "ss", "us", "at", "bl", "iz", "bb", "tt", "ye", "yed"
+	};
+
+	/**
+	 * @brief Checks every word through both stemming methods of
+	 * {@link EnglishStemmer} against the opennlp stemmer
+	 * @param words the words to check
+	 */
+	private static void assertSameStems(List<String> words) {
+		SnowballStemmer expected = new SnowballStemmer(SnowballStemmer.ALGORITHM.ENGLISH);
+		EnglishStemmer actual = new EnglishStemmer();
+		List<String> mismatches = new ArrayList<>();
+
+		for(String word : words) {
+			String stem = expected.stem(word).toString();
+			char[] buffer = word.toCharArray();
+			String inPlace = new String(buffer, 0, actual.stem(buffer, buffer.length));
+			String copied = actual.stem(word).toString();
+			if(!stem.equals(inPlace) || !stem.equals(copied)) {
+				mismatches.add(word + " -> " + stem + " but " + inPlace + " / " + copied);
+			}
+		}
+
+		assertEquals(List.of(), mismatches);
+	}
+
+	/**
+	 * Tests the real words
+	 */
+	@Test
+	public void testWords() {
+		assertSameStems(List.of(WORDS));
+	}
+
+	/**
+	 * Tests every root followed by up to two suffixes
+	 */
+	@Test
+	public void testSuffixes() {
+		List<String> words = new ArrayList<>();
+		for(String root : ROOTS) {
+			for(String first : SUFFIXES) {
+				for(String second : SUFFIXES) {
+					words.add(root + first + second);
+				}
+			}
+		}
+		assertSameStems(words);
+	}
+
+	/**
+	 * Tests that a long word grows the buffer of the stemmer
+	 */
+	@Test
+	public void testLongWord() {
+		assertSameStems(List.of("anti".repeat(40) + "disestablishmentarianism", "y".repeat(100) + "ies"));
+	}
+}
@@ -0,0 +1,123 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * Checks that {@link HtmlTextExtractor} finds the same text, words and links as
+ * {@link HtmlCleaner}, {@link TextTokenizer} and {@link LinkParser} do on the
+ * golden pages in {@code src/test/resources/html}. One page is an ordinary
+ * article, and the other is made of markup that is easy to get wrong: comments
+ * inside scripts and scripts inside comments, block elements with odd closing
+ * tags, entities next to plain ampersands, tags across lines and a comment that
+ * never ends.
+ *
+ * @author salimamukhit
+ */
+public class HtmlTextExtractorTest {
+
+	/** The directory of the golden pages */
+	private static final Path PAGES = Path.of("src", "test", "resources", "html");
+
+	/** The url the links of the pages are relative to */
+	private static final String BASE = "https://www.example.com/notes/page.html";
+
+	/**
+	 * @brief Reads a golden page
+	 * @param name the name of the page
+	 * @return the html of the page
+	 * @throws IOException if the page cannot be read
+	 */
+	private static String read(String name) throws IOException {
+		return Files.readString(PAGES.resolve(name), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @brief Collects the words a consumer is handed
+	 * @param words the list to add the words to
+	 * @return the consumer
+	 */
+	private static TextTokenizer.TokenConsumer collect(List<String> words) {
+		return (buffer, length) -> words.add(new String(buffer, 0, length));
+	}
+
+	/**
+	 * Tests that the text is the same as from {@link HtmlCleaner#stripHtml(String)}
+	 *
+	 * @param name the name of the page
+	 * @throws IOException if the page cannot be read
+	 */
+	@ParameterizedTest
+	@ValueSource(strings = {"article.html", "adversarial.html"})
+	public void testStripHtml(String name) throws IOException {
+		String html = read(name);
+		assertEquals(HtmlCleaner.stripHtml(html), HtmlTextExtractor.stripHtml(html));
+	}
+
+	/**
+	 * Tests that the html is the same as from
+	 * {@link HtmlCleaner#stripBlockElements(String)}
+	 *
+	 * @param name the name of the page
+	 * @throws IOException if the page cannot be read
+	 */
+	@ParameterizedTest
+	@ValueSource(strings = {"article.html", "adversarial.html"})
+	public void testStripBlockElements(String name) throws IOException {
+		String html = read(name);
+		assertEquals(HtmlCleaner.stripBlockElements(html), HtmlTextExtractor.stripBlockElements(html));
+	}
+
+	/**
+	 * Tests that the words are the same as from tokenizing the text of
+	 * {@link HtmlCleaner#stripHtml(String)}
+	 *
+	 * @param name the name of the page
+	 * @throws IOException if the page cannot be read
+	 */
+	@ParameterizedTest
+	@ValueSource(strings = {"article.html", "adversarial.html"})
+	public void testTokenize(String name) throws IOException {
+		String html = read(name);
+		List<String> expected = new ArrayList<>();
+		new TextTokenizer().tokenize(HtmlCleaner.stripHtml(html), collect(expected));
+
+		List<String> actual = new ArrayList<>();
+		HtmlTextExtractor.tokenize(html, new TextTokenizer(), collect(actual));
+		assertEquals(expected, actual);
+	}
+
+	/**
+	 * Tests that one pass finds the same words as {@link #testTokenize(String)}
+	 * and the same links as {@link LinkParser#getValidLinks(URL, String)} finds in
+	 * the html of {@link HtmlCleaner#stripBlockElements(String)}
+	 *
+	 * @param name the name of the page
+	 * @throws IOException if the page cannot be read
+	 */
+	@ParameterizedTest
+	@ValueSource(strings = {"article.html", "adversarial.html"})
+	public void testExtract(String name) throws IOException {
+		String html = read(name);
+		URL base = new URL(BASE);
+		List<String> expectedWords = new ArrayList<>();
+		new TextTokenizer().tokenize(HtmlCleaner.stripHtml(html), collect(expectedWords));
+		List<URL> expectedLinks = LinkParser.getValidLinks(base, HtmlCleaner.stripBlockElements(html));
+
+		List<String> words = new ArrayList<>();
+		List<URL> links = new ArrayList<>();
+		HtmlTextExtractor.extract(html, new TextTokenizer(), collect(words),
+				href -> LinkParser.addValidLink(base, href, links));
+		assertEquals(expectedWords, words);
+		// compared as text, since URL equality looks up the hosts
+		assertEquals(expectedLinks.toString(), links.toString());
+	}
+}
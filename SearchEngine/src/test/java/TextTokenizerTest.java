@@ -0,0 +1,148 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * Checks that {@link TextTokenizer} finds the same words as
+ * {@code TextParser.split(TextParser.clean(text))}, including its quirks, and
+ * that it finds the same words in a text whether it is tokenized at once or fed
+ * in pieces, wherever the pieces are cut.
+ *
+ * @author salimamukhit
+ */
+public class TextTokenizerTest {
+
+	/**
+	 * @brief Tokenizes a text at once
+	 * @param text the text
+	 * @return the words
+	 */
+	private static List<String> tokenize(String text) {
+		List<String> words = new ArrayList<>();
+		new TextTokenizer().tokenize(text, (buffer, length) -> words.add(new String(buffer, 0, length)));
+		return words;
+	}
+
+	/**
+	 * @brief Feeds a text to one tokenizer in pieces of the same size
+	 * @param text the text
+	 * @param piece the number of characters in a piece
+	 * @return the words
+	 */
+	private static List<String> feed(String text, int piece) {
+		List<String> words = new ArrayList<>();
+		TextTokenizer.TokenConsumer consumer = (buffer, length) -> words.add(new String(buffer, 0, length));
+		TextTokenizer tokenizer = new TextTokenizer();
+		for(int i = 0; i < text.length(); i += piece) {
+			tokenizer.feed(text.substring(i, Math.min(text.length(), i + piece)), consumer);
+		}
+		tokenizer.finish(consumer);
+		return words;
+	}
+
+	/**
+	 * @brief Cleans and splits a text with the regular expressions of {@link TextParser}
+	 * @param text the text
+	 * @return the words
+	 */
+	private static List<String> expected(String text) {
+		return Arrays.asList(TextParser.split(TextParser.clean(text)));
+	}
+
+	/**
+	 * Tests the quirks of {@code split(clean(text))}: the empty first word of a text
+	 * starting with whitespace that {@link String#strip()} keeps but the split pattern
+	 * removes, such as a non-breaking space, the final sigma, letters that lowercase
+	 * to more than one character, and marks, digits and connectors that are dropped
+	 * from inside words
+	 *
+	 * @param text the text to check
+	 */
+	@ParameterizedTest
+	@ValueSource(strings = {
+			"\u00a0leading non-breaking space",
+			"\u2007\u202f figure and narrow spaces",
+			"trailing non-breaking space\u00a0",
+			"\u00a0",
+			"\u0085 leading next line",
+			"ΟΔΥΣΣΕΥΣ ΣΑΣ Σ aΣ ΣΣ Σa Σ.Σ ΑΣ1 ΑΣ'Σ",
+			"İstanbul DİYARBAKIR ıi Iİ",
+			"Straße ǅemal Ǆǆǅ ﬁne ﬂow Ǳ",
+			"Café naïve e\u0301clair Å\u030a ñ",
+			"x_y 12abc a-b it's 3rd",
+			"\u3000ideographic\u3000space",
+			"zero\u200bwidth joiner\u200d",
+			"tabs\tand\nlines\r\nand\u000bvertical\u000cfeeds",
+			"𝐀𝐁𝐂 bold 𐐀𐐨 deseret 𠀀 han",
+			"٣ arabic digits ١٢ and ٠ and Ⅻ roman",
+			"   ",
+			""
+	})
+	public void testMatchesTextParser(String text) {
+		assertEquals(expected(text), tokenize(text));
+		assertEquals(expected(text), feed(text, 1));
+	}
+
+	/**
+	 * Tests every code point alone, inside a word and before a space
+	 */
+	@Test
+	public void testCodePoints() {
+		List<String> mismatches = new ArrayList<>();
+		for(int code = 0; code <= Character.MAX_CODE_POINT; code++) {
+			if(Character.getType(code) == Character.UNASSIGNED || Character.getType(code) == Character.SURROGATE) {
+				continue;
+			}
+			String point = new String(Character.toChars(code));
+			for(String text : new String[] {point, "ab" + point + "cd", point + " x"}) {
+				if(!expected(text).equals(tokenize(text))) {
+					mismatches.add(Integer.toHexString(code) + " in \"" + text + "\"");
+				}
+			}
+		}
+		assertEquals(List.of(), mismatches);
+	}
+
+	/**
+	 * Tests texts cut into pieces of every size up to the length of the text,
+	 * which cuts through words, accents and surrogate pairs
+	 *
+	 * @param text the text to cut
+	 */
+	@ParameterizedTest
+	@ValueSource(strings = {
+			"The quick brown fox jumps over the lazy dog",
+			"Café naı̈ve ΟΔΥΣΣΕΥΣ straße",
+			"𝐀𝐁𝐂 bold 𐐀𐐨 deseret 𠀀 han",
+			"a𝐀b 😀 c𐐀 𝐀",
+			"\u0085 leading next line, then x_y 12abc and tabs\tand\nlines"
+	})
+	public void testPieces(String text) {
+		List<String> expected = tokenize(text);
+		for(int piece = 1; piece <= text.length(); piece++) {
+			assertEquals(expected, feed(text, piece), "pieces of " + piece);
+		}
+	}
+
+	/**
+	 * Tests that a high surrogate left over at the end of a text does not reach the
+	 * next text
+	 */
+	@Test
+	public void testUnpairedSurrogate() {
+		List<String> words = new ArrayList<>();
+		TextTokenizer.TokenConsumer consumer = (buffer, length) -> words.add(new String(buffer, 0, length));
+		TextTokenizer tokenizer = new TextTokenizer();
+		tokenizer.feed("one \ud835", consumer);
+		tokenizer.finish(consumer);
+		tokenizer.feed("\udc00two", consumer);
+		tokenizer.finish(consumer);
+		assertEquals(List.of("one", "two"), words);
+	}
+}